@@ -1,5 +1,15 @@
 import * as path from 'path';
-import { workspace, ExtensionContext } from 'vscode';
+import {
+    commands,
+    window,
+    workspace,
+    EventEmitter,
+    ExtensionContext,
+    TextDocumentContentProvider,
+    TextEditorSelectionChangeEvent,
+    Uri,
+    ViewColumn,
+} from 'vscode';
 import {
 	LanguageClient,
 	LanguageClientOptions,
@@ -8,6 +18,39 @@ import {
 
 let client: LanguageClient;
 
+// Tcl expansions are shown in a read-only virtual document, which is
+// updated whenever the selection in a Soar or Tcl file changes.
+const expansionUri = Uri.parse('soar-expansion:Tcl%20Expansion.soar');
+
+class TclExpansionProvider implements TextDocumentContentProvider {
+    private contents = '';
+    private changed = new EventEmitter<Uri>();
+    readonly onDidChange = this.changed.event;
+
+    provideTextDocumentContent(uri: Uri): string {
+        return this.contents;
+    }
+
+    update(event: TextEditorSelectionChangeEvent) {
+        const document = event.textEditor.document;
+        if (document.uri.scheme !== 'file') {
+            return;
+        }
+        const selection = event.selections[0];
+        client.sendRequest<string>('soar/tclExpansion', {
+            textDocument: { uri: document.uri.toString() },
+            range: client.code2ProtocolConverter.asRange(selection),
+        }).then(contents => {
+            // Moving the cursor onto a command that doesn't create
+            // productions keeps showing the last expansion.
+            if (contents && contents !== this.contents) {
+                this.contents = contents;
+                this.changed.fire(expansionUri);
+            }
+        });
+    }
+}
+
 export function activate(context: ExtensionContext) {
     const serverEnabled = workspace.getConfiguration('soar').get<boolean>('languageServer.enabled');
     if (!serverEnabled) {
@@ -38,6 +81,21 @@ export function activate(context: ExtensionContext) {
         clientOptions);
 
     client.start();
+
+    const expansions = new TclExpansionProvider();
+    context.subscriptions.push(
+        workspace.registerTextDocumentContentProvider(expansionUri.scheme, expansions),
+        commands.registerCommand('soar.showTclExpansion', () =>
+            workspace.openTextDocument(expansionUri).then(document =>
+                window.showTextDocument(document, ViewColumn.Beside, true))));
+    client.onReady().then(() => {
+        context.subscriptions.push(window.onDidChangeTextEditorSelection(event => {
+            const languageId = event.textEditor.document.languageId;
+            if (languageId === 'soar' || languageId === 'tcl') {
+                expansions.update(event);
+            }
+        }));
+    });
 }
 
 export function deactivate(): Thenable<void> | undefined {
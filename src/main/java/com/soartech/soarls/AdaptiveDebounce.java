@@ -0,0 +1,138 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.util.Metrics;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks how long to wait before analysing each entry point, instead of using the same fixed delay
+ * for all of them.
+ *
+ * <p>The point of waiting is to avoid starting an analysis that is immediately made obsolete by
+ * another edit. How long that takes to be worthwhile depends on two things we can measure:
+ *
+ * <ul>
+ *   <li>How the user is typing. We keep a moving average of the gap between edits, and wait a
+ *       little longer than that, so that the analysis starts as soon as the user pauses. The first
+ *       edit after a pause has no gap to go on, so if the entry point is cheap to analyse it runs
+ *       almost immediately.
+ *   <li>How much a wasted analysis would cost. We keep a moving average of how long each entry
+ *       point takes to analyse, and wait for a fraction of that, scaled up when the machine is
+ *       already busy. Small agents are analysed sooner, large ones later.
+ * </ul>
+ *
+ * <p>If the user keeps typing for a while without pausing, the delay is doubled so that we stop
+ * starting analyses that will be superseded. Whatever is computed is kept between a small minimum
+ * and the configured debounce time.
+ */
+class AdaptiveDebounce {
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveDebounce.class);
+
+  /** Never wait less than this, so that a batch of changes made at once is analysed together. */
+  static final Duration MIN_DELAY = Duration.ofMillis(50);
+
+  /** Edits further apart than this are considered separate bursts of typing. */
+  private static final Duration PAUSE = Duration.ofSeconds(2);
+
+  /** A burst of typing that lasts longer than this is considered sustained. */
+  private static final Duration SUSTAINED = Duration.ofSeconds(5);
+
+  /** How far to wait past the usual gap between edits. */
+  private static final double GAP_FACTOR = 1.5;
+
+  /** The fraction of the analysis time to wait. */
+  private static final double COST_FACTOR = 0.5;
+
+  /** The weight of each new sample in the moving averages. */
+  private static final double ALPHA = 0.3;
+
+  private static final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+  private static class History {
+    /** The average time to analyse the entry point, or 0 if it has never been analysed. */
+    double costNanos = 0;
+
+    /** The average gap between edits within a burst, or 0 if the current burst has one edit. */
+    double gapNanos = 0;
+
+    long lastScheduled = 0;
+
+    long burstStart = 0;
+  }
+
+  private final ConcurrentHashMap<URI, History> histories = new ConcurrentHashMap<>();
+
+  /**
+   * Record a request to analyse the entry point, and return how long to wait before doing so.
+   *
+   * @param max the longest we are allowed to wait
+   */
+  Duration scheduled(URI entryPointUri, Duration max) {
+    long now = System.nanoTime();
+    History history = histories.computeIfAbsent(entryPointUri, uri -> new History());
+    synchronized (history) {
+      long gap = now - history.lastScheduled;
+      if (history.lastScheduled == 0 || gap > PAUSE.toNanos()) {
+        history.gapNanos = 0;
+        history.burstStart = now;
+      } else {
+        history.gapNanos =
+            history.gapNanos == 0 ? gap : ALPHA * gap + (1 - ALPHA) * history.gapNanos;
+      }
+      history.lastScheduled = now;
+
+      double typing = history.gapNanos * GAP_FACTOR;
+      double load = load();
+      double cost = history.costNanos * COST_FACTOR * load;
+      boolean sustained = now - history.burstStart > SUSTAINED.toNanos();
+      double delay = Math.max(typing, cost) * (sustained ? 2 : 1);
+      long nanos = Math.min(max.toNanos(), Math.max(MIN_DELAY.toNanos(), Math.round(delay)));
+
+      long millis = Duration.ofNanos(nanos).toMillis();
+      Metrics.increment("debounce.decisions");
+      Metrics.add("debounce.total-delay-ms", millis);
+      Metrics.recordMax("debounce.max-delay-ms", millis);
+      if (sustained) {
+        Metrics.increment("debounce.sustained-typing");
+      }
+      LOG.debug(
+          "Waiting {} ms to analyse {} (typing gap {} ms, analysis cost {} ms, load {}{})",
+          millis,
+          entryPointUri,
+          Math.round(history.gapNanos / 1e6),
+          Math.round(history.costNanos / 1e6),
+          String.format("%.2f", load),
+          sustained ? ", sustained typing" : "");
+      return Duration.ofNanos(nanos);
+    }
+  }
+
+  /** Record how long it took to analyse an entry point. */
+  void analysed(URI entryPointUri, Duration duration) {
+    History history = histories.computeIfAbsent(entryPointUri, uri -> new History());
+    synchronized (history) {
+      long nanos = duration.toNanos();
+      history.costNanos =
+          history.costNanos == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * history.costNanos;
+    }
+    Metrics.recordMax("analysis.max-duration-ms", duration.toMillis());
+  }
+
+  /**
+   * How busy the machine is, as a multiplier of at least 1. This is the load average per
+   * processor, which is unavailable on some platforms, in which case we assume we have the machine
+   * to ourselves.
+   */
+  private static double load() {
+    double average = os.getSystemLoadAverage();
+    if (average < 0) {
+      return 1;
+    }
+    return Math.max(1, average / os.getAvailableProcessors());
+  }
+}
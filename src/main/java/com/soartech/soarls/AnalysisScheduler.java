@@ -0,0 +1,306 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.util.Metrics;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs analyses one at a time, starting with the entry points that matter most to the user.
+ *
+ * <p>Like a debouncer, each entry point has at most one pending analysis, and scheduling it again
+ * pushes back the time at which it becomes ready. Unlike a debouncer, when several analyses are
+ * ready at once (such as after the configuration changes) they are not run in the order they were
+ * scheduled. Instead, the one with the best priority goes first, where priorities are looked up
+ * when the choice is made, since the documents the user is working on can change while an analysis
+ * waits. Ties go to whichever has been waiting longest.
+ *
+ * <p>The delay is normally fixed, but it can instead be chosen for each entry point by an {@link
+ * AdaptiveDebounce}, using the durations of the analyses that this scheduler has run.
+ *
+ * <p>Background analyses can be preempted: the task is given a flag that it should check
+ * periodically, which becomes true if a more important analysis is ready to run. A preempted task
+ * should give up and call {@link #requeue}.
+ *
+ * <p>There is a single worker thread for all analyses because it is unclear whether or not the
+ * JTcl interpreter is thread safe. The thread runs until {@link #shutdown} is called.
+ */
+class AnalysisScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(AnalysisScheduler.class);
+
+  // Priorities, from most to least important.
+
+  /** Entry points that source the document that the user most recently edited or opened. */
+  static final int FOCUSED = 0;
+
+  /** The active entry point, which is used to answer most requests. */
+  static final int ACTIVE = 1;
+
+  /** Entry points that source any other open document. */
+  static final int OPEN = 2;
+
+  /** Everything else. These analyses can be preempted. */
+  static final int BACKGROUND = 3;
+
+  /** Checking whether to preempt involves looking up priorities, so we don't do it constantly. */
+  private static final Duration PREEMPTION_CHECK_INTERVAL = Duration.ofMillis(50);
+
+  /**
+   * Schedulers that have not been shut down. There is normally only one, but tests create many, so
+   * the queue depth gauge reports the total rather than whichever scheduler registered last.
+   */
+  private static final Set<AnalysisScheduler> RUNNING = ConcurrentHashMap.newKeySet();
+
+  static {
+    Metrics.gauge(
+        "analysis.queue-depth",
+        () -> RUNNING.stream().mapToLong(AnalysisScheduler::queueDepth).sum());
+  }
+
+  interface Task {
+    /**
+     * Run the analysis.
+     *
+     * @param preempted returns true if the task should give up, because something more important
+     *     is waiting. Once this has returned true it will continue to do so.
+     */
+    void run(BooleanSupplier preempted);
+  }
+
+  /** The flag given to a running task. */
+  private class PreemptionCheck implements BooleanSupplier {
+    private long nextCheck = 0;
+
+    private boolean preempted = false;
+
+    @Override
+    public boolean getAsBoolean() {
+      long now = System.nanoTime();
+      if (!preempted && now >= nextCheck) {
+        preempted = shouldPreempt();
+        nextCheck = now + PREEMPTION_CHECK_INTERVAL.toNanos();
+      }
+      return preempted;
+    }
+  }
+
+  private static class Pending {
+    final URI entryPointUri;
+
+    final Task task;
+
+    /** When the analysis was first scheduled, for measuring how long it waited. */
+    final long queuedAt;
+
+    /** When the analysis may start, in System.nanoTime. */
+    final long readyAt;
+
+    Pending(URI entryPointUri, Task task, long queuedAt, long readyAt) {
+      this.entryPointUri = entryPointUri;
+      this.task = task;
+      this.queuedAt = queuedAt;
+      this.readyAt = readyAt;
+    }
+  }
+
+  private final ToIntFunction<URI> priority;
+
+  private volatile Duration delay;
+
+  /** If set, the delay is only an upper bound, and the actual delay is picked adaptively. */
+  private volatile boolean adaptive = false;
+
+  private final AdaptiveDebounce adaptiveDebounce = new AdaptiveDebounce();
+
+  /** Pending analyses for each entry point. Guarded by this. */
+  private final Map<URI, Pending> pending = new HashMap<>();
+
+  /** The priority of the running analysis, or -1 if nothing is running. Guarded by this. */
+  private int runningPriority = -1;
+
+  private final Thread worker;
+
+  /** Set by {@link #shutdown}, in case a task swallows the interruption. */
+  private volatile boolean stopped = false;
+
+  /**
+   * @param priority looks up the priority of an entry point; lower numbers run first
+   * @param delay how long to wait for scheduling requests to stop before an analysis becomes ready
+   */
+  AnalysisScheduler(ToIntFunction<URI> priority, Duration delay) {
+    this.priority = priority;
+    this.delay = delay;
+    this.worker = new Thread(this::work, "analysis");
+    worker.setDaemon(true);
+    RUNNING.add(this);
+    worker.start();
+  }
+
+  /**
+   * Stop the worker thread. Pending analyses are dropped, and a running analysis is interrupted.
+   * Anything scheduled afterwards never runs.
+   */
+  void shutdown() {
+    synchronized (this) {
+      stopped = true;
+      pending.clear();
+    }
+    RUNNING.remove(this);
+    worker.interrupt();
+  }
+
+  /**
+   * Change the delay. Pending analyses are brought forward if the new delay would make them ready
+   * sooner, but they are never pushed back.
+   */
+  synchronized void setDelay(Duration delay) {
+    this.delay = delay;
+    long readyBy = System.nanoTime() + delay.toNanos();
+    pending.replaceAll(
+        (uri, p) -> p.readyAt <= readyBy ? p : new Pending(uri, p.task, p.queuedAt, readyBy));
+    notifyAll();
+  }
+
+  void setAdaptive(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  /**
+   * Schedule an analysis of the given entry point. If one is already pending then its task is
+   * replaced, but it keeps its place in the queue.
+   */
+  synchronized void schedule(URI entryPointUri, Task task) {
+    if (stopped) {
+      return;
+    }
+    long now = System.nanoTime();
+    Pending previous = pending.get(entryPointUri);
+    long queuedAt = previous != null ? previous.queuedAt : now;
+    Duration wait = adaptive ? adaptiveDebounce.scheduled(entryPointUri, delay) : delay;
+    pending.put(entryPointUri, new Pending(entryPointUri, task, queuedAt, now + wait.toNanos()));
+    notifyAll();
+  }
+
+  /** Put a task that was preempted back into the queue, unless it was scheduled again already. */
+  synchronized void requeue(URI entryPointUri, Task task) {
+    Metrics.increment("analysis.preempted");
+    long now = System.nanoTime();
+    pending.putIfAbsent(entryPointUri, new Pending(entryPointUri, task, now, now));
+    notifyAll();
+  }
+
+  /** The entry points that are waiting to be analysed, in the order they would run right now. */
+  synchronized List<URI> queue() {
+    List<Pending> ordered = new ArrayList<>(pending.values());
+    ordered.sort(order());
+    List<URI> uris = new ArrayList<>();
+    for (Pending p : ordered) {
+      uris.add(p.entryPointUri);
+    }
+    return uris;
+  }
+
+  private synchronized long queueDepth() {
+    return pending.size();
+  }
+
+  private Comparator<Pending> order() {
+    return Comparator.<Pending>comparingInt(p -> priority.applyAsInt(p.entryPointUri))
+        .thenComparingLong(p -> p.queuedAt);
+  }
+
+  private void work() {
+    while (!stopped) {
+      Pending next;
+      int nextPriority;
+      int position;
+      try {
+        synchronized (this) {
+          runningPriority = -1;
+          next = null;
+          while (next == null && !stopped) {
+            next = nextReady();
+            if (next == null) {
+              waitForReady();
+            }
+          }
+          if (stopped) {
+            return;
+          }
+          pending.remove(next.entryPointUri);
+          nextPriority = priority.applyAsInt(next.entryPointUri);
+          runningPriority = nextPriority;
+          position = pending.size();
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      long waitedMillis = Duration.ofNanos(System.nanoTime() - next.queuedAt).toMillis();
+      Metrics.recordMax("analysis.max-wait-ms", waitedMillis);
+      LOG.info(
+          "Starting analysis of {} with priority {} after waiting {} ms; {} still queued",
+          next.entryPointUri,
+          nextPriority,
+          waitedMillis,
+          position);
+      PreemptionCheck check = new PreemptionCheck();
+      long start = System.nanoTime();
+      try {
+        next.task.run(check);
+      } catch (Exception e) {
+        LOG.error("Analysis of {} failed", next.entryPointUri, e);
+      }
+      // Preempted analyses stop early, so they would underestimate how long a full one takes.
+      if (!check.preempted) {
+        adaptiveDebounce.analysed(next.entryPointUri, Duration.ofNanos(System.nanoTime() - start));
+      }
+    }
+  }
+
+  /** The most important pending analysis that is ready to start, or null. Hold the lock. */
+  private Pending nextReady() {
+    long now = System.nanoTime();
+    return pending
+        .values()
+        .stream()
+        .filter(p -> p.readyAt <= now)
+        .min(order())
+        .orElse(null);
+  }
+
+  /** Wait for the earliest pending analysis to become ready, or for a change. Hold the lock. */
+  private void waitForReady() throws InterruptedException {
+    long now = System.nanoTime();
+    long earliest =
+        pending.values().stream().mapToLong(p -> p.readyAt).min().orElse(Long.MAX_VALUE);
+    if (earliest == Long.MAX_VALUE) {
+      wait();
+    } else {
+      long millis = Math.max(1, Duration.ofNanos(earliest - now).toMillis());
+      wait(millis);
+    }
+  }
+
+  /** Whether the running analysis is a background one and something more important is ready. */
+  private synchronized boolean shouldPreempt() {
+    if (runningPriority < BACKGROUND) {
+      return false;
+    }
+    long now = System.nanoTime();
+    return pending
+        .values()
+        .stream()
+        .anyMatch(p -> p.readyAt <= now && priority.applyAsInt(p.entryPointUri) < runningPriority);
+  }
+}
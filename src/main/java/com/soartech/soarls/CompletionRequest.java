@@ -1,60 +1,125 @@
 package com.soartech.soarls;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.soartech.soarls.analysis.NameIndex;
+import com.soartech.soarls.analysis.ProcedureDefinition;
 import com.soartech.soarls.analysis.ProcedureDefinition.Argument;
-import com.soartech.soarls.analysis.ProjectAnalysis;
-import java.util.stream.Stream;
+import com.soartech.soarls.analysis.VariableDefinition;
+import java.net.URI;
+import java.util.List;
+import java.util.function.Function;
 import org.eclipse.lsp4j.CompletionItem;
 import org.eclipse.lsp4j.CompletionItemKind;
+import org.eclipse.lsp4j.CompletionList;
 import org.eclipse.lsp4j.InsertTextFormat;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.TextEdit;
 
-/** A helper class for responding to the textDocument/completion request. */
+/**
+ * A helper class for responding to the textDocument/completion and completionItem/resolve requests.
+ *
+ * <p>Large codebases can define tens of thousands of procedures, but the client will only show a
+ * handful of them. We therefore only return the best matches, and mark the list as incomplete if
+ * any were left out so that the client asks again as the user keeps typing. Documentation is left
+ * out of the initial response entirely; it is filled in by completionItem/resolve for the item
+ * that the user actually selects.
+ */
 public class CompletionRequest {
-  public static Stream<CompletionItem> completeVariable(
-      ProjectAnalysis analysis, String prefix, Range replacementRange) {
-    return analysis
-        .variableDefinitions
-        .values()
-        .stream()
-        .filter(def -> def.name.startsWith(prefix))
-        .map(
-            def -> {
-              CompletionItem item = new CompletionItem(def.name);
-              item.setKind(CompletionItemKind.Constant);
-              item.setTextEdit(new TextEdit(replacementRange, def.name));
-              item.setDocumentation(def.commentText.orElse(null));
-              return item;
-            });
+  /** The maximum number of items to include in a completion list. */
+  static final int MAX_ITEMS = 100;
+
+  public static CompletionList completeVariable(
+      NameIndex<VariableDefinition> index,
+      String prefix,
+      Range replacementRange,
+      URI entryPointUri) {
+    return completionList(
+        index.search(prefix, MAX_ITEMS),
+        def -> {
+          CompletionItem item = new CompletionItem(def.name);
+          item.setKind(CompletionItemKind.Constant);
+          item.setTextEdit(new TextEdit(replacementRange, def.name));
+          item.setData(new ItemData(ItemData.VARIABLE, def.name, entryPointUri).toJson());
+          return item;
+        });
+  }
+
+  public static CompletionList completeProcedure(
+      NameIndex<ProcedureDefinition> index,
+      String prefix,
+      Range replacementRange,
+      URI entryPointUri) {
+    return completionList(
+        index.search(prefix, MAX_ITEMS),
+        def -> {
+          CompletionItem item = new CompletionItem(def.name);
+          item.setKind(CompletionItemKind.Function);
+
+          // The client may not change the text edit while resolving an item, so the snippet has
+          // to be built up front. This is cheap compared to finding the item in the first place.
+          String snippet = def.name;
+          for (int i = 0; i != def.arguments.size(); ++i) {
+            Argument arg = def.arguments.get(i);
+            String value =
+                arg.defaultValue.map(val -> "{ " + arg.name + " " + val + " \\}").orElse(arg.name);
+            snippet += " ${" + (i + 1) + ":" + value + "}";
+          }
+          snippet += "$0";
+          item.setTextEdit(new TextEdit(replacementRange, snippet));
+
+          item.setInsertTextFormat(InsertTextFormat.Snippet);
+          item.setData(new ItemData(ItemData.PROCEDURE, def.name, entryPointUri).toJson());
+          return item;
+        });
+  }
+
+  private static <T> CompletionList completionList(
+      NameIndex.Result<T> result, Function<T, CompletionItem> makeItem) {
+    List<CompletionItem> items =
+        result.matches.stream().map(match -> makeItem.apply(match.value)).collect(toList());
+    return new CompletionList(result.isIncomplete, items);
   }
 
-  public static Stream<CompletionItem> completeProcedure(
-      ProjectAnalysis analysis, String prefix, Range replacementRange) {
-    return analysis
-        .procedureDefinitions
-        .values()
-        .stream()
-        .filter(def -> def.name.startsWith(prefix))
-        .map(
-            def -> {
-              CompletionItem item = new CompletionItem(def.name);
-              item.setKind(CompletionItemKind.Function);
-
-              String snippet = def.name;
-              for (int i = 0; i != def.arguments.size(); ++i) {
-                Argument arg = def.arguments.get(i);
-                String value =
-                    arg.defaultValue
-                        .map(val -> "{ " + arg.name + " " + val + " \\}")
-                        .orElse(arg.name);
-                snippet += " ${" + (i + 1) + ":" + value + "}";
-              }
-              snippet += "$0";
-              item.setTextEdit(new TextEdit(replacementRange, snippet));
-
-              item.setInsertTextFormat(InsertTextFormat.Snippet);
-              item.setDocumentation(def.commentText.orElse(null));
-              return item;
-            });
+  /**
+   * The information we attach to each completion item so that we can find its definition again
+   * when it is resolved. This is sent to the client and back as JSON.
+   */
+  static class ItemData {
+    static final String VARIABLE = "variable";
+
+    static final String PROCEDURE = "procedure";
+
+    /** Either VARIABLE or PROCEDURE. */
+    final String kind;
+
+    /** The name of the variable or procedure. */
+    final String name;
+
+    /**
+     * The URI of the entry point whose analysis the item came from, or null if it came from the
+     * symbols of the documents' syntax trees.
+     */
+    final String entryPoint;
+
+    ItemData(String kind, String name, URI entryPointUri) {
+      this.kind = kind;
+      this.name = name;
+      this.entryPoint = entryPointUri != null ? entryPointUri.toString() : null;
+    }
+
+    JsonElement toJson() {
+      return new Gson().toJsonTree(this);
+    }
+
+    /** Read the data attached to an item, or return null if there isn't any. */
+    static ItemData of(CompletionItem item) {
+      if (!(item.getData() instanceof JsonElement)) {
+        return null;
+      }
+      return new Gson().fromJson((JsonElement) item.getData(), ItemData.class);
+    }
   }
 }
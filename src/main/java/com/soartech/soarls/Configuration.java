@@ -8,12 +8,33 @@ class Configuration {
   /** How long in milliseconds to wait for changes to stop before an analysis is begun. */
   public Integer debounceTime = 1000;
 
+  /**
+   * If true, then the time to wait before an analysis is chosen for each entry point, based on how
+   * long it takes to analyse and how quickly the user is typing. The debounce time is then the
+   * longest that we will wait.
+   */
+  public Boolean adaptiveDebounce = false;
+
+  /**
+   * How long in milliseconds a request will wait for an analysis to complete. After this, requests
+   * that can be answered from the syntax tree alone (such as completion and go-to-definition) are
+   * answered that way instead.
+   */
+  public Integer analysisWaitTime = 2000;
+
   /** Whether hover tooltips should show full comment text or just the first line. */
   public Boolean fullCommentHover = true;
 
+  /**
+   * If true, then the Tcl expansion of the commands under the cursor will be written to the
+   * expansion file whenever the cursor moves. This is disabled by default because it causes a lot
+   * of edits; clients should prefer to request expansions using the soar/tclExpansion request.
+   */
+  public Boolean writeTclExpansionFile = false;
+
   /**
    * The name of the file to use for Tcl expansions, relative to the workspace root. This file will
-   * be frequently modified by the server.
+   * be frequently modified by the server if writeTclExpansionFile is enabled.
    */
   public String tclExpansionFile = "~tcl-expansion.soar";
 
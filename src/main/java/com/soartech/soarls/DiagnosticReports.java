@@ -0,0 +1,162 @@
+package com.soartech.soarls;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+
+/**
+ * The parameters and results of the textDocument/diagnostic and workspace/diagnostic requests,
+ * which let clients pull diagnostics rather than having them pushed. These were added in version
+ * 3.17 of the protocol, which is newer than the version of lsp4j that we use, so we define them
+ * ourselves. The field names match the specification.
+ */
+public class DiagnosticReports {
+  /** The report kind of a full set of diagnostics. */
+  public static final String FULL = "full";
+
+  /** The report kind used when diagnostics haven't changed since the previous result ID. */
+  public static final String UNCHANGED = "unchanged";
+
+  private DiagnosticReports() {}
+
+  /** The parameters of a textDocument/diagnostic request. */
+  public static class DocumentDiagnosticParams {
+    private TextDocumentIdentifier textDocument;
+
+    /** The result ID of the last report the client received for this document, if any. */
+    private String previousResultId;
+
+    public DocumentDiagnosticParams() {}
+
+    public DocumentDiagnosticParams(TextDocumentIdentifier textDocument, String previousResultId) {
+      this.textDocument = textDocument;
+      this.previousResultId = previousResultId;
+    }
+
+    public TextDocumentIdentifier getTextDocument() {
+      return textDocument;
+    }
+
+    public String getPreviousResultId() {
+      return previousResultId;
+    }
+  }
+
+  /** The result ID of the last report the client received for a document. */
+  public static class PreviousResultId {
+    private String uri;
+
+    private String value;
+
+    public PreviousResultId() {}
+
+    public PreviousResultId(String uri, String value) {
+      this.uri = uri;
+      this.value = value;
+    }
+
+    public String getUri() {
+      return uri;
+    }
+
+    public Integer getVersion() {
+      return version;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  /** The parameters of a workspace/diagnostic request. */
+  public static class WorkspaceDiagnosticParams {
+    private List<PreviousResultId> previousResultIds = new ArrayList<>();
+
+    public WorkspaceDiagnosticParams() {}
+
+    public WorkspaceDiagnosticParams(List<PreviousResultId> previousResultIds) {
+      this.previousResultIds = previousResultIds;
+    }
+
+    public List<PreviousResultId> getPreviousResultIds() {
+      return previousResultIds != null ? previousResultIds : new ArrayList<>();
+    }
+  }
+
+  /**
+   * The diagnostics for a single document. If the kind is unchanged then there are no items, and
+   * the client should keep the ones it has. The URI and version are only set in workspace reports.
+   */
+  public static class DocumentDiagnosticReport {
+    private String kind;
+
+    private String resultId;
+
+    private List<Diagnostic> items;
+
+    private String uri;
+
+    /** The version of the open document that the diagnostics are for, or null if it isn't open. */
+    private Integer version;
+
+    public DocumentDiagnosticReport() {}
+
+    public static DocumentDiagnosticReport full(String resultId, List<Diagnostic> items) {
+      DocumentDiagnosticReport report = new DocumentDiagnosticReport();
+      report.kind = FULL;
+      report.resultId = resultId;
+      report.items = items;
+      return report;
+    }
+
+    public static DocumentDiagnosticReport unchanged(String resultId) {
+      DocumentDiagnosticReport report = new DocumentDiagnosticReport();
+      report.kind = UNCHANGED;
+      report.resultId = resultId;
+      return report;
+    }
+
+    /** Mark this report as being for the given document, for use in a workspace report. */
+    public DocumentDiagnosticReport forDocument(String uri, Integer version) {
+      this.uri = uri;
+      this.version = version;
+      return this;
+    }
+
+    public String getKind() {
+      return kind;
+    }
+
+    public String getResultId() {
+      return resultId;
+    }
+
+    public List<Diagnostic> getItems() {
+      return items;
+    }
+
+    public String getUri() {
+      return uri;
+    }
+
+    public Integer getVersion() {
+      return version;
+    }
+  }
+
+  /** The result of a workspace/diagnostic request. */
+  public static class WorkspaceDiagnosticReport {
+    private List<DocumentDiagnosticReport> items;
+
+    public WorkspaceDiagnosticReport() {}
+
+    public WorkspaceDiagnosticReport(List<DocumentDiagnosticReport> items) {
+      this.items = items;
+    }
+
+    public List<DocumentDiagnosticReport> getItems() {
+      return items;
+    }
+  }
+}
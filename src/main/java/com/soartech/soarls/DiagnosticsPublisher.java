@@ -0,0 +1,164 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.util.Metrics;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends diagnostics to the client, but only for documents whose diagnostics have changed.
+ *
+ * <p>Every analysis produces diagnostics for every file that it sourced, and in a large project
+ * nearly all of them are the same as they were after the previous analysis. Rather than publishing
+ * them directly, callers mark the documents whose diagnostics might have changed. Marked documents
+ * are collected and published in batches on a separate thread, at most once per interval. For each
+ * one, the current diagnostics are computed and compared to what the client was last sent, and
+ * only those that differ are sent again.
+ *
+ * <p>Clients that pull diagnostics don't have them sent at all. Instead, if any of the documents in
+ * a batch have changed, we send a single workspace/diagnostic/refresh request to tell the client to
+ * pull them again.
+ */
+class DiagnosticsPublisher {
+  private static final Logger LOG = LoggerFactory.getLogger(DiagnosticsPublisher.class);
+
+  private static final ScheduledExecutorService publishThread =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private final Function<URI, List<Diagnostic>> currentDiagnostics;
+
+  private final Duration interval;
+
+  private LanguageClient client = null;
+
+  /** Whether the client pulls diagnostics, rather than having them pushed. */
+  private volatile boolean pullDiagnostics = false;
+
+  /** Documents whose diagnostics may have changed since they were last published. */
+  private final Set<URI> changed = new LinkedHashSet<>();
+
+  /** Whether a batch has been scheduled to publish the changed documents. */
+  private boolean scheduled = false;
+
+  /**
+   * The diagnostics that were last sent to the client for each document, or for clients that pull
+   * them, that were current when it was last asked to. Documents that have never been published are
+   * missing, which is different from having an empty list: the client might not know that there's
+   * nothing wrong with them.
+   */
+  private final Map<URI, List<Diagnostic>> published = new ConcurrentHashMap<>();
+
+  private volatile long lastPublishTime = 0;
+
+  /**
+   * @param currentDiagnostics computes the diagnostics for a document, merged across all entry
+   *     points that source it
+   * @param interval the minimum time between batches
+   */
+  DiagnosticsPublisher(Function<URI, List<Diagnostic>> currentDiagnostics, Duration interval) {
+    this.currentDiagnostics = currentDiagnostics;
+    this.interval = interval;
+  }
+
+  void connect(LanguageClient client) {
+    this.client = client;
+  }
+
+  void setPullDiagnostics(boolean pullDiagnostics) {
+    this.pullDiagnostics = pullDiagnostics;
+  }
+
+  /**
+   * Mark the files of a completed analysis. Files that previously had diagnostics are also checked,
+   * since they may no longer be sourced at all and need to be cleared.
+   */
+  void analysisCompleted(Collection<URI> uris) {
+    Set<URI> toCheck = new LinkedHashSet<>(uris);
+    published.forEach(
+        (uri, diagnostics) -> {
+          if (!diagnostics.isEmpty()) {
+            toCheck.add(uri);
+          }
+        });
+    markChanged(toCheck);
+  }
+
+  /** Mark documents whose diagnostics may have changed, and schedule a batch to publish them. */
+  void markChanged(Collection<URI> uris) {
+    synchronized (changed) {
+      changed.addAll(uris);
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    long delay = lastPublishTime + interval.toNanos() - System.nanoTime();
+    publishThread.schedule(this::publishChanged, Math.max(0, delay), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Publish the diagnostics for all of the documents that have been marked. This normally runs on
+   * the publishing thread, but it may be called directly to publish without waiting.
+   */
+  void publishChanged() {
+    // Holding this lock ensures that batches are sent in the order that they were computed.
+    synchronized (published) {
+      List<URI> uris;
+      synchronized (changed) {
+        uris = new ArrayList<>(changed);
+        changed.clear();
+        scheduled = false;
+      }
+      if (uris.isEmpty()) {
+        return;
+      }
+
+      int batchSent = 0;
+      for (URI uri : uris) {
+        List<Diagnostic> diagnostics = currentDiagnostics.apply(uri);
+        if (diagnostics.equals(published.get(uri))) {
+          continue;
+        }
+        published.put(uri, diagnostics);
+        if (!pullDiagnostics) {
+          client.publishDiagnostics(new PublishDiagnosticsParams(uri.toString(), diagnostics));
+        }
+        batchSent += 1;
+      }
+      lastPublishTime = System.nanoTime();
+
+      if (pullDiagnostics) {
+        if (batchSent != 0 && client instanceof SoarLanguageClient) {
+          LOG.info("Diagnostics changed for {} documents; asking the client to pull", batchSent);
+          Metrics.increment("diagnostics.refreshes");
+          ((SoarLanguageClient) client).refreshDiagnostics();
+        }
+        return;
+      }
+
+      Metrics.add("diagnostics.sent", batchSent);
+      Metrics.add("diagnostics.skipped", uris.size() - batchSent);
+      LOG.info(
+          "Published diagnostics for {} of {} documents ({} sent, {} skipped in total)",
+          batchSent,
+          uris.size(),
+          Metrics.get("diagnostics.sent"),
+          Metrics.get("diagnostics.skipped"));
+    }
+  }
+}
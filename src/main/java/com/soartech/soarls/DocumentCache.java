@@ -0,0 +1,66 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the result of a request for each document, so that it only has to be computed again
+ * when something it depends on has changed.
+ *
+ * <p>Each result is stored along with the version of the document and the analysis that it was
+ * computed from. Both are immutable, so comparing them by identity tells us precisely whether the
+ * result is still valid: any edit produces a new SoarFile, and any reanalysis produces a new
+ * ProjectAnalysis. Results that don't depend on an analysis are stored with a null analysis.
+ */
+class DocumentCache<T> {
+  private static class Entry<T> {
+    final SoarFile file;
+
+    final ProjectAnalysis analysis;
+
+    final T value;
+
+    Entry(SoarFile file, ProjectAnalysis analysis, T value) {
+      this.file = file;
+      this.analysis = analysis;
+      this.value = value;
+    }
+
+    boolean matches(SoarFile file, ProjectAnalysis analysis) {
+      return this.file == file && this.analysis == analysis;
+    }
+  }
+
+  private final ConcurrentHashMap<URI, Entry<T>> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Get the result for the given version of a document and analysis, computing it if it isn't
+   * already cached. A request and a precomputation that miss at the same time compute the result
+   * once, so they both get the same value.
+   */
+  T get(SoarFile file, ProjectAnalysis analysis, Supplier<T> compute) {
+    Entry<T> entry = entries.get(file.uri);
+    if (entry != null && entry.matches(file, analysis)) {
+      return entry.value;
+    }
+    return entries.compute(
+            file.uri,
+            (uri, existing) ->
+                existing != null && existing.matches(file, analysis)
+                    ? existing
+                    : new Entry<>(file, analysis, compute.get()))
+        .value;
+  }
+
+  /** Forget the result for a document, such as when it is closed. */
+  void remove(URI uri) {
+    entries.remove(uri);
+  }
+
+  /** Forget all results, such as when the configuration changes how they are computed. */
+  void clear() {
+    entries.clear();
+  }
+}
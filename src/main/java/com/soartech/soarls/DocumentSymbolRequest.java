@@ -4,9 +4,11 @@ import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
 import com.soartech.soarls.analysis.FileAnalysis;
+import com.soartech.soarls.analysis.FileSymbols;
 import com.soartech.soarls.analysis.ProjectAnalysis;
 import com.soartech.soarls.tcl.TclAstNode;
 import java.net.URI;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -34,6 +36,27 @@ public class DocumentSymbolRequest {
     return projectAnalysis.file(uri).map(f -> procedureCalls(f)).orElseGet(Stream::empty);
   }
 
+  /**
+   * Report the symbols that can be found without an analysis. This is used as a fallback while the
+   * file is still being analysed, so the outline view isn't empty. Since we don't know which
+   * commands are calls to user defined procedures, the symbols are not nested.
+   */
+  public static Stream<DocumentSymbol> symbols(FileSymbols symbols) {
+    return Stream.of(
+            symbols.procedureDefinitions.stream()
+                .map(def -> symbol(def.name, SymbolKind.Function, def.location.getRange())),
+            symbols.variableDefinitions.stream()
+                .map(def -> symbol(def.name, SymbolKind.Variable, def.location.getRange())),
+            symbols.productions.stream()
+                .map(prod -> symbol(prod.name, SymbolKind.Object, prod.location.getRange())))
+        .flatMap(s -> s)
+        .sorted(Comparator.comparingInt(symbol -> symbol.getRange().getStart().getLine()));
+  }
+
+  private static DocumentSymbol symbol(String name, SymbolKind kind, Range range) {
+    return new DocumentSymbol(name, kind, range, range);
+  }
+
   static Stream<DocumentSymbol> procedureCalls(FileAnalysis analysis) {
     return analysis
         .file
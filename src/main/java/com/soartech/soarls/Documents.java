@@ -7,11 +7,12 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.jsoar.util.UrlTools;
 import org.slf4j.Logger;
@@ -33,15 +34,33 @@ public class Documents {
 
   /**
    * The set of URIs that point to currently open documents. This is a subset of the keys of the
-   * documents hash map.
+   * documents hash map. It is read from the analysis thread as well as the client thread.
    */
-  private final Set<URI> openDocuments = new HashSet<>();
+  private final Set<URI> openDocuments = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The version number that the client gave to each open document. These are unrelated to the
+   * versions of our SoarFiles, which are counted from whenever we first read a file.
+   */
+  private final ConcurrentHashMap<URI, Integer> clientVersions = new ConcurrentHashMap<>();
+
+  /** The edits that have been applied to each document, for translating between versions. */
+  private final ConcurrentHashMap<URI, EditHistory> histories = new ConcurrentHashMap<>();
 
   /** Retrieve the file with the given URI, reading it from the filesystem if necessary. */
   public SoarFile get(URI uri) {
     return documents.computeIfAbsent(uri, Documents::readFile);
   }
 
+  /**
+   * Retrieve the file with the given URI, reading it from the filesystem if necessary, but without
+   * keeping it in memory if it wasn't already. This is for callers that only look at it once.
+   */
+  public SoarFile peek(URI uri) {
+    SoarFile file = documents.get(uri);
+    return file != null ? file : readFile(uri);
+  }
+
   /**
    * Get the set of currently open URIs. While the document manager may hold files in memory even if
    * the client does not have them open, this set will only contain the URIs of the files which are
@@ -54,21 +73,88 @@ public class Documents {
   /** Add a document that was received via a textDocument/didOpen notification. */
   public SoarFile open(TextDocumentItem doc) {
     URI uri = SoarDocumentService.uri(doc.getUri());
-    SoarFile soarFile = new SoarFile(uri, doc.getText());
+    SoarFile previous = documents.get(uri);
+    int version = previous == null ? 0 : previous.version + 1;
+    SoarFile soarFile = new SoarFile(uri, doc.getText(), version);
     documents.put(soarFile.uri, soarFile);
+    histories.computeIfAbsent(uri, k -> new EditHistory(version)).reset(version);
     openDocuments.add(soarFile.uri);
+    clientVersions.put(uri, doc.getVersion());
     return soarFile;
   }
 
   /** Remove a URI from the set of currently open files. */
   public void close(URI uri) {
     openDocuments.remove(uri);
+    clientVersions.remove(uri);
+  }
+
+  /** Get the version number that the client gave to an open document, or null if it isn't open. */
+  public Integer clientVersion(URI uri) {
+    return clientVersions.get(uri);
+  }
+
+  /**
+   * Discard the contents of a document that changed on disk, so that it is read again the next
+   * time it is needed. Documents that are open in the client are left alone, since their contents
+   * come from the client rather than the filesystem. Returns whether anything was discarded.
+   */
+  public boolean invalidate(URI uri) {
+    if (openDocuments.contains(uri)) {
+      return false;
+    }
+    histories.remove(uri);
+    return documents.remove(uri) != null;
   }
 
   /** Apply a sequence of changes that were received via a textDocument/didChange notification. */
-  public void applyChanges(DidChangeTextDocumentParams params) {
+  public SoarFile applyChanges(DidChangeTextDocumentParams params) {
     URI uri = SoarDocumentService.uri(params.getTextDocument().getUri());
-    documents.compute(uri, (k, file) -> file.withChanges(params.getContentChanges()));
+    SoarFile soarFile =
+        documents.compute(uri, (k, file) -> file.withChanges(params.getContentChanges()));
+    histories.computeIfAbsent(uri, k -> new EditHistory(soarFile.version - 1)).record(soarFile);
+    Integer version = params.getTextDocument().getVersion();
+    if (version != null && openDocuments.contains(uri)) {
+      clientVersions.put(uri, version);
+    }
+    return soarFile;
+  }
+
+  /**
+   * Translate a position in one version of a document to the corresponding position in another
+   * version of the same document. If we don't know how to get from one version to the other, then
+   * the position is returned unchanged, which is the best we can do.
+   */
+  public Position translate(SoarFile from, SoarFile to, Position position) {
+    if (from == null || to == null || from.version == to.version) {
+      return position;
+    }
+    EditHistory history = histories.get(from.uri);
+    if (history == null) {
+      return position;
+    }
+    int offset = history.translate(from.offset(position), from.version, to.version);
+    return offset < 0 ? position : to.position(Math.min(offset, to.contents.length()));
+  }
+
+  /**
+   * Whether positions can be translated between two versions of a document, because we still have
+   * a record of all the edits between them.
+   */
+  public boolean canTranslate(SoarFile from, SoarFile to) {
+    if (from == null || to == null || from.version == to.version) {
+      return true;
+    }
+    EditHistory history = histories.get(from.uri);
+    return history != null && history.canTranslate(from.version, to.version);
+  }
+
+  /** Translate a range in one version of a document to another version of the same document. */
+  public Range translate(SoarFile from, SoarFile to, Range range) {
+    if (from == null || to == null || from.version == to.version) {
+      return range;
+    }
+    return new Range(translate(from, to, range.getStart()), translate(from, to, range.getEnd()));
   }
 
   private static SoarFile readFile(URI uri) {
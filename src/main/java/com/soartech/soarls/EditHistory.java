@@ -0,0 +1,177 @@
+package com.soartech.soarls;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A record of the edits that have been applied to a single document, which is used to translate
+ * offsets between different versions of it.
+ *
+ * <p>Analyses run in the background, so by the time a query arrives the analysis we answer it with
+ * may have been computed against an older version of the document than the one the client is
+ * looking at. Positions coming from the client are mapped back to the analysed version, and
+ * locations coming out of the analysis are mapped forward to the current version.
+ *
+ * <p>Only a bounded number of versions are retained. If we are asked to translate between versions
+ * that we no longer have a complete record of, then the translation fails and callers should fall
+ * back to using the offset unchanged.
+ */
+class EditHistory {
+  /** The maximum number of versions to keep edits for. */
+  private static final int MAX_VERSIONS = 512;
+
+  /** A single replacement of a range of characters with some other characters. */
+  static final class Edit {
+    /** The offset at which the edit begins. */
+    final int start;
+
+    /** The number of characters that were removed. */
+    final int oldLength;
+
+    /** The number of characters that were inserted in their place. */
+    final int newLength;
+
+    Edit(int start, int oldLength, int newLength) {
+      this.start = start;
+      this.oldLength = oldLength;
+      this.newLength = newLength;
+    }
+
+    /**
+     * Construct the smallest single edit that turns the old contents into the new contents, by
+     * trimming their common prefix and suffix. This lets us track positions across full document
+     * updates, at least outside of the region that actually changed.
+     */
+    static Edit diff(String oldContents, String newContents) {
+      int prefix = 0;
+      int maxPrefix = Math.min(oldContents.length(), newContents.length());
+      while (prefix < maxPrefix && oldContents.charAt(prefix) == newContents.charAt(prefix)) {
+        prefix += 1;
+      }
+      int suffix = 0;
+      int maxSuffix = maxPrefix - prefix;
+      while (suffix < maxSuffix
+          && oldContents.charAt(oldContents.length() - suffix - 1)
+              == newContents.charAt(newContents.length() - suffix - 1)) {
+        suffix += 1;
+      }
+      return new Edit(
+          prefix, oldContents.length() - prefix - suffix, newContents.length() - prefix - suffix);
+    }
+
+    /** Map an offset from before this edit to after it. */
+    int forward(int offset) {
+      return map(offset, oldLength, newLength);
+    }
+
+    /** Map an offset from after this edit to before it. */
+    int backward(int offset) {
+      return map(offset, newLength, oldLength);
+    }
+
+    /**
+     * Offsets before the edit are unaffected and offsets after it are shifted. Offsets inside the
+     * replaced region keep their distance from the start of the edit where possible.
+     */
+    private int map(int offset, int fromLength, int toLength) {
+      if (offset < start) {
+        return offset;
+      } else if (offset >= start + fromLength) {
+        return offset + toLength - fromLength;
+      } else {
+        return start + Math.min(offset - start, toLength);
+      }
+    }
+  }
+
+  /** An edit along with the version of the document that it produced. */
+  private static final class Entry {
+    final int version;
+    final Edit edit;
+
+    Entry(int version, Edit edit) {
+      this.version = version;
+      this.edit = edit;
+    }
+  }
+
+  /** Recorded edits, oldest first. */
+  private final Deque<Entry> entries = new ArrayDeque<>();
+
+  /** The oldest version that offsets can be translated from or to. */
+  private int oldestVersion;
+
+  /** The most recent version that has been recorded. */
+  private int latestVersion;
+
+  EditHistory(int version) {
+    this.oldestVersion = version;
+    this.latestVersion = version;
+  }
+
+  /**
+   * Record the edits that produced the given file. If it does not directly follow the latest
+   * version we know about, then the history is discarded and started over from this version.
+   */
+  synchronized void record(SoarFile file) {
+    if (file.version != latestVersion + 1) {
+      reset(file.version);
+      return;
+    }
+    for (Edit edit : file.edits) {
+      entries.addLast(new Entry(file.version, edit));
+    }
+    latestVersion = file.version;
+
+    while (latestVersion - oldestVersion > MAX_VERSIONS) {
+      oldestVersion += 1;
+      while (!entries.isEmpty() && entries.peekFirst().version <= oldestVersion) {
+        entries.removeFirst();
+      }
+    }
+  }
+
+  /** Discard all edits, such that the given version is the only one we know about. */
+  synchronized void reset(int version) {
+    entries.clear();
+    oldestVersion = version;
+    latestVersion = version;
+  }
+
+  /** Whether we have a record of all the edits between two versions of the document. */
+  synchronized boolean canTranslate(int fromVersion, int toVersion) {
+    return fromVersion == toVersion
+        || (Math.min(fromVersion, toVersion) >= oldestVersion
+            && Math.max(fromVersion, toVersion) <= latestVersion);
+  }
+
+  /**
+   * Translate an offset in one version of the document to the corresponding offset in another
+   * version. Returns -1 if we don't have a record of all the edits between the two versions.
+   */
+  synchronized int translate(int offset, int fromVersion, int toVersion) {
+    if (fromVersion == toVersion) {
+      return offset;
+    }
+    if (!canTranslate(fromVersion, toVersion)) {
+      return -1;
+    }
+
+    if (fromVersion < toVersion) {
+      for (Entry entry : entries) {
+        if (entry.version > fromVersion && entry.version <= toVersion) {
+          offset = entry.edit.forward(offset);
+        }
+      }
+    } else {
+      for (Iterator<Entry> it = entries.descendingIterator(); it.hasNext(); ) {
+        Entry entry = it.next();
+        if (entry.version > toVersion && entry.version <= fromVersion) {
+          offset = entry.edit.backward(offset);
+        }
+      }
+    }
+    return offset;
+  }
+}
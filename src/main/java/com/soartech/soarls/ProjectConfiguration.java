@@ -25,6 +25,33 @@ public class ProjectConfiguration {
    */
   public final List<String> rhsFunctions = new ArrayList<>();
 
+  /**
+   * If true, then entry points are only analysed when they are needed: the active one at startup,
+   * and the others when a document that they source is opened or queried. Analyses that haven't
+   * been used for a while are discarded. This is meant for workspaces with many agents, most of
+   * which aren't being worked on.
+   */
+  public boolean lazyAnalysis = false;
+
+  /**
+   * If true, then entry points that begin by sourcing the same files share the analysis of those
+   * files, instead of each analysing them separately. This is meant for workspaces where many
+   * agents are built on top of common code.
+   */
+  public boolean sharedPrefixAnalysis = false;
+
+  /**
+   * The longest an analysis may take, in seconds, before it is stopped. This protects against
+   * infinite loops in the Tcl code. Zero means no limit.
+   */
+  public int analysisTimeLimit = 120;
+
+  /**
+   * The most memory an analysis may allocate, in megabytes, before it is stopped. This counts all
+   * allocations, including ones that have since been garbage collected. Zero means no limit.
+   */
+  public int analysisAllocationLimit = 16384;
+
   public ProjectConfiguration() {}
 
   /**
@@ -0,0 +1,222 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.tcl.TclAstNode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.SemanticTokenModifiers;
+import org.eclipse.lsp4j.SemanticTokenTypes;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+
+/**
+ * A helper class for responding to the textDocument/semanticTokens requests.
+ *
+ * <p>Tokens are classified from the syntax tree of the current version of the document, so that
+ * highlighting never lags behind typing. The analysis only contributes the set of procedures that
+ * the user has defined, which lets us tell their procedures apart from built in commands like sp
+ * and source. Since that is looked up by name, a stale analysis is still good enough.
+ */
+public class SemanticTokensRequest {
+  static final List<String> TOKEN_TYPES =
+      Arrays.asList(
+          SemanticTokenTypes.Comment,
+          SemanticTokenTypes.Function,
+          SemanticTokenTypes.Variable,
+          SemanticTokenTypes.Class);
+
+  static final List<String> TOKEN_MODIFIERS =
+      Arrays.asList(SemanticTokenModifiers.Declaration, SemanticTokenModifiers.DefaultLibrary);
+
+  public static final SemanticTokensLegend LEGEND =
+      new SemanticTokensLegend(TOKEN_TYPES, TOKEN_MODIFIERS);
+
+  // Indices into TOKEN_TYPES.
+  private static final int COMMENT = 0;
+  private static final int FUNCTION = 1;
+  private static final int VARIABLE = 2;
+  private static final int PRODUCTION = 3;
+
+  // Bit flags for TOKEN_MODIFIERS.
+  private static final int DECLARATION = 1;
+  private static final int DEFAULT_LIBRARY = 2;
+
+  /** A token, before it has been encoded relative to the previous one. */
+  private static class Token {
+    final int start;
+    final int end;
+    final int type;
+    final int modifiers;
+
+    Token(int start, int end, int type, int modifiers) {
+      this.start = start;
+      this.end = end;
+      this.type = type;
+      this.modifiers = modifiers;
+    }
+  }
+
+  /**
+   * Compute the encoded tokens for a file, as described by the LSP spec: five integers per token,
+   * giving the line and start character relative to the previous token, the length, the type, and
+   * the modifiers.
+   *
+   * @param procedureNames the names of the procedures that the user has defined
+   */
+  public static List<Integer> tokens(SoarFile file, Set<String> procedureNames) {
+    List<Token> tokens = new ArrayList<>();
+    Deque<TclAstNode> stack = new ArrayDeque<>();
+    stack.push(file.ast);
+    while (!stack.isEmpty()) {
+      TclAstNode node = stack.pop();
+      switch (node.getType()) {
+        case TclAstNode.COMMENT:
+          tokens.add(new Token(node.getStart(), node.getEnd(), COMMENT, 0));
+          break;
+        case TclAstNode.COMMAND:
+        case TclAstNode.COMMAND_WORD:
+          addCommandTokens(file, node, procedureNames, tokens);
+          break;
+        case TclAstNode.VARIABLE:
+          tokens.add(new Token(node.getStart(), node.getEnd(), VARIABLE, 0));
+          break;
+        default:
+          break;
+      }
+      List<TclAstNode> children = node.getChildren();
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+      }
+    }
+
+    // Most tokens are found in order, but production names and variables can be nested in ways
+    // that put them out of order or make them overlap. The client requires neither to happen.
+    tokens.sort(Comparator.comparingInt(token -> token.start));
+    return encode(file, tokens);
+  }
+
+  private static void addCommandTokens(
+      SoarFile file, TclAstNode command, Set<String> procedureNames, List<Token> tokens) {
+    List<TclAstNode> words = command.getChildren();
+    if (words.isEmpty() || words.get(0).getType() != TclAstNode.NORMAL_WORD) {
+      return;
+    }
+    TclAstNode nameNode = words.get(0);
+    String name = file.contents.substring(nameNode.getStart(), nameNode.getEnd());
+    int modifiers = procedureNames.contains(name) ? 0 : DEFAULT_LIBRARY;
+    tokens.add(new Token(nameNode.getStart(), nameNode.getEnd(), FUNCTION, modifiers));
+
+    if (words.size() < 2) {
+      return;
+    }
+    TclAstNode firstArgument = words.get(1);
+    switch (name) {
+      case "proc":
+        if (firstArgument.getType() == TclAstNode.NORMAL_WORD) {
+          tokens.add(
+              new Token(
+                  firstArgument.getStart(), firstArgument.getEnd(), FUNCTION, DECLARATION));
+        }
+        break;
+      case "set":
+        if (firstArgument.getType() == TclAstNode.NORMAL_WORD) {
+          tokens.add(
+              new Token(
+                  firstArgument.getStart(), firstArgument.getEnd(), VARIABLE, DECLARATION));
+        }
+        break;
+      case "sp":
+        if (firstArgument.getType() == TclAstNode.BRACED_WORD
+            || firstArgument.getType() == TclAstNode.QUOTED_WORD) {
+          // The name of a production is the first word of its body.
+          int start = firstArgument.getStart() + 1;
+          while (start < firstArgument.getEnd()
+              && Character.isWhitespace(file.contents.charAt(start))) {
+            start += 1;
+          }
+          int end = start;
+          while (end < firstArgument.getEnd() - 1
+              && !Character.isWhitespace(file.contents.charAt(end))) {
+            end += 1;
+          }
+          if (start < end) {
+            tokens.add(new Token(start, end, PRODUCTION, DECLARATION));
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Encode tokens relative to one another. Tokens that overlap an earlier one are dropped, and
+   * tokens that span multiple lines are split, since not all clients support either.
+   */
+  private static List<Integer> encode(SoarFile file, List<Token> tokens) {
+    List<Integer> data = new ArrayList<>(tokens.size() * 5);
+    int previousLine = 0;
+    int previousCharacter = 0;
+    int previousEnd = 0;
+    for (Token token : tokens) {
+      if (token.start < previousEnd || token.start == token.end) {
+        continue;
+      }
+      previousEnd = token.end;
+      int start = token.start;
+      while (start < token.end) {
+        Position position = file.position(start);
+        int lineEnd = file.contents.indexOf('\n', start);
+        int end = lineEnd < 0 || lineEnd > token.end ? token.end : lineEnd;
+        if (end > start) {
+          int line = position.getLine();
+          int character = position.getCharacter();
+          data.add(line - previousLine);
+          data.add(line == previousLine ? character - previousCharacter : character);
+          data.add(end - start);
+          data.add(token.type);
+          data.add(token.modifiers);
+          previousLine = line;
+          previousCharacter = character;
+        }
+        start = end + 1;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Compute a single edit that turns the previous token data into the current data. Typing usually
+   * only changes a few tokens, so we only send what lies between the common prefix and suffix.
+   */
+  public static List<SemanticTokensEdit> diff(List<Integer> previous, List<Integer> current) {
+    int prefix = 0;
+    int maxPrefix = Math.min(previous.size(), current.size());
+    while (prefix < maxPrefix && previous.get(prefix).equals(current.get(prefix))) {
+      prefix += 1;
+    }
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix
+        && previous
+            .get(previous.size() - 1 - suffix)
+            .equals(current.get(current.size() - 1 - suffix))) {
+      suffix += 1;
+    }
+    if (prefix == previous.size() && prefix == current.size()) {
+      return new ArrayList<>();
+    }
+    List<SemanticTokensEdit> edits = new ArrayList<>();
+    edits.add(
+        new SemanticTokensEdit(
+            prefix,
+            previous.size() - prefix - suffix,
+            new ArrayList<>(current.subList(prefix, current.size() - suffix))));
+    return edits;
+  }
+}
@@ -1,5 +1,11 @@
 package com.soartech.soarls;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticReport;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticReport;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
@@ -10,9 +16,12 @@ import org.eclipse.lsp4j.ExecuteCommandOptions;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
 import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.SemanticTokensServerFull;
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.SignatureHelpOptions;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
@@ -64,22 +73,53 @@ public class Server implements LanguageServer, LanguageClientAware {
     ServerCapabilities capabilities = new ServerCapabilities();
     capabilities.setTextDocumentSync(TextDocumentSyncKind.Incremental);
     capabilities.setFoldingRangeProvider(true);
-    capabilities.setCompletionProvider(new CompletionOptions(false, Arrays.asList("$", "[")));
+    capabilities.setCompletionProvider(new CompletionOptions(true, Arrays.asList("$", "[")));
     capabilities.setSignatureHelpProvider(new SignatureHelpOptions(Arrays.asList(" ")));
     capabilities.setHoverProvider(true);
     capabilities.setDefinitionProvider(true);
     capabilities.setCodeActionProvider(true);
     capabilities.setExecuteCommandProvider(
-        new ExecuteCommandOptions(Arrays.asList("log-source-tree", "log-syntax-tree")));
+        new ExecuteCommandOptions(
+            Arrays.asList("log-source-tree", "log-syntax-tree", "log-metrics")));
     capabilities.setReferencesProvider(true);
     capabilities.setDocumentLinkProvider(new DocumentLinkOptions());
     capabilities.setRenameProvider(true);
     capabilities.setDocumentSymbolProvider(true);
+    capabilities.setWorkspaceSymbolProvider(true);
     capabilities.setCodeLensProvider(new CodeLensOptions());
 
+    SemanticTokensWithRegistrationOptions semanticTokens =
+        new SemanticTokensWithRegistrationOptions(SemanticTokensRequest.LEGEND);
+    semanticTokens.setFull(new SemanticTokensServerFull(true));
+    capabilities.setSemanticTokensProvider(semanticTokens);
+
+    // Our version of lsp4j predates pull diagnostics, so clients and servers can't advertise them
+    // in the usual way. Instead, we use experimental capabilities. Clients that don't pull
+    // diagnostics have them pushed instead.
+    boolean pullDiagnostics = supportsPullDiagnostics(params);
+    documentService.setPullDiagnostics(pullDiagnostics);
+    if (pullDiagnostics) {
+      JsonObject experimental = new JsonObject();
+      experimental.addProperty("pullDiagnostics", true);
+      capabilities.setExperimental(experimental);
+    }
+
     return CompletableFuture.completedFuture(new InitializeResult(capabilities));
   }
 
+  /** Whether the client set the pullDiagnostics flag in its experimental capabilities. */
+  private static boolean supportsPullDiagnostics(InitializeParams params) {
+    Object experimental =
+        params.getCapabilities() != null ? params.getCapabilities().getExperimental() : null;
+    if (!(experimental instanceof JsonObject)) {
+      return false;
+    }
+    JsonElement pullDiagnostics = ((JsonObject) experimental).get("pullDiagnostics");
+    return pullDiagnostics != null
+        && pullDiagnostics.isJsonPrimitive()
+        && pullDiagnostics.getAsBoolean();
+  }
+
   @Override
   public void initialized(InitializedParams params) {
     LOG.info("initialized()");
@@ -88,9 +128,34 @@ public class Server implements LanguageServer, LanguageClientAware {
 
   @Override
   public CompletableFuture<Object> shutdown() {
+    documentService.shutdown();
     return CompletableFuture.completedFuture(null);
   }
 
   @Override
   public void exit() {}
+
+  /** Get the diagnostics for a single document, for clients that pull them. */
+  @JsonRequest("textDocument/diagnostic")
+  public CompletableFuture<DocumentDiagnosticReport> documentDiagnostic(
+      DocumentDiagnosticParams params) {
+    return documentService.documentDiagnostic(params);
+  }
+
+  /** Get the diagnostics for every document that has been analysed, for clients that pull them. */
+  @JsonRequest("workspace/diagnostic")
+  public CompletableFuture<WorkspaceDiagnosticReport> workspaceDiagnostic(
+      WorkspaceDiagnosticParams params) {
+    return documentService.workspaceDiagnostic(params);
+  }
+
+  /**
+   * Get the Tcl expansion of the commands that overlap the given range; that is, the bodies of all
+   * the productions that they create. This is a custom request, so it is not part of any service.
+   */
+  @JsonRequest("soar/tclExpansion")
+  public CompletableFuture<String> tclExpansion(TclExpansionParams params) {
+    URI uri = SoarDocumentService.uri(params.getTextDocument().getUri());
+    return documentService.tclExpansion(uri, params.getRange());
+  }
 }
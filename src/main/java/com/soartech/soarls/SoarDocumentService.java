@@ -5,35 +5,63 @@ import static java.util.Collections.singletonMap;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
-
+import static java.util.stream.Collectors.toSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticReport;
+import com.soartech.soarls.DiagnosticReports.PreviousResultId;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticReport;
 import com.soartech.soarls.ProjectConfiguration.EntryPoint;
 import com.soartech.soarls.analysis.Analysis;
 import com.soartech.soarls.analysis.FileAnalysis;
+import com.soartech.soarls.analysis.FileSymbols;
+import com.soartech.soarls.analysis.IdentifierIndex;
+import com.soartech.soarls.analysis.IncrementalAnalysis;
+import com.soartech.soarls.analysis.NameIndex;
 import com.soartech.soarls.analysis.ProcedureCall;
 import com.soartech.soarls.analysis.ProcedureDefinition;
+import com.soartech.soarls.analysis.Production;
 import com.soartech.soarls.analysis.ProjectAnalysis;
+import com.soartech.soarls.analysis.SharedPrefixes;
+import com.soartech.soarls.analysis.SymbolIndex;
 import com.soartech.soarls.analysis.VariableDefinition;
 import com.soartech.soarls.analysis.VariableRetrieval;
 import com.soartech.soarls.tcl.TclAstNode;
+import com.soartech.soarls.util.BoundedExecutor;
 import com.soartech.soarls.util.Debouncer;
+import com.soartech.soarls.util.Futures;
+import com.soartech.soarls.util.Metrics;
 import java.io.PrintStream;
 import java.net.URI;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.eclipse.lsp4j.ApplyWorkspaceEditParams;
@@ -72,10 +100,13 @@ import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
 import org.eclipse.lsp4j.ParameterInformation;
 import org.eclipse.lsp4j.Position;
-import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.ReferenceParams;
 import org.eclipse.lsp4j.RenameParams;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensParams;
 import org.eclipse.lsp4j.SignatureHelp;
 import org.eclipse.lsp4j.SignatureHelpParams;
 import org.eclipse.lsp4j.SignatureInformation;
@@ -83,6 +114,7 @@ import org.eclipse.lsp4j.SymbolInformation;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.TextEdit;
 import org.eclipse.lsp4j.WorkspaceEdit;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.TextDocumentService;
@@ -100,23 +132,168 @@ public class SoarDocumentService implements TextDocumentService {
   public final Documents documents = new Documents();
 
   /**
-   * Diagnostics information about each file. This includes things like the other files that get
-   * sourced, declarations of Tcl procedures and variables, production declarations, and so on. The
-   * scheduleAnalysis method is the entry point for how this information gets generated.
+   * The current state of the workspace: document versions and the most recently completed analysis
+   * for each entry point. Readers dereference this once and work with a consistent snapshot; the
+   * only writers are notifications that change document versions and completed analyses, which
+   * publish a new snapshot with copy-on-write. The scheduleAnalysis method is the entry point for
+   * how analyses get generated.
    */
-  private final ConcurrentHashMap<URI, ProjectAnalysis> analyses = new ConcurrentHashMap<>();
+  private final AtomicReference<WorkspaceSnapshot> snapshot =
+      new AtomicReference<>(WorkspaceSnapshot.EMPTY);
 
-  /** Handles to diagnostics information that is currently being computed. */
+  /**
+   * Futures for analyses that have been scheduled but not yet started. They are resolved with the
+   * first analysis of their entry point that begins after they were created.
+   */
   private final ConcurrentHashMap<URI, CompletableFuture<ProjectAnalysis>> pendingAnalyses =
       new ConcurrentHashMap<>();
 
+  /** Futures for analyses that are currently running. */
+  private final ConcurrentHashMap<URI, CompletableFuture<ProjectAnalysis>> runningAnalyses =
+      new ConcurrentHashMap<>();
+
   /**
-   * For each entry point, we debounce analysis requests so that when multiple edits are made in
-   * quick succession we only perform an analysis once.
-   *
-   * <p>TODO: Combine this and the other hash maps that are keyed on URIs into a single structure.
+   * Syntax checks run on their own thread, so that parse errors can be reported within a few
+   * milliseconds of an edit rather than waiting for an analysis (which may take seconds) to finish.
+   */
+  private static final ScheduledExecutorService syntaxThread =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // Requests are answered on these executors rather than on lsp4j's message thread, so that a slow
+  // request can't hold up document changes. Those that only look at one document are kept apart
+  // from those that look at the whole workspace, so that a large rename doesn't delay hovers.
+
+  private static final BoundedExecutor queryExecutor = new BoundedExecutor("queries", 2, 64);
+
+  private static final BoundedExecutor workspaceQueryExecutor =
+      new BoundedExecutor("workspace-queries", 1, 16);
+
+  /** Precomputing results after an analysis, which nobody is waiting for yet. */
+  private static final BoundedExecutor backgroundExecutor =
+      new BoundedExecutor("background", 1, 256);
+
+  /** How long to wait for edits to a document to stop before checking its syntax. */
+  private static final Duration SYNTAX_CHECK_DELAY = Duration.ofMillis(25);
+
+  /** The minimum time between batches of publishDiagnostics notifications. */
+  private static final Duration DIAGNOSTICS_INTERVAL = Duration.ofMillis(100);
+
+  /** In lazy mode, analyses that haven't been used for this long are evicted. */
+  private static final Duration IDLE_EVICTION_TIME = Duration.ofMinutes(10);
+
+  private static final ScheduledExecutorService evictionThread =
+      Executors.newSingleThreadScheduledExecutor();
+
+  /** The maximum number of production names to list when hovering over an attribute. */
+  private static final int MAX_HOVER_PRODUCTIONS = 10;
+
+  /** The maximum number of results to return from a workspace symbol search. */
+  private static final int MAX_WORKSPACE_SYMBOLS = 200;
+
+  /**
+   * In lazy mode, the files that each entry point appears to source, for entry points that haven't
+   * been analysed yet. See StaticSources.
+   */
+  private final ConcurrentHashMap<URI, Set<URI>> staticSources = new ConcurrentHashMap<>();
+
+  /** Analyses of files that several entry points source first, if sharedPrefixAnalysis is set. */
+  private final SharedPrefixes sharedPrefixes = new SharedPrefixes();
+
+  /** Re-evaluates single productions after edits to their bodies, with its own scratch agent. */
+  private final IncrementalAnalysis incrementalAnalysis = new IncrementalAnalysis();
+
+  /** In lazy mode, when each entry point's analysis was last asked for, in System.nanoTime. */
+  private final ConcurrentHashMap<URI, Long> lastUsed = new ConcurrentHashMap<>();
+
+  private ScheduledFuture<?> evictionTask = null;
+
+  /** Syntax checks are debounced per document, so a burst of keystrokes is only checked once. */
+  private final ConcurrentHashMap<URI, Debouncer> syntaxDebouncers = new ConcurrentHashMap<>();
+
+  /**
+   * Symbols found in each document by looking only at its syntax tree. These are kept up to date on
+   * every edit, and are used to answer queries when there is no analysis to answer them with.
+   */
+  private final ConcurrentHashMap<URI, FileSymbols> fileSymbols = new ConcurrentHashMap<>();
+
+  /**
+   * The semantic tokens that were most recently sent for each document, so that the next request
+   * can be answered with a delta. These are also reused outright when neither the document nor its
+   * analysis has changed since.
    */
-  private final ConcurrentHashMap<URI, Debouncer> debouncers = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<URI, CachedSemanticTokens> semanticTokens =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong semanticTokensResultId = new AtomicLong();
+
+  // Results of requests that editors make very frequently, such as whenever the user scrolls or
+  // switches between documents.
+
+  private final DocumentCache<List<FoldingRange>> foldingRangeCache = new DocumentCache<>();
+
+  private final DocumentCache<List<DocumentSymbol>> documentSymbolCache = new DocumentCache<>();
+
+  private final DocumentCache<List<DocumentLink>> documentLinkCache = new DocumentCache<>();
+
+  /**
+   * The Tcl expansion of each command that creates productions, keyed by the list of productions
+   * that the command created. A syntax tree node isn't enough to identify the productions, because
+   * when a production is re-evaluated on its own the node stays the same but the body changes. Each
+   * analysis has its own lists, and weak keys are compared by identity, so entries are dropped once
+   * the analysis is no longer reachable.
+   */
+  private final Cache<ImmutableList<Production>, String> expansions =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /** The document, version, and range that the expansion file was last written for. */
+  private final AtomicReference<String> lastExpansionSelection = new AtomicReference<>();
+
+  /**
+   * The diagnostics most recently reported to a client that pulls them. Whenever they change, the
+   * document is given a new result ID, so that the client can tell us which ones it already has.
+   */
+  private final ConcurrentHashMap<URI, PulledDiagnostics> pulledDiagnostics =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong diagnosticsResultId = new AtomicLong();
+
+  private static class PulledDiagnostics {
+    final String resultId;
+
+    final List<Diagnostic> diagnostics;
+
+    PulledDiagnostics(String resultId, List<Diagnostic> diagnostics) {
+      this.resultId = resultId;
+      this.diagnostics = diagnostics;
+    }
+  }
+
+  private static class CachedSemanticTokens {
+    final String resultId;
+
+    final SoarFile file;
+
+    /** The analysis the tokens were classified with, or null if there wasn't one. */
+    final ProjectAnalysis analysis;
+
+    final List<Integer> data;
+
+    CachedSemanticTokens(
+        String resultId, SoarFile file, ProjectAnalysis analysis, List<Integer> data) {
+      this.resultId = resultId;
+      this.file = file;
+      this.analysis = analysis;
+      this.data = data;
+    }
+  }
+
+  /**
+   * Diagnostics are published both after analyses and after syntax checks, which run on different
+   * threads. Either way, the diagnostics that get sent for a document are computed from the current
+   * state of both, and only if they differ from what the client already has.
+   */
+  private final DiagnosticsPublisher diagnosticsPublisher =
+      new DiagnosticsPublisher(this::currentDiagnostics, DIAGNOSTICS_INTERVAL);
 
   private ProjectConfiguration projectConfig = new ProjectConfiguration();
 
@@ -141,21 +318,54 @@ public class SoarDocumentService implements TextDocumentService {
    */
   private Configuration config = new Configuration();
 
-  /** Retrieve a stream of the analyses for all entry points. */
+  /**
+   * Analysis requests are debounced for each entry point, so that when multiple edits are made in
+   * quick succession we only perform an analysis once. When several are waiting, the entry points
+   * that the user is working with go first.
+   */
+  private final AnalysisScheduler analysisScheduler =
+      new AnalysisScheduler(this::analysisPriority, Duration.ofMillis(config.debounceTime));
+
+  /**
+   * The document that the user most recently opened, edited, or moved the cursor in. Analyses of
+   * the entry points that source it are given priority.
+   */
+  private volatile URI focusedDocument = null;
+
+  /** Retrieve the current state of the workspace. */
+  public WorkspaceSnapshot snapshot() {
+    return snapshot.get();
+  }
+
+  /** Release the resources held by this service, in response to a shutdown request. */
+  void shutdown() {
+    analysisScheduler.shutdown();
+    incrementalAnalysis.dispose();
+  }
+
+  /**
+   * Retrieve a stream of the analyses for all entry points. If some entry points have not yet
+   * completed their first analysis, then the future resolves once they have.
+   */
   public CompletableFuture<Stream<ProjectAnalysis>> getAllAnalyses() {
-    Collector<CompletableFuture<ProjectAnalysis>, ?, CompletableFuture<Stream<ProjectAnalysis>>>
-        collector =
-            Collectors.reducing(
-                CompletableFuture.completedFuture(Stream.empty()),
-                a -> a.thenApply(Stream::of),
-                (first, second) -> first.thenCombine(second, Stream::concat));
-
-    return projectConfig
-        .entryPoints()
-        .map(entryPoint -> workspaceRootUri.resolve(entryPoint.path))
-        .map(uri -> getAnalysis(uri))
-        .filter(Objects::nonNull)
-        .collect(collector);
+    WorkspaceSnapshot current = snapshot.get();
+    if (current.isFullyAnalysed()) {
+      return CompletableFuture.completedFuture(current.orderedAnalyses.stream());
+    }
+
+    CompletableFuture<?>[] waiting =
+        current
+            .entryPoints
+            .stream()
+            .filter(uri -> !current.analyses.containsKey(uri))
+            .map(this::inFlightAnalysis)
+            .filter(Objects::nonNull)
+            .toArray(CompletableFuture<?>[]::new);
+    if (waiting.length == 0) {
+      return CompletableFuture.completedFuture(current.orderedAnalyses.stream());
+    }
+    return CompletableFuture.allOf(waiting)
+        .handle((result, error) -> snapshot.get().orderedAnalyses.stream());
   }
 
   /** Retrieve the most recently completed analysis for the active entry point. */
@@ -166,23 +376,83 @@ public class SoarDocumentService implements TextDocumentService {
   /**
    * Retrieve the most recently completed analysis for the given entry point. If an analysis has
    * already been completed then the future will resolve immediately; otherwise, you may assume that
-   * the analysis is in progress and the future will resolve eventually.
+   * the analysis is in progress and the future will resolve eventually. In lazy mode, this starts
+   * the first analysis of an entry point if necessary. It is safe to call from any thread.
    */
   public CompletableFuture<ProjectAnalysis> getAnalysis(URI uri) {
-    CompletableFuture<ProjectAnalysis> pending = pendingAnalyses.get(uri);
-    if (pending != null) {
-      if (pending.isDone()) {
-        try {
-          analyses.put(uri, pending.get());
-          pendingAnalyses.remove(uri, pending);
-        } catch (Exception e) {
-          LOG.error("Retrieving result of analysis", e);
-        }
+    ensureAnalysed(uri);
+    ProjectAnalysis analysis = snapshot.get().analyses.get(uri);
+    return analysis != null ? CompletableFuture.completedFuture(analysis) : inFlightAnalysis(uri);
+  }
+
+  /**
+   * In lazy mode, note that an entry point's analysis is being used, and schedule an analysis if
+   * there isn't one yet. In eager mode, every entry point is always analysed anyway.
+   */
+  private void ensureAnalysed(URI entryPointUri) {
+    if (!projectConfig.lazyAnalysis || !snapshot.get().entryPoints.contains(entryPointUri)) {
+      return;
+    }
+    lastUsed.put(entryPointUri, System.nanoTime());
+    if (!snapshot.get().analyses.containsKey(entryPointUri)
+        && inFlightAnalysis(entryPointUri) == null) {
+      LOG.info("Analysing {} on demand", entryPointUri);
+      scheduleAnalysis(entryPointUri);
+    }
+  }
+
+  /**
+   * In lazy mode, get the entry points that appear to source the given document, judging only by
+   * their source commands. This is used for entry points that haven't been analysed yet.
+   */
+  private Set<URI> entryPointsStaticallySourcing(URI uri) {
+    Set<URI> entryPoints = new LinkedHashSet<>();
+    if (!projectConfig.lazyAnalysis) {
+      return entryPoints;
+    }
+    for (URI entryPointUri : snapshot.get().entryPoints) {
+      Set<URI> sourced =
+          staticSources.computeIfAbsent(
+              entryPointUri, key -> StaticSources.sourcedBy(documents, key));
+      if (sourced.contains(uri)) {
+        entryPoints.add(entryPointUri);
       }
     }
+    return entryPoints;
+  }
 
-    ProjectAnalysis analysis = analyses.get(uri);
-    return analysis == null ? pending : CompletableFuture.completedFuture(analysis);
+  /**
+   * In lazy mode, discard the analyses of entry points that haven't been used for a while. The
+   * active entry point, and those that source an open document, are always kept.
+   */
+  private void evictIdleAnalyses() {
+    if (!projectConfig.lazyAnalysis) {
+      return;
+    }
+    WorkspaceSnapshot current = snapshot.get();
+    long cutoff = System.nanoTime() - IDLE_EVICTION_TIME.toNanos();
+    Set<URI> evicted = new LinkedHashSet<>();
+    for (ProjectAnalysis analysis : current.orderedAnalyses) {
+      URI entryPointUri = analysis.entryPointUri;
+      boolean inUse =
+          activeEntryPoint.map(entryPointUri::equals).orElse(false)
+              || lastUsed.getOrDefault(entryPointUri, 0L) > cutoff
+              || inFlightAnalysis(entryPointUri) != null
+              || documents
+                  .openUris()
+                  .stream()
+                  .anyMatch(uri -> current.entryPointsSourcing(uri).contains(entryPointUri));
+      if (!inUse) {
+        LOG.info("Evicting idle analysis of {}", entryPointUri);
+        snapshot.updateAndGet(s -> s.withoutAnalysis(entryPointUri));
+        evicted.addAll(analysis.files.keySet());
+        Metrics.increment("analysis.evicted");
+      }
+    }
+    if (!evicted.isEmpty()) {
+      // The diagnostics of these files came from the evicted analyses.
+      diagnosticsPublisher.analysisCompleted(evicted);
+    }
   }
 
   /**
@@ -193,17 +463,27 @@ public class SoarDocumentService implements TextDocumentService {
    * only for the purposes of unit tests.
    */
   public ProjectAnalysis waitForAnalysis(URI uri) throws InterruptedException, ExecutionException {
-    CompletableFuture<ProjectAnalysis> pending = pendingAnalyses.get(uri);
+    CompletableFuture<ProjectAnalysis> pending = inFlightAnalysis(uri);
     if (pending != null) {
-      analyses.put(uri, pending.get());
+      pending.get();
     }
-    ProjectAnalysis analysis = analyses.get(uri);
+    diagnosticsPublisher.publishChanged();
+    ProjectAnalysis analysis = snapshot.get().analyses.get(uri);
     if (analysis == null) {
       throw new NullPointerException("Analyses should never be null.");
     }
     return analysis;
   }
 
+  /**
+   * Get a future for the newest analysis of the given entry point that has been scheduled, or null
+   * if there isn't one.
+   */
+  private CompletableFuture<ProjectAnalysis> inFlightAnalysis(URI uri) {
+    CompletableFuture<ProjectAnalysis> pending = pendingAnalyses.get(uri);
+    return pending != null ? pending : runningAnalyses.get(uri);
+  }
+
   /** Get the URI of the file to use for Tcl expansions. */
   private URI tclExpansionUri() {
     URI uri = URI.create(workspaceRootUri.toString() + config.tclExpansionFile);
@@ -230,7 +510,16 @@ public class SoarDocumentService implements TextDocumentService {
   @Override
   public void didOpen(DidOpenTextDocumentParams params) {
     TextDocumentItem doc = params.getTextDocument();
-    documents.open(doc);
+    SoarFile file = documents.open(doc);
+    snapshot.updateAndGet(s -> s.withDocumentVersion(file.uri, file.version));
+    fileSymbols.put(file.uri, FileSymbols.of(file));
+    focusedDocument = file.uri;
+
+    if (projectConfig.lazyAnalysis) {
+      Set<URI> entryPoints = new LinkedHashSet<>(snapshot.get().entryPointsSourcing(file.uri));
+      entryPoints.addAll(entryPointsStaticallySourcing(file.uri));
+      entryPoints.forEach(this::ensureAnalysed);
+    }
   }
 
   @Override
@@ -240,52 +529,194 @@ public class SoarDocumentService implements TextDocumentService {
   public void didClose(DidCloseTextDocumentParams params) {
     URI uri = uri(params.getTextDocument().getUri());
     documents.close(uri);
+    semanticTokens.remove(uri);
+    foldingRangeCache.remove(uri);
+    documentSymbolCache.remove(uri);
+    documentLinkCache.remove(uri);
   }
 
   @Override
   public void didChange(DidChangeTextDocumentParams params) {
     URI uri = uri(params.getTextDocument().getUri());
-    documents.applyChanges(params);
+    focusedDocument = uri;
+    SoarFile file = documents.applyChanges(params);
+    WorkspaceSnapshot current =
+        snapshot.updateAndGet(s -> s.withDocumentVersion(file.uri, file.version));
+
+    syntaxDebouncers
+        .computeIfAbsent(uri, key -> new Debouncer(SYNTAX_CHECK_DELAY, syntaxThread))
+        .submit(() -> checkSyntax(uri));
 
     // If the file that changed was never sourced, then there is no
     // need to re-analyse the project. This mainly prevents the Tcl
     // expansion buffer from triggering a continuous loop of analyses.
-    List<ProjectAnalysis> analysisAffected =
-        analyses
-            .values()
-            .stream()
-            .filter(analysis -> analysis.sourcedUris.contains(uri))
-            .collect(toList());
-    for (ProjectAnalysis analysis : analysisAffected) {
-      scheduleAnalysis(analysis.entryPointUri);
+    for (URI entryPointUri : current.entryPointsSourcing(uri)) {
+      if (onlyCommentsChanged(current, entryPointUri, file)) {
+        LOG.info("Only comments changed in {}, so {} is not reanalysed", uri, entryPointUri);
+        Metrics.increment("analysis.skipped.comments-only");
+        continue;
+      }
+      scheduleAnalysis(entryPointUri);
     }
   }
 
+  /**
+   * Whether an edit only changed the comments in a file, or the whitespace between its commands,
+   * compared to the version that the entry point's analysis used. If so, there is no need to
+   * analyse it again: positions in the analysis are translated to the current version when they are
+   * used, and comments are read from the current version's syntax tree when they are displayed.
+   *
+   * <p>If an analysis is already scheduled or running then it may have read some other version, so
+   * we let the new one be scheduled as usual. The same goes for an analysis where a production was
+   * re-evaluated on its own, because the analysed file no longer matches the production's body.
+   * Likewise if the edit history no longer reaches back to the analysed version, since positions in
+   * the analysis could no longer be translated.
+   */
+  private boolean onlyCommentsChanged(WorkspaceSnapshot current, URI entryPointUri, SoarFile file) {
+    if (inFlightAnalysis(entryPointUri) != null) {
+      return false;
+    }
+    return current
+        .analysis(entryPointUri)
+        .flatMap(analysis -> analysis.file(file.uri))
+        .filter(fileAnalysis -> !fileAnalysis.patched)
+        .filter(fileAnalysis -> documents.canTranslate(fileAnalysis.file, file))
+        .map(fileAnalysis -> fileAnalysis.file.hasSameCommandsAs(file))
+        .orElse(false);
+  }
+
+  /** Get the syntax-level symbols for the current version of a document. */
+  private Optional<FileSymbols> currentSymbols(URI uri) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return Optional.empty();
+    }
+    // The stored symbols are updated shortly after each edit, so they may be a version behind.
+    FileSymbols symbols = fileSymbols.get(uri);
+    if (symbols == null || symbols.version != file.version) {
+      symbols = FileSymbols.of(file);
+    }
+    return Optional.of(symbols);
+  }
+
+  /**
+   * Get the comment above a procedure definition. Editing comments doesn't cause a new analysis, so
+   * the comment is taken from the current version of the file if we can find it there.
+   */
+  private Optional<String> commentText(ProcedureDefinition definition) {
+    return currentSymbols(uri(definition.location.getUri()))
+        .flatMap(
+            symbols ->
+                symbols
+                    .procedureDefinitions
+                    .stream()
+                    .filter(def -> def.name.equals(definition.name))
+                    .findFirst())
+        .map(def -> def.commentText)
+        .orElse(definition.commentText);
+  }
+
+  /** Like commentText for procedures, but for the comment above a variable definition. */
+  private Optional<String> commentText(VariableDefinition definition) {
+    return currentSymbols(uri(definition.location.getUri()))
+        .flatMap(
+            symbols ->
+                symbols
+                    .variableDefinitions
+                    .stream()
+                    .filter(def -> def.name.equals(definition.name))
+                    .findFirst())
+        .map(def -> def.commentText)
+        .orElse(definition.commentText);
+  }
+
+  /**
+   * Handle a change to a file on disk that the client told us about through a file watcher. Files
+   * that are open in the client are managed through the textDocument notifications instead, so
+   * those are ignored. Otherwise, the cached contents are discarded and every entry point that
+   * sources the file is reanalysed.
+   */
+  void fileChangedOnDisk(URI uri) {
+    if (!documents.invalidate(uri)) {
+      return;
+    }
+    LOG.info("File changed on disk: {}", uri);
+    staticSources.values().removeIf(sourced -> sourced.contains(uri));
+    for (URI entryPointUri : snapshot.get().entryPointsSourcing(uri)) {
+      scheduleAnalysis(entryPointUri);
+    }
+  }
+
+  /**
+   * Get the expanded bodies of all productions that were created by commands overlapping the given
+   * range, as used for Tcl expansions. The result is empty if the file has not been analysed.
+   */
+  CompletableFuture<String> tclExpansion(URI uri, Range range) {
+    return getAllAnalyses()
+        .thenApplyAsync(
+            analyses ->
+                analyses
+                    .map(analysis -> analysis.file(uri))
+                    .filter(f -> f.isPresent())
+                    .map(f -> f.get())
+                    .findFirst()
+                    .map(fileAnalysis -> tclExpansion(fileAnalysis, range))
+                    .orElse(""),
+            queryExecutor);
+  }
+
+  /** Collect the expanded bodies of all productions that overlap the selected range. */
+  private String tclExpansion(FileAnalysis fileAnalysis, Range selection) {
+    Range range = analysedRange(fileAnalysis, selection);
+    int startOffset = fileAnalysis.file.offset(range.getStart());
+    int endOffset = fileAnalysis.file.offset(range.getEnd());
+    return fileAnalysis
+        .productions
+        .entrySet()
+        .stream()
+        .filter(entry -> entry.getKey().getStart() <= endOffset)
+        .filter(entry -> entry.getKey().getEnd() >= startOffset)
+        .sorted((a, b) -> a.getKey().getStart() - b.getKey().getStart())
+        .map(
+            entry ->
+                expansions
+                    .asMap()
+                    .computeIfAbsent(
+                        entry.getValue(),
+                        productions ->
+                            productions
+                                .stream()
+                                .map(production -> "sp {" + production.body + "}\n")
+                                .collect(joining("\n"))))
+        .filter(expansion -> !expansion.isEmpty())
+        .collect(joining("\n"));
+  }
+
   /**
    * We use this request as a hook to update the expanded Tcl buffer, because it is the best way we
    * have to determine the location of the cursor as well as the range in the document that is
-   * selected.
+   * selected. This is only done if the client asked for the expansion file to be written; other
+   * clients request expansions directly using {@link Server#tclExpansion}.
    */
   @Override
   public CompletableFuture<List<Either<Command, CodeAction>>> codeAction(CodeActionParams params) {
     URI uri = uri(params.getTextDocument().getUri());
-
-    // Collect the expanded bodies of all productions that overlap the selected range.
-    Function<FileAnalysis, String> concatSelectedProductions =
-        fileAnalysis -> {
-          int startOffset = fileAnalysis.file.offset(params.getRange().getStart());
-          int endOffset = fileAnalysis.file.offset(params.getRange().getEnd());
-          return fileAnalysis
-              .productions
-              .entrySet()
-              .stream()
-              .filter(entry -> entry.getKey().getStart() <= endOffset)
-              .filter(entry -> entry.getKey().getEnd() >= startOffset)
-              .sorted((a, b) -> a.getKey().getStart() - b.getKey().getStart())
-              .flatMap(entry -> entry.getValue().stream())
-              .map(production -> "sp {" + production.body + "}\n")
-              .collect(joining("\n"));
-        };
+    focusedDocument = uri;
+    List<Either<Command, CodeAction>> commands =
+        Arrays.asList(
+            Either.forLeft(new Command("Log source tree", "log-source-tree")),
+            Either.forLeft(
+                new Command("Log syntax tree", "log-syntax-tree", Arrays.asList(uri.toString()))));
+
+    // Clients send this request for all sorts of reasons besides moving the cursor, so we make sure
+    // not to rewrite the expansion file unless the selection or the document has changed.
+    SoarFile document = documents.get(uri);
+    String selection =
+        uri + "@" + (document != null ? document.version : -1) + ":" + params.getRange();
+    if (!config.writeTclExpansionFile
+        || selection.equals(lastExpansionSelection.getAndSet(selection))) {
+      return CompletableFuture.completedFuture(commands);
+    }
 
     BiFunction<SoarFile, String, ApplyWorkspaceEditParams> makeParams =
         (file, contents) ->
@@ -307,7 +738,8 @@ public class SoarDocumentService implements TextDocumentService {
                             // after the edit, the contents of the file are in view.
                             .applyEdit(makeParams.apply(file, ""))
                             .thenComposeAsync(
-                                response -> client.applyEdit(makeParams.apply(file, contents))));
+                                response -> client.applyEdit(makeParams.apply(file, contents)),
+                                queryExecutor));
 
     // Try to retrieve expanded production bodies and modify the expansion file; if this fails,
     // that's okay. Then, we return our actual results.
@@ -319,16 +751,11 @@ public class SoarDocumentService implements TextDocumentService {
                     .filter(f -> f.isPresent())
                     .map(f -> f.get())
                     .findFirst()
-                    .map(concatSelectedProductions)
+                    .map(fileAnalysis -> tclExpansion(fileAnalysis, params.getRange()))
                     .map(editFile)
-                    .orElse(CompletableFuture.completedFuture(null)))
-        .thenApply(
-            response ->
-                Arrays.asList(
-                    Either.forLeft(new Command("Log source tree", "log-source-tree")),
-                    Either.forLeft(
-                        new Command(
-                            "Log syntax tree", "log-syntax-tree", Arrays.asList(uri.toString())))));
+                    .orElse(CompletableFuture.completedFuture(null)),
+            queryExecutor)
+        .thenApply(response -> commands);
   }
 
   /**
@@ -345,18 +772,21 @@ public class SoarDocumentService implements TextDocumentService {
   public CompletableFuture<List<? extends CodeLens>> codeLens(CodeLensParams params) {
     URI uri = uri(params.getTextDocument().getUri());
     return getAllAnalyses()
-        .thenApply(
+        .thenApplyAsync(
             analyses -> {
+              WorkspaceSnapshot current = snapshot.get();
               String entryPointList =
-                  analyses
-                      .filter(analysis -> analysis.files.containsKey(uri))
-                      .map(analysis -> analysis.entryPoint.name)
+                  current
+                      .entryPointsSourcing(uri)
+                      .stream()
+                      .map(entryPointUri -> current.analyses.get(entryPointUri).entryPoint.name)
                       .collect(joining(", "));
 
               return Arrays.asList(
                   new CodeLens(
                       range(0, 0, 0, 0), new Command("Member of " + entryPointList, ""), null));
-            });
+            },
+            queryExecutor);
   }
 
   @Override
@@ -369,10 +799,11 @@ public class SoarDocumentService implements TextDocumentService {
         analysis ->
             analysis
                 .file(uri)
-                .map(file -> file.file)
                 .flatMap(
-                    file -> {
-                      TclAstNode node = file.tclNode(params.getPosition());
+                    fileAnalysis -> {
+                      SoarFile file = fileAnalysis.file;
+                      TclAstNode node =
+                          file.tclNode(analysedPosition(fileAnalysis, params.getPosition()));
                       switch (node.getType()) {
                         case TclAstNode.NORMAL_WORD:
                           return goToDefinitionProcedure(analysis, file, node);
@@ -385,16 +816,193 @@ public class SoarDocumentService implements TextDocumentService {
                           return Optional.empty();
                       }
                     })
-                .map(location -> singletonList(location))
+                .map(location -> singletonList(currentLocation(analysis, location)))
                 .orElseGet(ArrayList::new);
 
-    return getAllAnalyses()
-        .thenApply(
-            analyses ->
-                analyses.flatMap(findDefinition.andThen(List::stream)).distinct().collect(toList()))
+    return Futures.completeOnTimeout(getAllAnalyses(), null, analysisWaitTime())
+        .thenApplyAsync(
+            analyses -> {
+              List<ProjectAnalysis> available =
+                  analyses != null ? analyses.collect(toList()) : new ArrayList<>();
+              if (available.isEmpty()) {
+                return definitionFromSymbols(uri, params.getPosition());
+              }
+              List<Location> locations =
+                  available
+                      .stream()
+                      .flatMap(findDefinition.andThen(List::stream))
+                      .distinct()
+                      .collect(toList());
+              if (locations.isEmpty()) {
+                String productionName = productionNameAt(uri, params.getPosition());
+                locations = productionDefinitions(productionName, available);
+              }
+              return locations;
+            },
+            queryExecutor)
         .thenApply(Either::forLeft);
   }
 
+  /**
+   * Get the path of the Soar attribute at the given position, or null if the position isn't on an
+   * attribute. The path runs up to the end of the attribute under the cursor, so on the 'o' in
+   * ^io.output-link.move this returns "io.output-link".
+   */
+  private String attributePathAt(URI uri, Position position) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return null;
+    }
+    String contents = file.contents;
+    int offset = file.offset(position);
+    int start = offset;
+    while (start > 0 && isSymbolChar(contents.charAt(start - 1))) {
+      start -= 1;
+    }
+    if (start == 0 || contents.charAt(start - 1) != '^') {
+      return null;
+    }
+    int end = offset;
+    while (end < contents.length()
+        && isSymbolChar(contents.charAt(end))
+        && contents.charAt(end) != '.') {
+      end += 1;
+    }
+    return start < end ? contents.substring(start, end) : null;
+  }
+
+  /** Get the locations of the productions that test or create an attribute. */
+  private List<Location> attributeReferences(String attribute, List<ProjectAnalysis> analyses) {
+    return analyses
+        .stream()
+        .flatMap(
+            analysis ->
+                Stream.concat(
+                        analysis.attributes.testing(attribute).stream(),
+                        analysis.attributes.creating(attribute).stream())
+                    .map(production -> currentLocation(analysis, production.location)))
+        .distinct()
+        .collect(toList());
+  }
+
+  /**
+   * Get the word at the given position that could be the name of a production, or an empty string
+   * if there isn't one. This works on the raw text of the document rather than its syntax tree,
+   * because production names are mentioned in comments, inside production bodies in the Tcl
+   * expansion buffer, and as arguments to commands like excise and pwatch.
+   */
+  private String productionNameAt(URI uri, Position position) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return "";
+    }
+    String contents = file.contents;
+    int offset = file.offset(position);
+    int start = offset;
+    while (start > 0 && isSymbolChar(contents.charAt(start - 1))) {
+      start -= 1;
+    }
+    int end = offset;
+    while (end < contents.length() && isSymbolChar(contents.charAt(end))) {
+      end += 1;
+    }
+    return contents.substring(start, end);
+  }
+
+  /** Whether a character can appear in the name of a production or attribute. */
+  private static boolean isSymbolChar(char c) {
+    return Character.isLetterOrDigit(c) || "*-_:./&+=%!?@".indexOf(c) != -1;
+  }
+
+  /** Get the locations of every production with the given name, across all entry points. */
+  private List<Location> productionDefinitions(String name, List<ProjectAnalysis> analyses) {
+    return analyses
+        .stream()
+        .flatMap(
+            analysis ->
+                analysis
+                    .productions(name)
+                    .stream()
+                    .map(production -> currentLocation(analysis, production.location)))
+        .distinct()
+        .collect(toList());
+  }
+
+  /**
+   * Get the places that refer to a production by name, such as excise and pwatch commands. If
+   * requested, the places it was defined are included too.
+   */
+  private List<Location> productionReferences(
+      String name, List<ProjectAnalysis> analyses, boolean includeDefinitions) {
+    Stream<Location> mentions =
+        analyses
+            .stream()
+            .flatMap(
+                analysis ->
+                    analysis
+                        .identifiers
+                        .occurrences(name)
+                        .stream()
+                        .map(
+                            occurrence ->
+                                new Location(
+                                    occurrence.uri.toString(),
+                                    occurrenceRange(analysis, occurrence))));
+    Stream<Location> definitions =
+        includeDefinitions ? productionDefinitions(name, analyses).stream() : Stream.of();
+    return Stream.concat(definitions, mentions)
+        .distinct()
+        .collect(toList());
+  }
+
+  /**
+   * Find definitions using only the symbols that can be found in each document's syntax tree. This
+   * is used when there is no analysis available.
+   */
+  private List<Location> definitionFromSymbols(URI uri, Position position) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return new ArrayList<>();
+    }
+    TclAstNode node = file.tclNode(position);
+    switch (node.getType()) {
+      case TclAstNode.NORMAL_WORD:
+        {
+          String name = file.getNodeInternalText(node);
+          return fileSymbols
+              .values()
+              .stream()
+              .flatMap(symbols -> symbols.procedureDefinitions.stream())
+              .filter(def -> def.name.equals(name))
+              .map(def -> def.location)
+              .collect(toList());
+        }
+
+      case TclAstNode.VARIABLE:
+      case TclAstNode.VARIABLE_NAME:
+        {
+          TclAstNode nameNode =
+              node.getType() == TclAstNode.VARIABLE
+                  ? node.getChild(TclAstNode.VARIABLE_NAME)
+                  : node;
+          if (nameNode == null) {
+            return new ArrayList<>();
+          }
+          String name = file.getNodeInternalText(nameNode);
+          return fileSymbols
+              .values()
+              .stream()
+              .flatMap(symbols -> symbols.variableDefinitions.stream())
+              .filter(def -> def.name.equals(name))
+              .map(def -> def.location)
+              .collect(toList());
+        }
+
+      default:
+        return new ArrayList<>();
+    }
+  }
+
   /**
    * Find the procedure definition of the given node. Returns the location of the procedure
    * definition or null if it doesn't exist.
@@ -416,34 +1024,25 @@ public class SoarDocumentService implements TextDocumentService {
 
   @Override
   public CompletableFuture<WorkspaceEdit> rename(RenameParams params) {
-    return mapAnalysis(
-        analysis -> {
+    URI thisFileUri = uri(params.getTextDocument().getUri());
+    return mapAnalysisCancellable(
+        thisFileUri,
+        (analysis, cancelChecker) -> {
           // Get original name for lookups
-          URI thisFileUri = uri(params.getTextDocument().getUri());
           FileAnalysis thisFileAnalysis = analysis.file(thisFileUri).orElse(null);
           SoarFile file = thisFileAnalysis.file;
-          TclAstNode node = file.tclNode(params.getPosition());
+          TclAstNode node = file.tclNode(analysedPosition(thisFileAnalysis, params.getPosition()));
           String oldName = file.contents.substring(node.getStart(), node.getEnd());
 
           // Final set of edits
           HashMap<String, List<TextEdit>> textEdits = new HashMap<>();
 
-          // Assume variables can be accessed between files, so enumerate over them
-          for (FileAnalysis otherFileAnalysis : analysis.files.values()) {
-            SoarFile otherFile = otherFileAnalysis.file;
-            String otherFileUriString = otherFile.uri.toString();
-            TclAstNode root = otherFile.ast;
-            String contents = otherFile.contents;
-            // only attempt to rename leaf nodes like NORMAL_WORD or VARIABLE_NAME
-            for (TclAstNode childNode : root.leafNodes()) {
-              int start = childNode.getStart();
-              int end = childNode.getEnd();
-              if (contents.substring(start, end).equals(oldName)) {
-                Range range = new Range(otherFile.position(start), otherFile.position(end));
-                textEdits.putIfAbsent(otherFileUriString, new ArrayList<>());
-                textEdits.get(otherFileUriString).add(new TextEdit(range, params.getNewName()));
-              }
-            }
+          // Assume variables can be accessed between files, so rename every occurrence
+          for (IdentifierIndex.Occurrence occurrence : analysis.identifiers.occurrences(oldName)) {
+            cancelChecker.checkCanceled();
+            textEdits
+                .computeIfAbsent(occurrence.uri.toString(), key -> new ArrayList<>())
+                .add(new TextEdit(occurrenceRange(analysis, occurrence), params.getNewName()));
           }
 
           return new WorkspaceEdit(textEdits);
@@ -485,19 +1084,78 @@ public class SoarDocumentService implements TextDocumentService {
     String prefix = line.substring(itemStart, cursor);
     Range replacementRange = range(lineNumber, itemStart, lineNumber, cursor);
 
-    return mapAnalysis(
-        analysis -> {
-          Stream<CompletionItem> completions = null;
-          if (itemKind == CompletionItemKind.Constant) {
-            completions = CompletionRequest.completeVariable(analysis, prefix, replacementRange);
-          } else if (itemKind == CompletionItemKind.Function) {
-            completions = CompletionRequest.completeProcedure(analysis, prefix, replacementRange);
-          } else {
-            return null;
-          }
+    if (itemKind == null) {
+      return CompletableFuture.completedFuture(null);
+    }
 
-          return Either.forLeft(completions.collect(toList()));
-        });
+    return mapAnalysisOrSymbols(
+            uri,
+            analysis ->
+                itemKind == CompletionItemKind.Constant
+                    ? CompletionRequest.completeVariable(
+                        analysis.variableNames, prefix, replacementRange, analysis.entryPointUri)
+                    : CompletionRequest.completeProcedure(
+                        analysis.procedureNames, prefix, replacementRange, analysis.entryPointUri),
+            () ->
+                itemKind == CompletionItemKind.Constant
+                    ? CompletionRequest.completeVariable(
+                        new NameIndex<>(symbolVariables()), prefix, replacementRange, null)
+                    : CompletionRequest.completeProcedure(
+                        new NameIndex<>(symbolProcedures()), prefix, replacementRange, null))
+        .thenApply(Either::forRight);
+  }
+
+  /** Fill in the documentation of a completion item that was returned by completion(). */
+  @Override
+  public CompletableFuture<CompletionItem> resolveCompletionItem(CompletionItem item) {
+    CompletionRequest.ItemData data = CompletionRequest.ItemData.of(item);
+    if (data == null) {
+      return CompletableFuture.completedFuture(item);
+    }
+
+    boolean isVariable = data.kind.equals(CompletionRequest.ItemData.VARIABLE);
+    Map<String, VariableDefinition> variables;
+    Map<String, ProcedureDefinition> procedures;
+    if (data.entryPoint != null) {
+      ProjectAnalysis analysis = snapshot.get().analyses.get(uri(data.entryPoint));
+      if (analysis == null) {
+        return CompletableFuture.completedFuture(item);
+      }
+      variables = analysis.variableDefinitions;
+      procedures = analysis.procedureDefinitions;
+    } else {
+      variables = isVariable ? symbolVariables() : new HashMap<>();
+      procedures = isVariable ? new HashMap<>() : symbolProcedures();
+    }
+
+    Optional<String> documentation =
+        isVariable
+            ? Optional.ofNullable(variables.get(data.name)).flatMap(this::commentText)
+            : Optional.ofNullable(procedures.get(data.name)).flatMap(this::commentText);
+    documentation.ifPresent(item::setDocumentation);
+    return CompletableFuture.completedFuture(item);
+  }
+
+  /**
+   * Collect the variables defined in the syntax trees of all documents we know about. Without an
+   * analysis we don't know which files are sourced, so if a name is defined more than once, the
+   * first definition we come across wins.
+   */
+  private Map<String, VariableDefinition> symbolVariables() {
+    Map<String, VariableDefinition> variables = new LinkedHashMap<>();
+    for (FileSymbols symbols : fileSymbols.values()) {
+      symbols.variableDefinitions.forEach(def -> variables.putIfAbsent(def.name, def));
+    }
+    return variables;
+  }
+
+  /** Collect the procedures defined in the syntax trees of all documents we know about. */
+  private Map<String, ProcedureDefinition> symbolProcedures() {
+    Map<String, ProcedureDefinition> procedures = new LinkedHashMap<>();
+    for (FileSymbols symbols : fileSymbols.values()) {
+      symbols.procedureDefinitions.forEach(def -> procedures.putIfAbsent(def.name, def));
+    }
+    return procedures;
   }
 
   @Override
@@ -507,46 +1165,77 @@ public class SoarDocumentService implements TextDocumentService {
     final SoarFile file = documents.get(uri);
     final int offset = file.offset(params.getPosition());
 
-    final List<DocumentHighlight> highlights =
-        file.ast
-            .getChildren()
-            .stream()
-            .filter(node -> node.getType() != TclAstNode.COMMENT)
-            .filter(node -> node.getStart() <= offset && offset <= node.getEnd())
-            .map(
-                node -> new Range(file.position(node.getStart()), file.position(node.getEnd() + 1)))
-            .map(DocumentHighlight::new)
-            .collect(toList());
+    // If the cursor is on the name of a procedure or variable, then we highlight everywhere else
+    // that it appears in this file.
+    TclAstNode node = file.tclNode(offset);
+    if (IdentifierIndex.isIdentifier(node)) {
+      String name = file.contents.substring(node.getStart(), node.getEnd());
+      return mapAnalysis(
+              uri,
+              analysis -> {
+                if (!analysis.procedureDefinitions.containsKey(name)
+                    && !analysis.variableDefinitions.containsKey(name)) {
+                  return null;
+                }
+                return analysis
+                    .identifiers
+                    .occurrences(name)
+                    .stream()
+                    .filter(occurrence -> occurrence.uri.equals(uri))
+                    .map(occurrence -> new DocumentHighlight(occurrenceRange(analysis, occurrence)))
+                    .collect(toList());
+              })
+          .thenApply(
+              highlights ->
+                  highlights != null && !highlights.isEmpty()
+                      ? highlights
+                      : commandHighlights(file, offset));
+    }
 
-    return CompletableFuture.completedFuture(highlights);
+    return CompletableFuture.completedFuture(commandHighlights(file, offset));
+  }
+
+  /** Highlight the entire top level command that contains the given offset. */
+  private List<DocumentHighlight> commandHighlights(SoarFile file, int offset) {
+    return file.ast
+        .getChildren()
+        .stream()
+        .filter(node -> node.getType() != TclAstNode.COMMENT)
+        .filter(node -> node.getStart() <= offset && offset <= node.getEnd())
+        .map(node -> new Range(file.position(node.getStart()), file.position(node.getEnd() + 1)))
+        .map(DocumentHighlight::new)
+        .collect(toList());
   }
 
   @Override
   public CompletableFuture<List<FoldingRange>> foldingRange(FoldingRangeRequestParams params) {
     URI uri = uri(params.getTextDocument().getUri());
     SoarFile file = documents.get(uri);
-    List<FoldingRange> ranges =
-        file.ast
-            .getChildren()
-            .stream()
-            .map(
-                c -> {
-                  FoldingRange range =
-                      new FoldingRange(
-                          file.position(c.getStart()).getLine(),
-                          file.position(c.getStart() + c.getLength() - 1).getLine());
-
-                  if (c.getType() == TclAstNode.COMMAND) {
-                    range.setKind(FoldingRangeKind.Region);
-                  } else if (c.getType() == TclAstNode.COMMENT) {
-                    range.setKind(FoldingRangeKind.Comment);
-                  }
+    return CompletableFuture.completedFuture(
+        foldingRangeCache.get(file, null, () -> foldingRanges(file)));
+  }
 
-                  return range;
-                })
-            .filter(r -> r.getStartLine() < r.getEndLine())
-            .collect(toList());
-    return CompletableFuture.completedFuture(ranges);
+  private List<FoldingRange> foldingRanges(SoarFile file) {
+    return file.ast
+        .getChildren()
+        .stream()
+        .map(
+            c -> {
+              FoldingRange range =
+                  new FoldingRange(
+                      file.position(c.getStart()).getLine(),
+                      file.position(c.getStart() + c.getLength() - 1).getLine());
+
+              if (c.getType() == TclAstNode.COMMAND) {
+                range.setKind(FoldingRangeKind.Region);
+              } else if (c.getType() == TclAstNode.COMMENT) {
+                range.setKind(FoldingRangeKind.Comment);
+              }
+
+              return range;
+            })
+        .filter(r -> r.getStartLine() < r.getEndLine())
+        .collect(toList());
   }
 
   /**
@@ -581,7 +1270,9 @@ public class SoarDocumentService implements TextDocumentService {
                 .file(uri)
                 .flatMap(
                     fileAnalysis -> {
-                      TclAstNode node = fileAnalysis.file.tclNode(params.getPosition());
+                      TclAstNode node =
+                          fileAnalysis.file.tclNode(
+                              analysedPosition(fileAnalysis, params.getPosition()));
                       return fileAnalysis
                           .variableRetrieval(node)
                           .flatMap(retrieval -> retrieval.definition)
@@ -629,7 +1320,7 @@ public class SoarDocumentService implements TextDocumentService {
     Function<ProcedureCall, Optional<String>> hoverText =
         call ->
             call.definition
-                .flatMap(def -> def.commentText)
+                .flatMap(this::commentText)
                 .map(
                     comment ->
                         Arrays.stream(comment.split("\n"))
@@ -642,7 +1333,8 @@ public class SoarDocumentService implements TextDocumentService {
 
     Function<FileAnalysis, Optional<Hover>> hoverProcedureCallFile =
         fileAnalysis -> {
-          TclAstNode node = fileAnalysis.file.tclNode(params.getPosition());
+          TclAstNode node =
+              fileAnalysis.file.tclNode(analysedPosition(fileAnalysis, params.getPosition()));
           return fileAnalysis
               .procedureCall(node)
               .filter(call -> call.callSiteAst.getChildren().get(0) == node)
@@ -651,7 +1343,9 @@ public class SoarDocumentService implements TextDocumentService {
                     String value =
                         hoverText.apply(call).orElse(fileAnalysis.file.getNodeInternalText(node));
                     List<TclAstNode> callChildren = call.callSiteAst.getChildren();
-                    Range range = fileAnalysis.file.rangeForNode(callChildren.get(0));
+                    Range range =
+                        currentRange(
+                            fileAnalysis, fileAnalysis.file.rangeForNode(callChildren.get(0)));
                     return config.renderHoverMarkdown
                         ? new Hover(new MarkupContent(MarkupKind.MARKDOWN, value), range)
                         : new Hover(new MarkupContent(MarkupKind.PLAINTEXT, value), range);
@@ -667,10 +1361,132 @@ public class SoarDocumentService implements TextDocumentService {
     switch (hoveredNode.getType()) {
       case TclAstNode.VARIABLE:
       case TclAstNode.VARIABLE_NAME:
-        return getAllAnalyses().thenApply(hoverVariable);
+        return Futures.thenApplyCancellable(
+            getAllAnalyses(),
+            (analyses, cancelChecker) ->
+                hoverVariable.apply(analyses.peek(analysis -> cancelChecker.checkCanceled())),
+            queryExecutor);
       default:
-        return mapAnalysis(hoverProcedureCall);
+        String attribute = attributePathAt(uri, params.getPosition());
+        if (attribute != null) {
+          return Futures.thenApplyCancellable(
+              getAllAnalyses(),
+              (analyses, cancelChecker) ->
+                  hoverAttribute(
+                      attribute,
+                      analyses.peek(analysis -> cancelChecker.checkCanceled()).collect(toList())),
+              queryExecutor);
+        }
+        return mapAnalysis(uri, hoverProcedureCall);
+    }
+  }
+
+  /** Summarise which productions test and create an attribute. */
+  private Hover hoverAttribute(String attribute, List<ProjectAnalysis> analyses) {
+    List<String> testing =
+        analyses
+            .stream()
+            .flatMap(analysis -> analysis.attributes.testing(attribute).stream())
+            .map(production -> production.name)
+            .distinct()
+            .sorted()
+            .collect(toList());
+    List<String> creating =
+        analyses
+            .stream()
+            .flatMap(analysis -> analysis.attributes.creating(attribute).stream())
+            .map(production -> production.name)
+            .distinct()
+            .sorted()
+            .collect(toList());
+    if (testing.isEmpty() && creating.isEmpty()) {
+      return null;
+    }
+    String value =
+        "^"
+            + attribute
+            + "\n"
+            + productionSummary("Tested by", testing)
+            + "\n"
+            + productionSummary("Created by", creating);
+    return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, value), null);
+  }
+
+  private static String productionSummary(String verb, List<String> names) {
+    int shown = Math.min(names.size(), MAX_HOVER_PRODUCTIONS);
+    String summary =
+        verb + " " + names.size() + (names.size() == 1 ? " production" : " productions");
+    if (shown != 0) {
+      summary += ": " + String.join(", ", names.subList(0, shown));
     }
+    if (shown < names.size()) {
+      summary += ", and " + (names.size() - shown) + " more";
+    }
+    return summary;
+  }
+
+  @Override
+  public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+    URI uri = uri(params.getTextDocument().getUri());
+    return CompletableFuture.supplyAsync(
+        () -> semanticTokens(currentSemanticTokens(uri)), queryExecutor);
+  }
+
+  @Override
+  public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(
+      SemanticTokensDeltaParams params) {
+    URI uri = uri(params.getTextDocument().getUri());
+    return CompletableFuture.supplyAsync(
+        () -> {
+          CachedSemanticTokens previous = semanticTokens.get(uri);
+          CachedSemanticTokens current = currentSemanticTokens(uri);
+
+          // We only remember the most recent result, so if the client is asking about an older one
+          // then we have to send everything.
+          if (previous == null || !previous.resultId.equals(params.getPreviousResultId())) {
+            return Either.<SemanticTokens, SemanticTokensDelta>forLeft(semanticTokens(current));
+          }
+          SemanticTokensDelta delta =
+              new SemanticTokensDelta(SemanticTokensRequest.diff(previous.data, current.data));
+          delta.setResultId(current.resultId);
+          return Either.<SemanticTokens, SemanticTokensDelta>forRight(delta);
+        },
+        queryExecutor);
+  }
+
+  private static SemanticTokens semanticTokens(CachedSemanticTokens tokens) {
+    SemanticTokens result = new SemanticTokens(tokens.data);
+    result.setResultId(tokens.resultId);
+    return result;
+  }
+
+  /**
+   * Get the semantic tokens for the current version of a document, computing them only if the
+   * document or its analysis has changed since they were last requested.
+   */
+  private CachedSemanticTokens currentSemanticTokens(URI uri) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return new CachedSemanticTokens("", null, null, new ArrayList<>());
+    }
+    ProjectAnalysis analysis =
+        entryPointFor(uri).flatMap(entryPoint -> snapshot.get().analysis(entryPoint)).orElse(null);
+
+    CachedSemanticTokens cached = semanticTokens.get(uri);
+    if (cached != null && cached.file == file && cached.analysis == analysis && analysis != null) {
+      return cached;
+    }
+
+    Set<String> procedureNames =
+        analysis != null
+            ? analysis.procedureDefinitions.keySet()
+            : symbolProcedures().keySet();
+    List<Integer> data = SemanticTokensRequest.tokens(file, procedureNames);
+    CachedSemanticTokens tokens =
+        new CachedSemanticTokens(
+            Long.toString(semanticTokensResultId.incrementAndGet()), file, analysis, data);
+    semanticTokens.put(uri, tokens);
+    return tokens;
   }
 
   @Override
@@ -683,7 +1499,8 @@ public class SoarDocumentService implements TextDocumentService {
           if (fileAnalysis == null) {
             return Stream.of();
           }
-          TclAstNode astNode = fileAnalysis.file.tclNode(params.getPosition());
+          TclAstNode astNode =
+              fileAnalysis.file.tclNode(analysedPosition(fileAnalysis, params.getPosition()));
 
           List<Location> references = new ArrayList<>();
 
@@ -692,17 +1509,12 @@ public class SoarDocumentService implements TextDocumentService {
           Optional<VariableDefinition> varDef =
               fileAnalysis.variableRetrieval(astNode).flatMap(ret -> ret.definition);
           if (!varDef.isPresent()) {
-            varDef =
-                analysis
-                    .variableRetrievals
-                    .keySet()
-                    .stream()
-                    .filter(def -> def.ast.containsChild(astNode))
-                    .findFirst();
+            varDef = analysis.variableDefinitionEnclosing(astNode);
           }
           varDef.ifPresent(
               def -> {
-                for (VariableRetrieval ret : analysis.variableRetrievals.get(def)) {
+                for (VariableRetrieval ret :
+                    analysis.variableRetrievals.getOrDefault(def, ImmutableList.of())) {
                   references.add(ret.readSiteLocation);
                 }
               });
@@ -710,7 +1522,7 @@ public class SoarDocumentService implements TextDocumentService {
           // If we successfully found a variable reference, then return now; we don't want to
           // return references to an enclosing procedure call.
           if (!references.isEmpty()) {
-            return references.stream();
+            return references.stream().map(location -> currentLocation(analysis, location));
           }
 
           // If we weren't querying a variable, then try to find references to a procedure.
@@ -718,12 +1530,7 @@ public class SoarDocumentService implements TextDocumentService {
           Optional<ProcedureDefinition> procDef =
               fileAnalysis.procedureCall(astNode).flatMap(call -> call.definition);
           if (!procDef.isPresent()) {
-            procDef =
-                fileAnalysis
-                    .procedureDefinitions
-                    .stream()
-                    .filter(def -> def.ast.containsChild(astNode))
-                    .findFirst();
+            procDef = analysis.procedureDefinitionEnclosing(astNode);
           }
           procDef.ifPresent(
               def -> {
@@ -732,11 +1539,45 @@ public class SoarDocumentService implements TextDocumentService {
                 }
               });
 
-          return references.stream();
+          // As a last resort, fall back to textual occurrences of the word under the cursor.
+          if (references.isEmpty() && IdentifierIndex.isIdentifier(astNode)) {
+            String name =
+                fileAnalysis.file.contents.substring(astNode.getStart(), astNode.getEnd());
+            return analysis
+                .identifiers
+                .occurrences(name)
+                .stream()
+                .map(
+                    occurrence ->
+                        new Location(
+                            occurrence.uri.toString(), occurrenceRange(analysis, occurrence)));
+          }
+
+          return references.stream().map(location -> currentLocation(analysis, location));
         };
 
-    return getAllAnalyses()
-        .thenApply(analyses -> analyses.flatMap(findReferences).distinct().collect(toList()));
+    return Futures.thenApplyCancellable(
+        getAllAnalyses(),
+        (analyses, cancelChecker) -> {
+          List<ProjectAnalysis> available = analyses.collect(toList());
+          String attribute = attributePathAt(uri, params.getPosition());
+          if (attribute != null) {
+            return attributeReferences(attribute, available);
+          }
+          String productionName = productionNameAt(uri, params.getPosition());
+          if (available.stream().anyMatch(a -> !a.productions(productionName).isEmpty())) {
+            boolean includeDefinitions =
+                params.getContext() != null && params.getContext().isIncludeDeclaration();
+            return productionReferences(productionName, available, includeDefinitions);
+          }
+          return available
+              .stream()
+              .peek(analysis -> cancelChecker.checkCanceled())
+              .flatMap(findReferences)
+              .distinct()
+              .collect(toList());
+        },
+        workspaceQueryExecutor);
   }
 
   @Override
@@ -802,10 +1643,12 @@ public class SoarDocumentService implements TextDocumentService {
 
     URI uri = uri(params.getTextDocument().getUri());
     return mapAnalysis(
+        uri,
         project -> {
           FileAnalysis analysis = project.file(uri).orElse(null);
-          TclAstNode cursorNode = analysis.file.tclNode(params.getPosition());
-          int cursorOffset = analysis.file.offset(params.getPosition());
+          Position position = analysedPosition(analysis, params.getPosition());
+          TclAstNode cursorNode = analysis.file.tclNode(position);
+          int cursorOffset = analysis.file.offset(position);
           return analysis
               .procedureCall(cursorNode)
               .flatMap(call -> makeSignatureHelp.apply(call, cursorOffset))
@@ -816,42 +1659,117 @@ public class SoarDocumentService implements TextDocumentService {
   /** Wire up a reference to the client, so that we can send diagnostics. */
   void connect(LanguageClient client) {
     this.client = client;
+    diagnosticsPublisher.connect(client);
   }
 
   void setWorkspaceRoot(URI workspaceRootUri) {
     this.workspaceRootUri = workspaceRootUri;
   }
 
-  /** Set the entry point of the Soar agent - the first file that should be sourced. */
+  /**
+   * Set the entry points of the Soar agents - the first files that should be sourced.
+   *
+   * <p>Only the entry points that the change affects are analysed again: those that are new, those
+   * whose name changed (since it is stored in the analysis), and all of them if one of the settings
+   * that controls how an analysis runs has changed. The analyses of entry points that have been
+   * removed are dropped. The list of RHS functions is applied when diagnostics are reported, so a
+   * change to it only means that the diagnostics are checked again.
+   */
   void setProjectConfig(ProjectConfiguration projectConfig) {
+    ProjectConfiguration previous = this.projectConfig;
+    Map<URI, EntryPoint> previousEntryPoints = new HashMap<>();
+    previous
+        .entryPoints()
+        .forEach(
+            entryPoint ->
+                previousEntryPoints.put(workspaceRootUri.resolve(entryPoint.path), entryPoint));
     this.projectConfig = projectConfig;
     this.activeEntryPoint =
         projectConfig.activeEntryPoint().map(entry -> workspaceRootUri.resolve(entry.path));
-    projectConfig
-        .entryPoints()
-        .forEach(
-            entryPoint -> {
-              URI uri = workspaceRootUri.resolve(entryPoint.path);
-              scheduleAnalysis(uri);
-            });
+    List<URI> entryPointUris =
+        projectConfig
+            .entryPoints()
+            .map(entryPoint -> workspaceRootUri.resolve(entryPoint.path))
+            .collect(toList());
+    WorkspaceSnapshot current = snapshot.updateAndGet(s -> s.withEntryPoints(entryPointUris));
+
+    staticSources.clear();
+    sharedPrefixes.clear();
+    boolean analysisSettingsChanged =
+        previous.analysisTimeLimit != projectConfig.analysisTimeLimit
+            || previous.analysisAllocationLimit != projectConfig.analysisAllocationLimit
+            || previous.sharedPrefixAnalysis != projectConfig.sharedPrefixAnalysis;
+    Set<URI> changed =
+        projectConfig
+            .entryPoints()
+            .filter(
+                entryPoint -> {
+                  EntryPoint before =
+                      previousEntryPoints.get(workspaceRootUri.resolve(entryPoint.path));
+                  return analysisSettingsChanged
+                      || before == null
+                      || !Objects.equals(before.name, entryPoint.name);
+                })
+            .map(entryPoint -> workspaceRootUri.resolve(entryPoint.path))
+            .collect(toSet());
+    LOG.info(
+        "Project configuration has {} entry points, of which {} are new or changed",
+        entryPointUris.size(),
+        changed.size());
+    if (projectConfig.lazyAnalysis) {
+      // Other entry points are analysed when they are needed, but the ones we already have must
+      // not be left out of date.
+      activeEntryPoint.ifPresent(this::ensureAnalysed);
+      entryPointUris
+          .stream()
+          .filter(changed::contains)
+          .filter(uri -> current.analyses.containsKey(uri) || inFlightAnalysis(uri) != null)
+          .forEach(this::scheduleAnalysis);
+      if (evictionTask == null) {
+        long interval = IDLE_EVICTION_TIME.toMillis() / 10;
+        evictionTask =
+            evictionThread.scheduleWithFixedDelay(
+                this::evictIdleAnalyses, interval, interval, TimeUnit.MILLISECONDS);
+      }
+    } else {
+      // Switching out of lazy mode means analysing everything that was skipped.
+      entryPointUris
+          .stream()
+          .filter(
+              uri ->
+                  changed.contains(uri)
+                      || (!current.analyses.containsKey(uri) && inFlightAnalysis(uri) == null))
+          .forEach(this::scheduleAnalysis);
+    }
+
+    Set<URI> analysedFiles = new LinkedHashSet<>();
+    for (ProjectAnalysis analysis : current.orderedAnalyses) {
+      analysedFiles.addAll(analysis.files.keySet());
+    }
+    diagnosticsPublisher.analysisCompleted(analysedFiles);
   }
 
+  /**
+   * Apply new settings from the client. None of the settings affect the results of an analysis, so
+   * this never causes a reanalysis; settings that only affect how results are presented are read
+   * when they are needed, and only the state that depends on the other settings is updated.
+   */
   void setConfiguration(Configuration config) {
+    Configuration previous = this.config;
     this.config = config;
-    if (config.debounceTime != null) {
+    // Links depend on the configured location of the expansion file, and if that has changed then
+    // the new file needs to be written even if the selection hasn't.
+    if (!Objects.equals(previous.tclExpansionFile, config.tclExpansionFile)
+        || !Objects.equals(previous.hyperlinkExpansionFile, config.hyperlinkExpansionFile)
+        || !Objects.equals(previous.writeTclExpansionFile, config.writeTclExpansionFile)) {
+      LOG.info("Expansion file settings changed");
+      documentLinkCache.clear();
+      lastExpansionSelection.set(null);
+    }
+    analysisScheduler.setAdaptive(Boolean.TRUE.equals(config.adaptiveDebounce));
+    if (config.debounceTime != null && !config.debounceTime.equals(previous.debounceTime)) {
       LOG.info("Updating debounce time");
-      for (Debouncer debouncer : debouncers.values()) {
-        debouncer.setDelay(Duration.ofMillis(config.debounceTime));
-      }
-      if (projectConfig != null) {
-        projectConfig
-            .entryPoints()
-            .forEach(
-                entryPoint -> {
-                  URI uri = workspaceRootUri.resolve(entryPoint.path);
-                  scheduleAnalysis(uri);
-                });
-      }
+      analysisScheduler.setDelay(Duration.ofMillis(config.debounceTime));
     }
   }
 
@@ -860,21 +1778,23 @@ public class SoarDocumentService implements TextDocumentService {
    * the requests are debounced.
    */
   private void scheduleAnalysis(URI entryPointUri) {
-    // TODO: this has the side effect of clearing the pendingAnalysis entry if there is one. I don't
-    // like relying on that subtle behaviour.
-    getAnalysis(entryPointUri);
-
-    CompletableFuture<ProjectAnalysis> future =
-        pendingAnalyses.computeIfAbsent(entryPointUri, key -> new CompletableFuture<>());
-
-    if (future.isDone()) {
-      return;
-    }
-
-    Debouncer debouncer =
-        debouncers.computeIfAbsent(
-            entryPointUri, uri -> new Debouncer(Duration.ofMillis(config.debounceTime)));
+    // If there is already an analysis waiting to start then it will pick up this change, so we
+    // reuse its future; otherwise, this becomes the new pending analysis. This is done atomically
+    // with respect to the task removing its future when it starts, so a future that we reuse
+    // belongs to an analysis that hasn't read any documents yet.
+    pendingAnalyses.compute(
+        entryPointUri,
+        (key, pending) -> {
+          CompletableFuture<ProjectAnalysis> future =
+              pending != null ? pending : new CompletableFuture<>();
+          analysisScheduler.schedule(entryPointUri, analysisTask(entryPointUri, future));
+          return future;
+        });
+  }
 
+  /** Create the task that analyses an entry point and then resolves the given future. */
+  private AnalysisScheduler.Task analysisTask(
+      URI entryPointUri, CompletableFuture<ProjectAnalysis> future) {
     // This is a clunky way to retrieve the entry point associated with a given URI.
     EntryPoint entryPoint =
         projectConfig
@@ -883,76 +1803,371 @@ public class SoarDocumentService implements TextDocumentService {
             .findFirst()
             .orElse(null);
 
-    debouncer.submit(
-        () -> {
-          try {
-            LOG.info("Beginning analysis for {}", entryPointUri);
-            ProjectAnalysis analysis =
-                Analysis.analyse(this.projectConfig, this.documents, entryPoint, entryPointUri);
-            reportDiagnostics(analysis);
-            future.complete(analysis);
-            LOG.info("Completed analysis for {}", entryPointUri);
-          } catch (Exception e) {
-            future.completeExceptionally(e);
-          }
-        });
+    return preempted -> {
+      // From this point on, any further edits must schedule a new analysis, because this one
+      // may have already read the files they touched. The future is marked as running before it
+      // stops being pending, so that there is no moment when an edit or a request can't see it.
+      runningAnalyses.put(entryPointUri, future);
+      pendingAnalyses.remove(entryPointUri, future);
+      try {
+        LOG.info("Beginning analysis for {}", entryPointUri);
+        // Edits inside a single production are common enough to be worth checking for first.
+        Optional<ProjectAnalysis> incremental =
+            snapshot
+                .get()
+                .analysis(entryPointUri)
+                .flatMap(previous -> incrementalAnalysis.reanalyseProduction(previous, documents));
+        if (incremental.isPresent()) {
+          Metrics.increment("analysis.incremental");
+        }
+        ProjectAnalysis analysis =
+            incremental.orElseGet(
+                () ->
+                    Analysis.analyse(
+                        this.projectConfig,
+                        this.documents,
+                        entryPoint,
+                        entryPointUri,
+                        preempted,
+                        projectConfig.sharedPrefixAnalysis ? sharedPrefixes : null));
+        if (analysis == null && preempted.getAsBoolean()) {
+          requeueAnalysis(entryPointUri, future);
+          return;
+        }
+        if (analysis != null) {
+          snapshot.updateAndGet(s -> s.withAnalysis(analysis));
+          reportDiagnostics(analysis);
+          precomputeInBackground(analysis);
+        }
+        future.complete(analysis);
+        LOG.info("Completed analysis for {}", entryPointUri);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+      } finally {
+        runningAnalyses.remove(entryPointUri, future);
+      }
+    };
+  }
+
+  /**
+   * Put an analysis that was preempted back in the queue. If another analysis of the same entry
+   * point has been scheduled in the meantime then that one will do, and the future is resolved
+   * along with it.
+   */
+  private void requeueAnalysis(URI entryPointUri, CompletableFuture<ProjectAnalysis> future) {
+    CompletableFuture<ProjectAnalysis> newer = pendingAnalyses.putIfAbsent(entryPointUri, future);
+    if (newer != null) {
+      newer.whenComplete(
+          (analysis, error) -> {
+            if (error != null) {
+              future.completeExceptionally(error);
+            } else {
+              future.complete(analysis);
+            }
+          });
+    } else {
+      analysisScheduler.requeue(entryPointUri, analysisTask(entryPointUri, future));
+    }
+  }
+
+  /**
+   * Rank an entry point by how relevant it is to what the user is doing; see {@link
+   * AnalysisScheduler} for the meaning of each priority.
+   */
+  private int analysisPriority(URI entryPointUri) {
+    WorkspaceSnapshot current = snapshot.get();
+    URI focused = focusedDocument;
+    if (focused != null && current.entryPointsSourcing(focused).contains(entryPointUri)) {
+      return AnalysisScheduler.FOCUSED;
+    }
+    if (activeEntryPoint.map(entryPointUri::equals).orElse(false)) {
+      return AnalysisScheduler.ACTIVE;
+    }
+    for (URI uri : documents.openUris()) {
+      if (current.entryPointsSourcing(uri).contains(entryPointUri)) {
+        return AnalysisScheduler.OPEN;
+      }
+    }
+    return AnalysisScheduler.BACKGROUND;
+  }
+
+  /** Log the entry points that are waiting to be analysed, in the order they will run. */
+  void logAnalysisQueue() {
+    List<URI> queue = analysisScheduler.queue();
+    for (int i = 0; i != queue.size(); ++i) {
+      LOG.info(
+          "Analysis queue position {}: {} (priority {})",
+          i + 1,
+          queue.get(i),
+          analysisPriority(queue.get(i)));
+    }
   }
 
   /** Report diagnostics from the given analysis. */
   private void reportDiagnostics(ProjectAnalysis projectAnalysis) {
-    for (FileAnalysis fileAnalysis : projectAnalysis.files.values()) {
-      final List<Diagnostic> diagnosticList = new ArrayList<>();
+    diagnosticsPublisher.analysisCompleted(projectAnalysis.files.keySet());
+  }
 
-      diagnosticList.addAll(fileAnalysis.diagnostics);
+  /**
+   * Set whether the client pulls diagnostics using the textDocument/diagnostic and
+   * workspace/diagnostic requests. If it does, then we stop pushing them, and instead ask the
+   * client to pull them again whenever they change.
+   */
+  void setPullDiagnostics(boolean pullDiagnostics) {
+    diagnosticsPublisher.setPullDiagnostics(pullDiagnostics);
+  }
+
+  /**
+   * Handle a textDocument/diagnostic request. The diagnostics come from every entry point that
+   * sources the document, so we wait for any of their analyses that are in progress, but for no
+   * longer than the configured wait time.
+   */
+  CompletableFuture<DocumentDiagnosticReport> documentDiagnostic(DocumentDiagnosticParams params) {
+    URI uri = uri(params.getTextDocument().getUri());
+    String previousResultId = params.getPreviousResultId();
+    Set<URI> entryPoints = new LinkedHashSet<>(snapshot.get().entryPointsSourcing(uri));
+    entryPointFor(uri)
+        .ifPresent(
+            entryPoint -> {
+              ensureAnalysed(entryPoint);
+              entryPoints.add(entryPoint);
+            });
+    return inFlightAnalyses(entryPoints)
+        .thenApplyAsync(ignored -> diagnosticReport(uri, previousResultId), queryExecutor);
+  }
+
+  /**
+   * Handle a workspace/diagnostic request, reporting on every file that has been analysed. As with
+   * a single document, analyses that are in progress are waited for, up to the configured time.
+   */
+  CompletableFuture<WorkspaceDiagnosticReport> workspaceDiagnostic(
+      WorkspaceDiagnosticParams params) {
+    Map<URI, String> previousResultIds = new HashMap<>();
+    for (PreviousResultId previous : params.getPreviousResultIds()) {
+      previousResultIds.put(uri(previous.getUri()), previous.getValue());
+    }
+    return Futures.thenApplyCancellable(
+        inFlightAnalyses(snapshot.get().entryPoints),
+        (ignored, cancelChecker) ->
+            new WorkspaceDiagnosticReport(
+                snapshot
+                    .get()
+                    .orderedAnalyses
+                    .stream()
+                    .flatMap(analysis -> analysis.files.keySet().stream())
+                    .distinct()
+                    .peek(uri -> cancelChecker.checkCanceled())
+                    .map(
+                        uri -> {
+                          // The version is read first, so that it is never newer than the
+                          // diagnostics.
+                          Integer version = documents.clientVersion(uri);
+                          return diagnosticReport(uri, previousResultIds.get(uri))
+                              .forDocument(uri.toString(), version);
+                        })
+                    .collect(toList())),
+        workspaceQueryExecutor);
+  }
+
+  /**
+   * Get a future that resolves once the analyses of the given entry points that are scheduled or
+   * running have finished, or once the configured wait time has passed. It resolves normally even
+   * if an analysis fails; callers should read the results from the snapshot.
+   */
+  private CompletableFuture<Void> inFlightAnalyses(Collection<URI> entryPointUris) {
+    CompletableFuture<?>[] waiting =
+        entryPointUris
+            .stream()
+            .map(this::inFlightAnalysis)
+            .filter(Objects::nonNull)
+            .toArray(CompletableFuture<?>[]::new);
+    if (waiting.length == 0) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> finished =
+        CompletableFuture.allOf(waiting).handle((result, error) -> null);
+    return Futures.completeOnTimeout(finished, null, analysisWaitTime());
+  }
+
+  /**
+   * Report the current diagnostics for a document, or that they are unchanged if the client already
+   * has them.
+   */
+  private DocumentDiagnosticReport diagnosticReport(URI uri, String previousResultId) {
+    List<Diagnostic> diagnostics = currentDiagnostics(uri);
+    PulledDiagnostics pulled =
+        pulledDiagnostics.compute(
+            uri,
+            (key, previous) ->
+                previous != null && previous.diagnostics.equals(diagnostics)
+                    ? previous
+                    : new PulledDiagnostics(
+                        Long.toString(diagnosticsResultId.incrementAndGet()), diagnostics));
+    if (pulled.resultId.equals(previousResultId)) {
+      return DocumentDiagnosticReport.unchanged(pulled.resultId);
+    }
+    return DocumentDiagnosticReport.full(pulled.resultId, pulled.diagnostics);
+  }
+
+  /**
+   * Get the current diagnostics for a document: those found by every analysis that sourced it,
+   * along with any that were found while parsing its current version.
+   */
+  private List<Diagnostic> currentDiagnostics(URI uri) {
+    Set<Diagnostic> diagnostics = new LinkedHashSet<>();
+    SoarFile analysedFile = null;
+    for (ProjectAnalysis analysis : snapshot.get().orderedAnalyses) {
+      Optional<FileAnalysis> fileAnalysis = analysis.file(uri);
+      if (fileAnalysis.isPresent()) {
+        // The same diagnostic is often found from several entry points.
+        diagnostics.addAll(analysisDiagnostics(fileAnalysis.get()));
+        analysedFile = analysedFile != null ? analysedFile : fileAnalysis.get().file;
+      }
+    }
+    SoarFile file = Optional.ofNullable(documents.get(uri)).orElse(analysedFile);
+    if (file != null) {
+      diagnostics.addAll(file.getDiagnostics());
+    }
+    return new ArrayList<>(diagnostics);
+  }
 
-      // add any diagnostics found while initially parsing file
-      diagnosticList.addAll(fileAnalysis.file.getDiagnostics());
+  /**
+   * Get the diagnostics that were found by analysing a file. The document may have been edited
+   * while the analysis was running, so we shift them to where they belong in the current version.
+   */
+  private List<Diagnostic> analysisDiagnostics(FileAnalysis fileAnalysis) {
+    List<Diagnostic> diagnosticList = new ArrayList<>();
+    for (Diagnostic diagnostic : fileAnalysis.diagnostics) {
+      boolean allowed =
+          Analysis.unknownRhsFunction(diagnostic)
+              .map(projectConfig.rhsFunctions::contains)
+              .orElse(false);
+      if (allowed) {
+        continue;
+      }
+      Range range = currentRange(fileAnalysis, diagnostic.getRange());
+      diagnosticList.add(
+          new Diagnostic(
+              range, diagnostic.getMessage(), diagnostic.getSeverity(), diagnostic.getSource()));
+    }
+    return diagnosticList;
+  }
 
-      PublishDiagnosticsParams diagnostics =
-          new PublishDiagnosticsParams(fileAnalysis.uri.toString(), diagnosticList);
-      // NOTE: I believe that publishDiagnostics is NOT thread safe. If multiple analyses complete
-      // at the same time, and they both try to send diagnostics, then the client might get into a
-      // bad state. However, since this method here gets called from the analysis threadpool, which
-      // has been allocated a single thread, it will not be called from mulitple threads at the same
-      // time. If we change the threading model, then we MUST revisit this assumption.
-      client.publishDiagnostics(diagnostics);
+  /**
+   * Update the symbols of a document that has just been edited and report its syntax errors right
+   * away. Diagnostics from the most recent analyses are carried along, shifted to account for the
+   * edit, so that they don't disappear while the document is being reanalysed.
+   */
+  private void checkSyntax(URI uri) {
+    SoarFile file = documents.get(uri);
+    if (file == null) {
+      return;
     }
+    fileSymbols.put(uri, FileSymbols.of(file));
+
+    diagnosticsPublisher.markChanged(singletonList(uri));
   }
 
   @Override
   public CompletableFuture<List<DocumentLink>> documentLink(DocumentLinkParams params) {
     URI uri = uri(params.getTextDocument().getUri());
 
-    Function<FileAnalysis, List<DocumentLink>> collectLinks =
-        fileAnalysis -> {
-          SoarFile file = fileAnalysis.file;
-          return fileAnalysis
-              .productions
-              .keySet()
-              .stream()
-              .map(key -> key.getChild(TclAstNode.NORMAL_WORD))
-              .map(node -> new DocumentLink(file.rangeForNode(node)))
-              .peek(link -> link.setTarget(tclExpansionUri().toString()))
-              .collect(toList());
-        };
-
     if (config.hyperlinkExpansionFile) {
-      return mapAnalysis(analysis -> analysis.file(uri).map(collectLinks).orElse(null));
+      return mapAnalysis(uri, analysis -> documentLinks(analysis, uri));
     } else {
       return CompletableFuture.completedFuture(new ArrayList<>());
     }
   }
 
+  /**
+   * Get the document symbols of a document, with their ranges translated to its current version.
+   */
+  private List<DocumentSymbol> documentSymbols(ProjectAnalysis analysis, URI uri) {
+    return documentSymbolCache.get(
+        documents.get(uri),
+        analysis,
+        () ->
+            DocumentSymbolRequest.symbols(analysis, uri)
+                .peek(symbol -> analysis.file(uri).ifPresent(f -> toCurrentRanges(f, symbol)))
+                .collect(toList()));
+  }
+
+  /**
+   * Get links from each production in a document to the Tcl expansion file, or null if the
+   * document wasn't part of the analysis.
+   */
+  private List<DocumentLink> documentLinks(ProjectAnalysis analysis, URI uri) {
+    FileAnalysis fileAnalysis = analysis.file(uri).orElse(null);
+    if (fileAnalysis == null) {
+      return null;
+    }
+    SoarFile file = fileAnalysis.file;
+    return documentLinkCache.get(
+        documents.get(uri),
+        analysis,
+        () ->
+            fileAnalysis
+                .productions
+                .keySet()
+                .stream()
+                .map(key -> key.getChild(TclAstNode.NORMAL_WORD))
+                .map(node -> new DocumentLink(currentRange(fileAnalysis, file.rangeForNode(node))))
+                .peek(link -> link.setTarget(tclExpansionUri().toString()))
+                .collect(toList()));
+  }
+
+  /**
+   * Precompute document results for an analysis on the background executor. If that is too busy
+   * then we skip it; the results will be computed when they are requested instead.
+   */
+  private void precomputeInBackground(ProjectAnalysis analysis) {
+    try {
+      backgroundExecutor.execute(() -> precomputeDocumentResults(analysis));
+    } catch (RejectedExecutionException e) {
+      LOG.info("Not precomputing results for {}", analysis.entryPointUri);
+    }
+  }
+
+  /**
+   * Compute the results of the requests that editors make constantly, such as for the outline
+   * view, for the open documents that the given analysis covers. This runs right after the
+   * analysis is published, so that those requests find their results already cached.
+   */
+  private void precomputeDocumentResults(ProjectAnalysis analysis) {
+    for (URI uri : documents.openUris()) {
+      // Give up if this analysis has already been replaced, and skip documents whose requests
+      // will be answered by a different analysis.
+      if (snapshot.get().analysis(analysis.entryPointUri).orElse(null) != analysis) {
+        return;
+      }
+      if (!analysis.file(uri).isPresent()
+          || !entryPointFor(uri).map(analysis.entryPointUri::equals).orElse(false)) {
+        continue;
+      }
+      SoarFile file = documents.get(uri);
+      foldingRangeCache.get(file, null, () -> foldingRanges(file));
+      documentSymbols(analysis, uri);
+      if (config.hyperlinkExpansionFile) {
+        documentLinks(analysis, uri);
+      }
+    }
+  }
+
   @Override
   public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(
       DocumentSymbolParams params) {
     URI uri = uri(params.getTextDocument().getUri());
 
-    return mapAnalysis(
-        analysis ->
-            DocumentSymbolRequest.symbols(analysis, uri)
-                .map(Either::<SymbolInformation, DocumentSymbol>forRight)
-                .collect(toList()));
+    return mapAnalysisOrSymbols(
+            uri,
+            analysis -> documentSymbols(analysis, uri).stream(),
+            () ->
+                Optional.ofNullable(fileSymbols.get(uri))
+                    .map(DocumentSymbolRequest::symbols)
+                    .orElseGet(Stream::empty))
+        .thenApply(
+            symbols ->
+                symbols.map(Either::<SymbolInformation, DocumentSymbol>forRight).collect(toList()));
   }
 
   // Helpers
@@ -970,6 +2185,86 @@ public class SoarDocumentService implements TextDocumentService {
     }
   }
 
+  /**
+   * Translate a position that the client sent, which refers to the current version of a document,
+   * into the version of that document that was analysed. Analyses run in the background, so the
+   * most recent one may be slightly out of date.
+   */
+  private Position analysedPosition(FileAnalysis fileAnalysis, Position position) {
+    return documents.translate(documents.get(fileAnalysis.uri), fileAnalysis.file, position);
+  }
+
+  /** Translate a range from the current version of a document into the analysed version. */
+  private Range analysedRange(FileAnalysis fileAnalysis, Range range) {
+    return documents.translate(documents.get(fileAnalysis.uri), fileAnalysis.file, range);
+  }
+
+  /**
+   * Find the symbols across the workspace whose names contain the query. This answers from the
+   * analyses that have already completed rather than waiting for pending ones; a user searching
+   * for a symbol would rather see slightly stale results now than complete results later.
+   */
+  CompletableFuture<List<SymbolInformation>> workspaceSymbols(String query) {
+    return CompletableFuture.supplyAsync(
+        () ->
+            snapshot
+                .get()
+                .orderedAnalyses
+                .stream()
+                .flatMap(
+                    analysis ->
+                        analysis
+                            .symbols
+                            .search(query, MAX_WORKSPACE_SYMBOLS)
+                            .stream()
+                            .map(
+                                symbol ->
+                                    new SymbolInformation(
+                                        symbol.getName(),
+                                        symbol.getKind(),
+                                        currentLocation(analysis, symbol.getLocation()))))
+                .distinct()
+                .sorted(SymbolIndex.ranking(query))
+                .limit(MAX_WORKSPACE_SYMBOLS)
+                .collect(toList()),
+        workspaceQueryExecutor);
+  }
+
+  /** Translate a range from the analysed version of a document into the current version. */
+  private Range currentRange(FileAnalysis fileAnalysis, Range range) {
+    return documents.translate(fileAnalysis.file, documents.get(fileAnalysis.uri), range);
+  }
+
+  /**
+   * Translate a location that was recorded during an analysis into the current version of the
+   * document it points to.
+   */
+  private Location currentLocation(ProjectAnalysis analysis, Location location) {
+    return analysis
+        .file(uri(location.getUri()))
+        .map(f -> new Location(location.getUri(), currentRange(f, location.getRange())))
+        .orElse(location);
+  }
+
+  /** Get the range of an identifier occurrence in the current version of its document. */
+  private Range occurrenceRange(ProjectAnalysis analysis, IdentifierIndex.Occurrence occurrence) {
+    FileAnalysis fileAnalysis = analysis.files.get(occurrence.uri);
+    SoarFile file = fileAnalysis.file;
+    return currentRange(
+        fileAnalysis, new Range(file.position(occurrence.start), file.position(occurrence.end)));
+  }
+
+  /** Recursively translate the ranges of a document symbol into the current document version. */
+  private void toCurrentRanges(FileAnalysis fileAnalysis, DocumentSymbol symbol) {
+    symbol.setRange(currentRange(fileAnalysis, symbol.getRange()));
+    symbol.setSelectionRange(currentRange(fileAnalysis, symbol.getSelectionRange()));
+    if (symbol.getChildren() != null) {
+      for (DocumentSymbol child : symbol.getChildren()) {
+        toCurrentRanges(fileAnalysis, child);
+      }
+    }
+  }
+
   /** Create a new range. This is a shortcut to save a few characters. */
   static Range range(int startLine, int startCharacter, int endLine, int endCharacter) {
     return new Range(new Position(startLine, startCharacter), new Position(endLine, endCharacter));
@@ -992,8 +2287,32 @@ public class SoarDocumentService implements TextDocumentService {
   }
 
   /**
-   * Apply the given function in the context of the active ProjectAnalysis, if it exists and when it
-   * is available.
+   * Retrieve the analysis to use for answering queries about the given document. This is the
+   * active entry point's analysis if it sources the document, or if we don't yet know of any entry
+   * point that does. Otherwise, it is the analysis of the first entry point that sources it, so
+   * that files which only belong to other agents still get sensible results.
+   */
+  private Optional<CompletableFuture<ProjectAnalysis>> getAnalysisFor(URI documentUri) {
+    return entryPointFor(documentUri).map(this::getAnalysis);
+  }
+
+  /** Get the entry point whose analysis should be used for the given document. */
+  private Optional<URI> entryPointFor(URI documentUri) {
+    Set<URI> entryPoints = snapshot.get().entryPointsSourcing(documentUri);
+    if (entryPoints.isEmpty()) {
+      entryPoints = entryPointsStaticallySourcing(documentUri);
+    }
+    Optional<URI> entryPoint =
+        activeEntryPoint.filter(active -> entryPoints.isEmpty() || entryPoints.contains(active));
+    if (!entryPoint.isPresent()) {
+      entryPoint = entryPoints.stream().findFirst();
+    }
+    return entryPoint;
+  }
+
+  /**
+   * Apply the given function in the context of the ProjectAnalysis for the given document (see
+   * getAnalysisFor), if it exists and when it is available.
    *
    * <p>This accounts for two kinds of uncertainty. Optional captures the possibility that the
    * active entry point does not exist (typically because the user either hasn't created or has an
@@ -1002,9 +2321,42 @@ public class SoarDocumentService implements TextDocumentService {
    *
    * <p>For anyone interested, Optional and CompletableFuture are examples of functors.
    */
-  private <T> CompletableFuture<T> mapAnalysis(Function<ProjectAnalysis, T> function) {
-    return getAnalysis()
-        .map(future -> future.thenApply(function))
+  private <T> CompletableFuture<T> mapAnalysis(
+      URI documentUri, Function<ProjectAnalysis, T> function) {
+    return getAnalysisFor(documentUri)
+        .map(future -> future.thenApplyAsync(function, queryExecutor))
         .orElseGet(() -> CompletableFuture.completedFuture(null));
   }
+
+  /**
+   * Like mapAnalysis, but the function is given a CancelChecker so that it can stop early if the
+   * request is cancelled while it is running. This is for requests that look through the whole
+   * workspace, so it runs on a separate executor from other requests.
+   */
+  private <T> CompletableFuture<T> mapAnalysisCancellable(
+      URI documentUri, BiFunction<ProjectAnalysis, CancelChecker, T> function) {
+    return getAnalysisFor(documentUri)
+        .map(future -> Futures.thenApplyCancellable(future, function, workspaceQueryExecutor))
+        .orElseGet(() -> CompletableFuture.completedFuture(null));
+  }
+
+  /**
+   * Like mapAnalysis, but if there is no analysis for the document, or it does not become
+   * available within the configured wait time, then the fallback is used instead. The fallback
+   * should produce results using only the syntax-level symbols of each document.
+   */
+  private <T> CompletableFuture<T> mapAnalysisOrSymbols(
+      URI documentUri, Function<ProjectAnalysis, T> function, Supplier<T> fallback) {
+    return getAnalysisFor(documentUri)
+        .map(future -> Futures.completeOnTimeout(future, null, analysisWaitTime()))
+        .orElseGet(() -> CompletableFuture.completedFuture(null))
+        .handleAsync(
+            (analysis, error) -> analysis != null ? function.apply(analysis) : fallback.get(),
+            queryExecutor);
+  }
+
+  /** How long requests should wait for an analysis before falling back to syntax-level results. */
+  private Duration analysisWaitTime() {
+    return Duration.ofMillis(Optional.ofNullable(config.analysisWaitTime).orElse(0));
+  }
 }
@@ -2,12 +2,13 @@ package com.soartech.soarls;
 
 import static java.util.stream.Collectors.toList;
 
+import com.google.common.collect.ImmutableList;
 import com.soartech.soarls.tcl.TclAstNode;
 import com.soartech.soarls.tcl.TclParser;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
@@ -25,6 +26,13 @@ import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 public class SoarFile {
   public final URI uri;
 
+  /**
+   * The version of this file. This starts at zero when the file is first read or opened, and it is
+   * incremented every time a change is applied. It is not related to the version numbers that the
+   * client sends, which are not always reliable.
+   */
+  public final int version;
+
   public final String contents;
 
   public final List<Diagnostic> diagnostics;
@@ -37,9 +45,32 @@ public class SoarFile {
    */
   public final TclAstNode ast;
 
+  /**
+   * The edits that were applied to the previous version of this file to produce this one, in the
+   * order they were applied. This is empty for files that were read or opened from scratch.
+   */
+  final ImmutableList<EditHistory.Edit> edits;
+
+  /**
+   * The offset at which each line begins. This makes converting between offsets and positions
+   * cheap, which matters for requests that convert many offsets at a time.
+   */
+  private final int[] lineStarts;
+
   public SoarFile(URI uri, String contents) {
+    this(uri, contents, 0);
+  }
+
+  public SoarFile(URI uri, String contents, int version) {
+    this(uri, contents, version, ImmutableList.of());
+  }
+
+  private SoarFile(URI uri, String contents, int version, List<EditHistory.Edit> edits) {
     this.uri = uri;
+    this.version = version;
+    this.edits = ImmutableList.copyOf(edits);
     this.contents = fixLineEndings(contents);
+    this.lineStarts = lineStarts(this.contents);
 
     TclParser parser = new TclParser();
     parser.setInput(this.contents.toCharArray(), 0, this.contents.length());
@@ -61,30 +92,38 @@ public class SoarFile {
             .collect(toList());
   }
 
-  /** Apply the changes from a textDocument/didChange notification and returns a new file. */
+  /**
+   * Apply the changes from a textDocument/didChange notification and returns a new file. The edits
+   * that were made are recorded in the new file so that positions can be translated between the
+   * two versions.
+   */
   SoarFile withChanges(List<TextDocumentContentChangeEvent> changes) {
-    BiFunction<StringBuffer, TextDocumentContentChangeEvent, StringBuffer> applyChange =
-        (buffer, change) -> {
-          // The parameters which are set depends on whether we are
-          // using full or incremental updates.
-          if (change.getRange() == null) {
-            // We are using full document updates.
-            return new StringBuffer(change.getText());
-          } else {
-            // We are using incremental updates.
-            int start = offset(change.getRange().getStart());
-            int end = offset(change.getRange().getEnd());
-            return buffer.replace(start, end, change.getText());
-          }
-        };
-
-    String newContents =
-        changes
-            .stream()
-            .reduce(new StringBuffer(this.contents), applyChange, (u, v) -> v)
-            .toString();
+    String newContents = this.contents;
+    List<EditHistory.Edit> edits = new ArrayList<>();
+    for (TextDocumentContentChangeEvent change : changes) {
+      String text = fixLineEndings(change.getText());
+      // The parameters which are set depends on whether we are
+      // using full or incremental updates.
+      if (change.getRange() == null) {
+        // We are using full document updates.
+        edits.add(EditHistory.Edit.diff(newContents, text));
+        newContents = text;
+      } else {
+        // We are using incremental updates. Each change is relative
+        // to the result of applying the previous ones, so only the
+        // first one can use our line table.
+        boolean unchanged = newContents == this.contents;
+        Position startPosition = change.getRange().getStart();
+        Position endPosition = change.getRange().getEnd();
+        int start = unchanged ? offset(startPosition) : offset(newContents, startPosition);
+        int end =
+            Math.max(start, unchanged ? offset(endPosition) : offset(newContents, endPosition));
+        edits.add(new EditHistory.Edit(start, end - start, text.length()));
+        newContents = newContents.substring(0, start) + text + newContents.substring(end);
+      }
+    }
 
-    return new SoarFile(this.uri, newContents);
+    return new SoarFile(this.uri, newContents, this.version + 1, edits);
   }
 
   /** A special case of the withChanges function, where there is only a single change to apply. */
@@ -103,6 +142,30 @@ public class SoarFile {
     }
   }
 
+  /**
+   * Whether this file has the same commands as another version of it, so that they only differ in
+   * their comments and in the whitespace between commands. Evaluating either version does the same
+   * thing, so an analysis of one is just as good for the other once positions are translated.
+   */
+  public boolean hasSameCommandsAs(SoarFile other) {
+    return commandTexts().equals(other.commandTexts());
+  }
+
+  /** Get the top level commands in this file, leaving out comments. */
+  public List<TclAstNode> commands() {
+    return ast.getChildren()
+        .stream()
+        .filter(node -> node.getType() != TclAstNode.COMMENT)
+        .collect(toList());
+  }
+
+  private List<String> commandTexts() {
+    return commands()
+        .stream()
+        .map(node -> contents.substring(node.getStart(), node.getEnd()))
+        .collect(toList());
+  }
+
   public String getNodeInternalText(TclAstNode node) {
     return node.getInternalText(this.contents.toCharArray());
   }
@@ -145,11 +208,20 @@ public class SoarFile {
 
   /** Get the 0-based offset at the given position. */
   public int offset(Position position) {
+    int line = position.getLine();
+    if (line >= lineStarts.length) {
+      return contents.length();
+    }
+    return Math.min(lineStarts[line] + position.getCharacter(), contents.length());
+  }
+
+  /** Get the 0-based offset at the given position in a string. */
+  private static int offset(String contents, Position position) {
     int offset = 0;
     int lines = position.getLine();
     for (char ch : contents.toCharArray()) {
       if (lines == 0) {
-        return offset + position.getCharacter();
+        return Math.min(offset + position.getCharacter(), contents.length());
       }
       if (ch == '\n') {
         lines -= 1;
@@ -161,20 +233,34 @@ public class SoarFile {
 
   /** Get the line/column of the given 0-based offset. */
   public Position position(int offset) {
-    int line = 0;
-    int character = 0;
-    for (int i = 0; i != offset; ++i) {
+    offset = Math.max(0, Math.min(offset, contents.length()));
+    // Find the last line that starts at or before the offset.
+    int line = Arrays.binarySearch(lineStarts, offset);
+    if (line < 0) {
+      line = -line - 2;
+    }
+    return new Position(line, offset - lineStarts[line]);
+  }
+
+  /** Find the offset at which each line of the given contents begins. */
+  private static int[] lineStarts(String contents) {
+    int lines = 1;
+    for (int i = 0; i != contents.length(); ++i) {
       if (contents.charAt(i) == '\n') {
-        line += 1;
-        character = 0;
-      } else {
-        character += 1;
+        lines += 1;
       }
     }
-    return new Position(line, character);
+    int[] starts = new int[lines];
+    int line = 1;
+    for (int i = 0; i != contents.length(); ++i) {
+      if (contents.charAt(i) == '\n') {
+        starts[line++] = i + 1;
+      }
+    }
+    return starts;
   }
 
-  private String fixLineEndings(String contents) {
+  private static String fixLineEndings(String contents) {
     contents = contents.replace("\r\n", "\n");
     contents = contents.replace("\r", "\n");
     return contents;
@@ -182,9 +268,8 @@ public class SoarFile {
 
   // returns a Position of the last character on a given line
   private Position getEndOfLinePosition(int line) {
-    String[] lines = contents.split("\n");
-
-    return new Position(line, lines[line].length());
+    int end = line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : contents.length();
+    return new Position(line, end - lineStarts[line]);
   }
 
   List<Diagnostic> getDiagnostics() {
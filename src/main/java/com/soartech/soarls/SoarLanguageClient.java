@@ -0,0 +1,18 @@
+package com.soartech.soarls;
+
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+/**
+ * The requests that we send to the client, including those that were added in versions of the
+ * protocol that are newer than the version of lsp4j that we use (see DiagnosticReports).
+ */
+public interface SoarLanguageClient extends LanguageClient {
+  /**
+   * Ask a client that pulls diagnostics to pull them again, because they have changed since it
+   * last did.
+   */
+  @JsonRequest("workspace/diagnostic/refresh")
+  CompletableFuture<Void> refreshDiagnostics();
+}
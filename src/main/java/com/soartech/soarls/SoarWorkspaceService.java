@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.soartech.soarls.util.Metrics;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
@@ -30,6 +31,8 @@ import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.Registration;
 import org.eclipse.lsp4j.RegistrationParams;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.WorkspaceService;
 import org.slf4j.Logger;
@@ -60,9 +63,13 @@ class SoarWorkspaceService implements WorkspaceService {
 
   void initialized() {
     // Here we register for changes to the manifest file, so that we trigger a new analysis when
-    // configurations change.
-    FileSystemWatcher watcher = new FileSystemWatcher("**/soarAgents.json");
-    List<FileSystemWatcher> watchers = Arrays.asList(watcher);
+    // configurations change. We also watch source files, so that changes made outside of the
+    // editor cause the agents that source them to be reanalysed.
+    List<FileSystemWatcher> watchers =
+        Arrays.asList(
+            new FileSystemWatcher("**/soarAgents.json"),
+            new FileSystemWatcher("**/*.soar"),
+            new FileSystemWatcher("**/*.tcl"));
     DidChangeWatchedFilesRegistrationOptions options =
         new DidChangeWatchedFilesRegistrationOptions(watchers);
     List<Registration> registrations = new ArrayList<Registration>();
@@ -151,12 +158,20 @@ class SoarWorkspaceService implements WorkspaceService {
   @Override
   public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
     for (FileEvent change : params.getChanges()) {
-      if (URI.create(change.getUri()).equals(manifestUri())) {
+      URI uri = SoarDocumentService.uri(change.getUri());
+      if (uri.equals(manifestUri())) {
         processEntryPoints();
+      } else {
+        documentService.fileChangedOnDisk(uri);
       }
     }
   }
 
+  @Override
+  public CompletableFuture<List<? extends SymbolInformation>> symbol(WorkspaceSymbolParams params) {
+    return documentService.workspaceSymbols(params.getQuery()).thenApply(symbols -> symbols);
+  }
+
   @Override
   public CompletableFuture<Object> executeCommand(ExecuteCommandParams params) {
     if (params.getCommand().equals("log-source-tree")) {
@@ -175,6 +190,9 @@ class SoarWorkspaceService implements WorkspaceService {
               new Gson().fromJson((JsonPrimitive) params.getArguments().get(0), String.class));
       SoarFile file = documentService.documents.get(uri);
       file.ast.printTree(System.err, file.contents.toCharArray(), 0);
+    } else if (params.getCommand().equals("log-metrics")) {
+      Metrics.snapshot().forEach((name, value) -> LOG.info("{}: {}", name, value));
+      documentService.logAnalysisQueue();
     } else {
       LOG.warn("Unsupported command: {}", params.getCommand());
     }
@@ -0,0 +1,88 @@
+package com.soartech.soarls;
+
+import com.soartech.soarls.tcl.TclAstNode;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Estimates which files an entry point sources by reading its source and pushd commands, without
+ * evaluating any Tcl. This is much cheaper than an analysis, which makes it useful for deciding
+ * which entry points to analyse when they haven't been analysed yet.
+ *
+ * <p>Only top level commands with literal arguments are understood, so files that are sourced from
+ * inside procedures or using variables are missed. Once an entry point has been analysed, the
+ * files it actually sourced should be used instead.
+ */
+class StaticSources {
+  private StaticSources() {}
+
+  /** Get the files that are sourced, directly or indirectly, by the given entry point. */
+  static Set<URI> sourcedBy(Documents documents, URI entryPointUri) {
+    Set<URI> sourced = new LinkedHashSet<>();
+    Deque<URI> directories = new ArrayDeque<>();
+    directories.push(entryPointUri.resolve(""));
+    visit(documents, entryPointUri, directories, sourced);
+    return sourced;
+  }
+
+  private static void visit(
+      Documents documents, URI uri, Deque<URI> directories, Set<URI> sourced) {
+    if (!sourced.add(uri)) {
+      return;
+    }
+    SoarFile file = documents.peek(uri);
+    if (file == null) {
+      return;
+    }
+    for (TclAstNode command : file.ast.getChildren()) {
+      if (command.getType() != TclAstNode.COMMAND) {
+        continue;
+      }
+      List<TclAstNode> words = command.getChildren();
+      if (words.isEmpty() || !isLiteral(words.get(0))) {
+        continue;
+      }
+      String name = file.getNodeInternalText(words.get(0));
+      String argument = null;
+      if (words.size() > 1 && isLiteral(words.get(1))) {
+        argument = file.getNodeInternalText(words.get(1));
+      }
+      try {
+        switch (name) {
+          case "source":
+            if (argument != null) {
+              URI sourcedUri = directories.peek().resolve(argument);
+              directories.push(sourcedUri.resolve(""));
+              visit(documents, sourcedUri, directories, sourced);
+              directories.pop();
+            }
+            break;
+          case "pushd":
+            if (argument != null) {
+              directories.push(directories.peek().resolve(argument.replaceAll("([^/])$", "$1/")));
+            }
+            break;
+          case "popd":
+            if (directories.size() > 1) {
+              directories.pop();
+            }
+            break;
+          default:
+            break;
+        }
+      } catch (IllegalArgumentException e) {
+        // The argument isn't a valid path, so the analysis won't be able to source it either.
+      }
+    }
+  }
+
+  /** Whether a word's text is known without evaluating it, because no substitutions happen. */
+  private static boolean isLiteral(TclAstNode word) {
+    return word.getType() == TclAstNode.BRACED_WORD
+        || (word.getType() == TclAstNode.NORMAL_WORD && word.getChildren().isEmpty());
+  }
+}
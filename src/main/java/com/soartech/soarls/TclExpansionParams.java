@@ -0,0 +1,28 @@
+package com.soartech.soarls;
+
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+
+/** The parameters of the soar/tclExpansion request. */
+public class TclExpansionParams {
+  /** The document containing the commands to expand. */
+  private TextDocumentIdentifier textDocument;
+
+  /** The cursor position or selected range; every command that overlaps it is expanded. */
+  private Range range;
+
+  public TclExpansionParams() {}
+
+  public TclExpansionParams(TextDocumentIdentifier textDocument, Range range) {
+    this.textDocument = textDocument;
+    this.range = range;
+  }
+
+  public TextDocumentIdentifier getTextDocument() {
+    return textDocument;
+  }
+
+  public Range getRange() {
+    return range;
+  }
+}
@@ -0,0 +1,209 @@
+package com.soartech.soarls;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable view of the state of the workspace: the versions of the documents that the client
+ * has told us about, and the most recently completed analysis for each entry point.
+ *
+ * <p>The document service publishes snapshots through a single atomic reference. Readers simply
+ * dereference it and get a consistent view without taking any locks, while writers build a new
+ * snapshot with one of the with*() methods and swap it in. Since every field is immutable, a reader
+ * holding on to an old snapshot is never affected by later updates.
+ */
+public class WorkspaceSnapshot {
+  /** A snapshot of a workspace that has no open documents and has not been analysed. */
+  public static final WorkspaceSnapshot EMPTY =
+      create(0, ImmutableList.of(), DocumentVersions.EMPTY, ImmutableMap.of());
+
+  /** Incremented every time a new snapshot is published. */
+  public final long generation;
+
+  /** The URIs of the enabled entry points, with the active one first. */
+  public final ImmutableList<URI> entryPoints;
+
+  /** The version of each document at the time this snapshot was published. */
+  private final DocumentVersions documentVersions;
+
+  /** The most recently completed analysis for each entry point, keyed by entry point URI. */
+  public final ImmutableMap<URI, ProjectAnalysis> analyses;
+
+  /**
+   * The completed analyses in the same order as the entry points. This is precomputed so that
+   * queries which look at every analysis don't need to allocate anything to do so.
+   */
+  public final ImmutableList<ProjectAnalysis> orderedAnalyses;
+
+  /**
+   * A reverse index from each file that was sourced by a completed analysis to the entry points
+   * whose analyses sourced it, in the same order as the entry points. This is rebuilt only when the
+   * set of analyses changes, so that looking up which entry points a document belongs to is cheap
+   * on paths that run on every keystroke.
+   */
+  private final ImmutableSetMultimap<URI, URI> entryPointsByFile;
+
+  private WorkspaceSnapshot(
+      long generation,
+      ImmutableList<URI> entryPoints,
+      DocumentVersions documentVersions,
+      ImmutableMap<URI, ProjectAnalysis> analyses,
+      ImmutableList<ProjectAnalysis> orderedAnalyses,
+      ImmutableSetMultimap<URI, URI> entryPointsByFile) {
+    this.generation = generation;
+    this.entryPoints = entryPoints;
+    this.documentVersions = documentVersions;
+    this.analyses = analyses;
+    this.orderedAnalyses = orderedAnalyses;
+    this.entryPointsByFile = entryPointsByFile;
+  }
+
+  /** Construct a snapshot, computing the fields that are derived from its analyses. */
+  private static WorkspaceSnapshot create(
+      long generation,
+      ImmutableList<URI> entryPoints,
+      DocumentVersions documentVersions,
+      ImmutableMap<URI, ProjectAnalysis> analyses) {
+    ImmutableList.Builder<ProjectAnalysis> ordered = ImmutableList.builder();
+    ImmutableSetMultimap.Builder<URI, URI> entryPointsByFile = ImmutableSetMultimap.builder();
+    for (URI entryPoint : entryPoints) {
+      ProjectAnalysis analysis = analyses.get(entryPoint);
+      if (analysis != null) {
+        ordered.add(analysis);
+        for (URI sourced : analysis.sourcedUris) {
+          entryPointsByFile.put(sourced, entryPoint);
+        }
+      }
+    }
+    return new WorkspaceSnapshot(
+        generation,
+        entryPoints,
+        documentVersions,
+        analyses,
+        ordered.build(),
+        entryPointsByFile.build());
+  }
+
+  /** Get the most recently completed analysis for the given entry point, if there is one. */
+  public Optional<ProjectAnalysis> analysis(URI entryPointUri) {
+    return Optional.ofNullable(analyses.get(entryPointUri));
+  }
+
+  /** Whether every enabled entry point has a completed analysis. */
+  public boolean isFullyAnalysed() {
+    return orderedAnalyses.size() == entryPoints.size();
+  }
+
+  /**
+   * Get the entry points whose most recent analyses sourced the given file, in the same order as
+   * the entry points. This is empty if no completed analysis has sourced it.
+   */
+  public ImmutableSet<URI> entryPointsSourcing(URI uri) {
+    return entryPointsByFile.get(uri);
+  }
+
+  /** Get the version of the given document, or -1 if we have never seen it. */
+  public int documentVersion(URI uri) {
+    return documentVersions.get(uri);
+  }
+
+  /**
+   * Return a copy of this snapshot with a new set of entry points. Analyses of entry points that
+   * are no longer part of the project are dropped.
+   */
+  public WorkspaceSnapshot withEntryPoints(List<URI> entryPoints) {
+    Map<URI, ProjectAnalysis> retained = new LinkedHashMap<>();
+    for (URI entryPoint : entryPoints) {
+      ProjectAnalysis analysis = analyses.get(entryPoint);
+      if (analysis != null) {
+        retained.put(entryPoint, analysis);
+      }
+    }
+    return create(
+        generation + 1,
+        ImmutableList.copyOf(entryPoints),
+        documentVersions,
+        ImmutableMap.copyOf(retained));
+  }
+
+  /**
+   * Return a copy of this snapshot with an updated document version. This happens on every
+   * keystroke, so it shares everything but the changed entry with this snapshot.
+   */
+  public WorkspaceSnapshot withDocumentVersion(URI uri, int version) {
+    return new WorkspaceSnapshot(
+        generation + 1,
+        entryPoints,
+        documentVersions.with(uri, version),
+        analyses,
+        orderedAnalyses,
+        entryPointsByFile);
+  }
+
+  /** Return a copy of this snapshot where the given analysis replaces any previous one. */
+  public WorkspaceSnapshot withAnalysis(ProjectAnalysis analysis) {
+    Map<URI, ProjectAnalysis> updated = new LinkedHashMap<>(analyses);
+    updated.put(analysis.entryPointUri, analysis);
+    return create(generation + 1, entryPoints, documentVersions, ImmutableMap.copyOf(updated));
+  }
+
+  /** Return a copy of this snapshot without an analysis for the given entry point. */
+  public WorkspaceSnapshot withoutAnalysis(URI entryPointUri) {
+    if (!analyses.containsKey(entryPointUri)) {
+      return this;
+    }
+    Map<URI, ProjectAnalysis> updated = new LinkedHashMap<>(analyses);
+    updated.remove(entryPointUri);
+    return create(generation + 1, entryPoints, documentVersions, ImmutableMap.copyOf(updated));
+  }
+
+  /**
+   * An immutable map from documents to versions that can be updated without copying it. Updates go
+   * into a small map of recent changes, which is only merged into the full map once it has grown,
+   * so editing the same few documents costs the same no matter how many documents are loaded.
+   */
+  private static class DocumentVersions {
+    static final DocumentVersions EMPTY =
+        new DocumentVersions(ImmutableMap.of(), ImmutableMap.of());
+
+    /** Merge the recent changes once there are this many of them. */
+    private static final int MAX_RECENT = 16;
+
+    private final ImmutableMap<URI, Integer> all;
+
+    /** Changes that haven't been merged into the full map yet. These take precedence. */
+    private final ImmutableMap<URI, Integer> recent;
+
+    private DocumentVersions(ImmutableMap<URI, Integer> all, ImmutableMap<URI, Integer> recent) {
+      this.all = all;
+      this.recent = recent;
+    }
+
+    int get(URI uri) {
+      Integer version = recent.get(uri);
+      if (version == null) {
+        version = all.get(uri);
+      }
+      return version != null ? version : -1;
+    }
+
+    DocumentVersions with(URI uri, int version) {
+      Map<URI, Integer> updated = new LinkedHashMap<>(recent);
+      updated.put(uri, version);
+      if (updated.size() <= MAX_RECENT) {
+        return new DocumentVersions(all, ImmutableMap.copyOf(updated));
+      }
+      Map<URI, Integer> merged = new LinkedHashMap<>(all);
+      merged.putAll(updated);
+      return new DocumentVersions(ImmutableMap.copyOf(merged), ImmutableMap.of());
+    }
+  }
+}
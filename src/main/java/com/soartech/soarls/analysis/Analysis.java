@@ -1,25 +1,28 @@
 package com.soartech.soarls.analysis;
 
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
-import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.soartech.soarls.Documents;
 import com.soartech.soarls.ProjectConfiguration;
 import com.soartech.soarls.ProjectConfiguration.EntryPoint;
 import com.soartech.soarls.SoarFile;
 import com.soartech.soarls.tcl.TclAstNode;
-import com.soartech.soarls.tcl.TclParser;
+import com.soartech.soarls.util.Metrics;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -27,7 +30,11 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Stack;
-import java.util.function.Function;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -62,9 +69,26 @@ public class Analysis {
    */
   private static String MISSING_FILE = "File not found";
 
-  private static String DUPLICATE_PRODUCTION_REGEX = "Ignoring .+ because it is a duplicate of .+";
+  static final String DUPLICATE_PRODUCTION_REGEX = "Ignoring .+ because it is a duplicate of .+";
 
-  private static Pattern NO_RHS_FUNCTION_PATTERN = Pattern.compile("No RHS function named '(.+)'");
+  static final Pattern NO_RHS_FUNCTION_PATTERN = Pattern.compile("No RHS function named '(.+)'");
+
+  /** Sourcing files more deeply than this is almost certainly unbounded recursion. */
+  static final int MAX_SOURCE_DEPTH = 100;
+
+  /** How often running analyses are checked against their budgets. */
+  private static final long WATCHDOG_INTERVAL_MS = 100;
+
+  /**
+   * Stops analyses that go over their time or allocation budget, which usually means the code
+   * being analysed has an infinite loop. Without this, a single bad agent would hold up every
+   * analysis that is waiting behind it.
+   */
+  private static final ScheduledExecutorService watchdog =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("analysis-watchdog").setDaemon(true).build());
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
 
   /**
    * List of commands that are treated as no-ops. These were borrowed from soar-ide.
@@ -170,19 +194,63 @@ public class Analysis {
   private final Map<VariableDefinition, List<VariableRetrieval>> variableRetrievals =
       new HashMap<>();
 
+  /**
+   * The most recent definition of each production that loaded successfully in this agent, for
+   * detecting duplicates. Other entry points are separate agents, so they aren't considered.
+   */
+  private final Map<String, Production> productionsByName = new HashMap<>();
+
   private final Interp tclInterp;
 
+  /** Whether we should stop early, because this analysis has been preempted. */
+  private final BooleanSupplier preempted;
+
+  /** Set if any commands were skipped because the analysis was preempted. */
+  private boolean incomplete = false;
+
+  /** Where to record and look up the analyses of shared prefixes, or null if they aren't shared. */
+  private final SharedPrefixes sharedPrefixes;
+
+  /** The files that the entry point sources before doing anything else; see SharedPrefixes. */
+  private List<URI> prefix = Collections.emptyList();
+
+  /** The recorded analysis of the prefix, if there is one to reuse instead of analysing it. */
+  private SharedPrefixes.Prefix sharedPrefix = null;
+
+  /** How many of the prefix's source commands have been evaluated so far. */
+  private int prefixSourced = 0;
+
+  /** Every file that a source command has read so far, or null if it didn't exist. */
+  private final Map<URI, SoarFile> filesRead = new HashMap<>();
+
+  /** The files that are being sourced, outermost first, for detecting cycles. */
+  private final Stack<URI> sourceStack = new Stack<>();
+
+  /**
+   * Set by the watchdog to describe which budget this analysis went over. Once it is set, no more
+   * commands are evaluated, but unlike preemption the analysis is still completed with what it has.
+   */
+  private volatile String overBudget = null;
+
+  /** Whether the diagnostic explaining why the analysis stopped has been added. */
+  private boolean overBudgetReported = false;
+
   private Analysis(
       ProjectConfiguration projectConfig,
       Documents documents,
       EntryPoint entryPoint,
-      URI entryPointUri)
+      URI entryPointUri,
+      BooleanSupplier preempted,
+      SharedPrefixes sharedPrefixes)
       throws SoarException {
     this.projectConfig = projectConfig;
+    this.preempted = preempted;
+    this.sharedPrefixes = sharedPrefixes;
     this.entryPoint = entryPoint;
     this.documents = documents;
     this.entryPointUri = entryPointUri;
     this.sourcedUris.add(entryPointUri);
+    this.sourceStack.push(entryPointUri);
 
     // for performance reasons we do certain interactions directly on jsoar's internal tcl
     // interpreter
@@ -205,6 +273,23 @@ public class Analysis {
     agent.getInterpreter().eval("rename proc proc_internal");
     spCommand = agent.getInterpreter().getCommand("sp", null);
     currentVariables = getCurrentVariables();
+
+    SoarFile entryPointFile = documents.get(entryPointUri);
+    if (sharedPrefixes != null && entryPointFile != null) {
+      prefix = SharedPrefixes.key(entryPointFile);
+      if (!prefix.isEmpty()) {
+        sharedPrefix = sharedPrefixes.get(prefix, documents).orElse(null);
+      }
+    }
+  }
+
+  /**
+   * If the diagnostic is a warning that JSoar doesn't define a right hand side function, get the
+   * name of the function. Projects can declare functions like this in soarAgents.json.
+   */
+  public static Optional<String> unknownRhsFunction(Diagnostic diagnostic) {
+    Matcher matcher = NO_RHS_FUNCTION_PATTERN.matcher(diagnostic.getMessage());
+    return matcher.matches() ? Optional.of(matcher.group(1)) : Optional.empty();
   }
 
   /** Perform a full analysis of a project starting from the given entry point. */
@@ -213,11 +298,53 @@ public class Analysis {
       Documents documents,
       EntryPoint entryPoint,
       URI entryPointUri) {
+    return analyse(projectConfig, documents, entryPoint, entryPointUri, () -> false);
+  }
+
+  /**
+   * Perform a full analysis of a project starting from the given entry point, unless it is
+   * preempted. The flag is checked before each command is evaluated; once it is set, no more
+   * commands are evaluated and the result is null.
+   */
+  public static ProjectAnalysis analyse(
+      ProjectConfiguration projectConfig,
+      Documents documents,
+      EntryPoint entryPoint,
+      URI entryPointUri,
+      BooleanSupplier preempted) {
+    return analyse(projectConfig, documents, entryPoint, entryPointUri, preempted, null);
+  }
+
+  /**
+   * Perform a full analysis of a project starting from the given entry point, unless it is
+   * preempted, sharing the analysis of the files it sources first with other entry points that
+   * source the same ones.
+   *
+   * @param sharedPrefixes where shared analyses are kept, or null to not share them
+   */
+  public static ProjectAnalysis analyse(
+      ProjectConfiguration projectConfig,
+      Documents documents,
+      EntryPoint entryPoint,
+      URI entryPointUri,
+      BooleanSupplier preempted,
+      SharedPrefixes sharedPrefixes) {
     Analysis analysis = null;
     try {
-      analysis = new Analysis(projectConfig, documents, entryPoint, entryPointUri);
-      SoarFile file = documents.get(entryPointUri);
-      analysis.analyseFile(file);
+      analysis =
+          new Analysis(
+              projectConfig, documents, entryPoint, entryPointUri, preempted, sharedPrefixes);
+      ScheduledFuture<?> budget = analysis.watch(Thread.currentThread());
+      try {
+        SoarFile file = documents.get(entryPointUri);
+        analysis.analyseFile(file);
+      } finally {
+        budget.cancel(false);
+      }
+      if (analysis.incomplete) {
+        LOG.info("Analysis of {} was preempted", entryPointUri);
+        return null;
+      }
       LOG.info("Completed analysis {}", analysis);
       return analysis.toProjectAnalysis();
     } catch (Exception e) {
@@ -242,10 +369,87 @@ public class Analysis {
   }
 
   /**
-   * Perform an analysis of a single file. This will be recursively called if this file sources
-   * other files.
+   * Start checking this analysis against the time and allocation budgets in the project
+   * configuration. If it goes over either of them, the Tcl interpreter is interrupted, and the rest
+   * of the analysis is skipped.
    *
-   * <p>NOTE: There is currently no protection against infinite loops.
+   * @param thread the thread that is running the analysis, whose allocations are counted
+   */
+  private ScheduledFuture<?> watch(Thread thread) {
+    long start = System.nanoTime();
+    long startAllocated = allocatedBytes(thread);
+    long timeLimit = TimeUnit.SECONDS.toNanos(projectConfig.analysisTimeLimit);
+    long allocationLimit = projectConfig.analysisAllocationLimit * 1024L * 1024L;
+    return watchdog.scheduleWithFixedDelay(
+        () -> {
+          if (overBudget != null) {
+            return;
+          }
+          long allocated = allocatedBytes(thread) - startAllocated;
+          if (timeLimit > 0 && System.nanoTime() - start > timeLimit) {
+            overBudget = "took longer than " + projectConfig.analysisTimeLimit + " seconds";
+          } else if (allocationLimit > 0 && startAllocated >= 0 && allocated > allocationLimit) {
+            overBudget = "allocated more than " + projectConfig.analysisAllocationLimit + " MB";
+          } else {
+            return;
+          }
+          LOG.warn("Interrupting analysis of {} because it {}", entryPointUri, overBudget);
+          Metrics.increment("analysis.over-budget");
+          tclInterp.setInterrupted();
+        },
+        WATCHDOG_INTERVAL_MS,
+        WATCHDOG_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** The number of bytes the thread has allocated, or -1 if the JVM can't tell us. */
+  private static long allocatedBytes(Thread thread) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread.getId());
+    }
+    return -1;
+  }
+
+  /**
+   * Explain why the analysis stopped, at the command that was running or about to run when it went
+   * over budget. This is only done once, at the innermost command.
+   */
+  private void reportOverBudget(SoarFile file, TclAstNode command, List<Diagnostic> diagnostics) {
+    if (overBudgetReported) {
+      return;
+    }
+    overBudgetReported = true;
+    diagnostics.add(
+        new Diagnostic(
+            file.rangeForNode(command),
+            "Analysis stopped here because it "
+                + overBudget
+                + "; check for infinite loops. The rest of the agent was not analysed.",
+            DiagnosticSeverity.Error,
+            "AnalysisBudget"));
+  }
+
+  /**
+   * Record that a file is about to be sourced, failing if that would create a cycle or go too deep.
+   * Callers must pop the source stack afterwards.
+   */
+  private void enterSource(URI uri) throws SoarException {
+    if (sourceStack.contains(uri)) {
+      List<URI> cycle =
+          new ArrayList<>(sourceStack.subList(sourceStack.indexOf(uri), sourceStack.size()));
+      cycle.add(uri);
+      throw new SoarException("Files are sourced in a cycle: " + Joiner.on(" -> ").join(cycle));
+    }
+    if (sourceStack.size() >= MAX_SOURCE_DEPTH) {
+      throw new SoarException("Files are sourced more than " + MAX_SOURCE_DEPTH + " levels deep");
+    }
+    sourceStack.push(uri);
+  }
+
+  /**
+   * Perform an analysis of a single file. This will be recursively called if this file sources
+   * other files. Sourcing cycles are reported as errors, and the watchdog stops loops within the
+   * Tcl code; see watch().
    */
   private void analyseFile(SoarFile file) throws SoarException {
     // Initialize the collections needed to make a FileAnalysis.
@@ -286,24 +490,38 @@ public class Analysis {
       addCommand(
           "source",
           (context, args) -> {
+            boolean inPrefix = false;
             try {
               URI uri = this.directoryStack.peek().resolve(args[1]);
               URI newDirectory = uri.resolve("");
               this.directoryStack.push(newDirectory);
+              inPrefix = isPrefixCommand(file, uri);
 
               filesSourced.add(uri);
               SoarFile sourcedFile = documents.get(uri);
+              filesRead.put(uri, sourcedFile);
               LOG.info("Retrieved file for {} :: {}", uri, sourcedFile);
               if (sourcedFile == null) {
                 throw new SoarException(MISSING_FILE);
-              } else {
-                analyseFile(sourcedFile);
+              }
+              enterSource(uri);
+              try {
+                if (inPrefix && sharedPrefix != null) {
+                  replayFile(sourcedFile);
+                } else {
+                  analyseFile(sourcedFile);
+                }
+              } finally {
+                sourceStack.pop();
               }
             } catch (Exception e) {
               LOG.error("exception while tracing source", e);
               throw e;
             } finally {
               this.directoryStack.pop();
+              if (inPrefix) {
+                prefixCommandEvaluated();
+              }
             }
             return "";
           });
@@ -358,8 +576,32 @@ public class Analysis {
             LOG.trace("Added production {} to {}", production.name, file.uri);
 
             // Call the original implementation, which will throw an exception if the production is
-            // invalid (caught below).
-            return spCommand.execute(context, args);
+            // invalid (caught below). A production that fails to load doesn't replace anything.
+            String result = spCommand.execute(context, args);
+
+            // Soar silently replaces a production when another one with the same name is loaded,
+            // which is rarely what the author intended. Sourcing the same file twice is a separate
+            // problem, so we only warn when the definitions are in different places. This only
+            // looks within one agent: each entry point is a separate agent, and it is normal for
+            // them to load the same productions.
+            Production previous = productionsByName.put(production.name, production);
+            if (previous != null && !previous.location.equals(production.location)) {
+              Position previousStart = previous.location.getRange().getStart();
+              String previousUri = previous.location.getUri();
+              String previousFile = previousUri.substring(previousUri.lastIndexOf('/') + 1);
+              diagnosticList.add(
+                  new Diagnostic(
+                      location.getRange(),
+                      "Production "
+                          + production.name
+                          + " replaces the one defined at "
+                          + previousFile
+                          + ":"
+                          + (previousStart.getLine() + 1),
+                      DiagnosticSeverity.Warning,
+                      "DuplicateProduction"));
+            }
+            return result;
           });
 
       addCommand(
@@ -368,34 +610,8 @@ public class Analysis {
             String name = args[1];
             Location location = location(file.uri, file.rangeForNode(ctx.currentNode));
 
-            // Parsing arguments got a little bit tricky. We parse the argument list into an AST,
-            // which makes it look like a command, although it isn't. We look for the expected shape
-            // of required and optional arguments. There are likely some edge cases that aren't
-            // covered, but this should capture most common patterns.
-            //
-            // Also note that we can't simply query the interpreter using 'info args', because that
-            // does not return any information about optional arguments.
-
-            char[] argsBuffer = args[2].replaceAll("\n", " ").toCharArray();
-            TclParser parser = new TclParser();
-            parser.setInput(argsBuffer, 0, argsBuffer.length);
-            TclAstNode procArgs = parser.parse();
-            Function<TclAstNode, ProcedureDefinition.Argument> makeArgument =
-                node -> {
-                  List<TclAstNode> children = node.getChildren();
-                  boolean hasDefault = children.size() == 2;
-                  String argName =
-                      hasDefault
-                          ? children.get(0).getInternalText(argsBuffer)
-                          : node.getInternalText(argsBuffer);
-                  String defaultValue =
-                      hasDefault ? children.get(1).getInternalText(argsBuffer) : null;
-                  return new ProcedureDefinition.Argument(argName, defaultValue);
-                };
             List<ProcedureDefinition.Argument> arguments =
-                Optional.ofNullable(procArgs.getChild(TclAstNode.COMMAND))
-                    .map(cmd -> cmd.getChildren().stream().map(makeArgument).collect(toList()))
-                    .orElseGet(ArrayList::new);
+                ProcedureDefinition.Argument.parse(args[2]);
 
             TclAstNode commentAstNode = null;
             String commentText = null;
@@ -432,7 +648,17 @@ public class Analysis {
             }
             ctx.currentNode = node;
 
+            if (node.getType() == TclAstNode.COMMAND && overBudget != null) {
+              reportOverBudget(file, node, diagnosticList);
+              return;
+            }
+            if (node.getType() == TclAstNode.COMMAND && (incomplete || preempted.getAsBoolean())) {
+              incomplete = true;
+              return;
+            }
+
             if (node.getType() == TclAstNode.COMMAND) {
+              int diagnosticCount = diagnosticList.size();
               try {
                 agent.getInterpreter().eval(nodeText);
               } catch (SoarInterpreterException ex) {
@@ -469,6 +695,18 @@ public class Analysis {
                         DiagnosticSeverity.Error,
                         "SoarException");
                 diagnosticList.add(diagnostic);
+              } catch (RuntimeException ex) {
+                // This is how the interpreter stops once it has been interrupted.
+                if (overBudget == null) {
+                  throw ex;
+                }
+              }
+
+              if (overBudget != null) {
+                // Whatever error the interruption caused is replaced with an explanation.
+                diagnosticList.subList(diagnosticCount, diagnosticList.size()).clear();
+                reportOverBudget(file, node, diagnosticList);
+                return;
               }
             }
 
@@ -529,14 +767,10 @@ public class Analysis {
                     String message = e.getMessage().trim();
                     DiagnosticSeverity severity = DiagnosticSeverity.Error;
                     LOG.info("Diagnostic message: {}", message);
-                    Matcher rhsMatcher = NO_RHS_FUNCTION_PATTERN.matcher(message);
-                    if (rhsMatcher.matches()) {
+                    // Functions that the project declares are filtered out when the diagnostics are
+                    // reported, so that changing the list doesn't require a new analysis.
+                    if (NO_RHS_FUNCTION_PATTERN.matcher(message).matches()) {
                       severity = DiagnosticSeverity.Warning;
-                      String rhsFunction = rhsMatcher.group(1);
-                      boolean whitelisted = projectConfig.rhsFunctions.contains(rhsFunction);
-                      if (whitelisted) {
-                        continue;
-                      }
                     }
                     if (message.matches(DUPLICATE_PRODUCTION_REGEX)) {
                       severity = DiagnosticSeverity.Warning;
@@ -604,6 +838,129 @@ public class Analysis {
     }
   }
 
+  /** Whether a source command is the next one in this entry point's shared prefix. */
+  private boolean isPrefixCommand(SoarFile file, URI uri) {
+    return file.uri.equals(entryPointUri)
+        && prefixSourced < prefix.size()
+        && prefix.get(prefixSourced).equals(uri);
+  }
+
+  /**
+   * Called after each of the prefix's source commands. Once the whole prefix has been evaluated,
+   * this either records its analysis for other entry points, or takes on the one that was recorded
+   * by another entry point.
+   */
+  private void prefixCommandEvaluated() {
+    prefixSourced++;
+    if (overBudget != null) {
+      return;
+    }
+    if (sharedPrefix != null) {
+      // Variables set by the replayed files were recorded along with the prefix, and shouldn't be
+      // attributed to the source command.
+      currentVariables = getCurrentVariables();
+      if (prefixSourced == prefix.size()) {
+        LOG.info("Reusing the analysis of {} for {}", prefix, entryPointUri);
+        files.putAll(sharedPrefix.files);
+        sourcedUris.addAll(sharedPrefix.sourcedUris);
+        procedureDefinitions.putAll(sharedPrefix.procedureDefinitions);
+        sharedPrefix.procedureCalls.forEach(
+            (definition, calls) -> procedureCalls.put(definition, new ArrayList<>(calls)));
+        variableDefinitions.putAll(sharedPrefix.variableDefinitions);
+        sharedPrefix.variableRetrievals.forEach(
+            (definition, retrievals) ->
+                variableRetrievals.put(definition, new ArrayList<>(retrievals)));
+        productionsByName.putAll(sharedPrefix.productionsByName);
+      }
+    } else if (prefixSourced == prefix.size() && sharedPrefixes != null && !incomplete) {
+      LOG.info("Recording the analysis of {} from {}", prefix, entryPointUri);
+      sharedPrefixes.put(
+          prefix,
+          new SharedPrefixes.Prefix(
+              filesRead,
+              files,
+              sourcedUris,
+              procedureDefinitions,
+              procedureCalls,
+              variableDefinitions,
+              variableRetrievals,
+              productionsByName));
+    }
+  }
+
+  /**
+   * Evaluate a file one command at a time, the same way as analyseFile, so that the agent ends up
+   * in the same state, but without recording anything about it. This is used for files whose
+   * analysis was recorded by another entry point.
+   */
+  private void replayFile(SoarFile file) throws SoarException {
+    Map<String, SoarCommand> originalCommands = new HashMap<>();
+    for (String cmd : Arrays.asList("source", "sp", "proc")) {
+      originalCommands.put(cmd, this.agent.getInterpreter().getCommand(cmd, null));
+    }
+
+    try {
+      addCommand(
+          "source",
+          (context, args) -> {
+            URI uri = this.directoryStack.peek().resolve(args[1]);
+            this.directoryStack.push(uri.resolve(""));
+            try {
+              SoarFile sourcedFile = documents.get(uri);
+              if (sourcedFile == null) {
+                throw new SoarException(MISSING_FILE);
+              }
+              enterSource(uri);
+              try {
+                replayFile(sourcedFile);
+              } finally {
+                sourceStack.pop();
+              }
+            } finally {
+              this.directoryStack.pop();
+            }
+            return "";
+          });
+
+      addCommand("sp", (context, args) -> spCommand.execute(context, args));
+
+      addCommand(
+          "proc",
+          (context, args) -> {
+            args[0] = "proc_internal";
+            return agent.getInterpreter().eval("{" + Joiner.on("} {").join(args) + "}");
+          });
+
+      for (TclAstNode node : file.ast.getChildren()) {
+        if (node.getType() != TclAstNode.COMMAND) {
+          continue;
+        }
+        if (overBudget != null) {
+          return;
+        }
+        if (incomplete || preempted.getAsBoolean()) {
+          incomplete = true;
+          return;
+        }
+        try {
+          agent.getInterpreter().eval(file.getNodeInternalText(node));
+        } catch (SoarException e) {
+          LOG.trace("Error while replaying command in {}", file.uri, e);
+        } catch (RuntimeException e) {
+          if (overBudget == null) {
+            throw e;
+          }
+          return;
+        }
+        agent.getInterpreter().getExceptionsManager().clearExceptions();
+      }
+    } finally {
+      for (Map.Entry<String, SoarCommand> cmd : originalCommands.entrySet()) {
+        agent.getInterpreter().addCommand(cmd.getKey(), cmd.getValue());
+      }
+    }
+  }
+
   private String printAst(SoarFile file) {
     final ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try (PrintStream ps = new PrintStream(baos, true)) {
@@ -647,6 +1004,11 @@ public class Analysis {
     } catch (SoarException e) {
       LOG.trace("Evaluating command: {}", command, e);
       return "";
+    } catch (RuntimeException e) {
+      if (overBudget == null) {
+        throw e;
+      }
+      return "";
     }
   }
 
@@ -655,6 +1017,21 @@ public class Analysis {
    * values and the variable values.
    */
   ImmutableMap<String, String> getCurrentVariables() {
+    ImmutableMap<String, String> variables;
+    try {
+      variables = readVariables();
+    } catch (RuntimeException e) {
+      if (overBudget == null) {
+        throw e;
+      }
+      variables = null;
+    }
+    // Once the interpreter has been interrupted its results can't be trusted, so we keep the ones
+    // we already have.
+    return overBudget != null ? currentVariables : variables;
+  }
+
+  private ImmutableMap<String, String> readVariables() {
     String[] variableNames = evalCommand("info globals").split("\\s+");
 
     return Arrays.stream(variableNames)
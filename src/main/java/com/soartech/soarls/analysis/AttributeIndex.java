@@ -0,0 +1,220 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from Soar attributes to the productions that test or create them.
+ *
+ * <p>Large agents have tens of thousands of productions, and every analysis builds one of these, so
+ * the index is kept compact: attribute names are interned (and so are shared between the analyses
+ * of different entry points), and each attribute maps to a sorted array of production numbers
+ * rather than a list of objects.
+ *
+ * <p>Attributes are looked up by path. The path of ^io.output-link.move is "io.output-link.move",
+ * and the same production can also be found under "io", "io.output-link", and "move". Paths that
+ * are spread over several conditions are recorded from the state when possible; see {@link
+ * ProductionBody}.
+ */
+public class AttributeIndex {
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+  private final ImmutableList<Production> productions;
+
+  private final ImmutableMap<String, int[]> tests;
+
+  private final ImmutableMap<String, int[]> creates;
+
+  /** Keyed by the path and the constant value, separated by a space. */
+  private final ImmutableMap<String, int[]> values;
+
+  private AttributeIndex(
+      List<Production> productions,
+      ImmutableMap<String, int[]> tests,
+      ImmutableMap<String, int[]> creates,
+      ImmutableMap<String, int[]> values) {
+    this.productions = ImmutableList.copyOf(productions);
+    this.tests = tests;
+    this.creates = creates;
+    this.values = values;
+  }
+
+  /** Build an index over the given productions. */
+  static AttributeIndex of(Collection<Production> productions) {
+    List<Production> numbered = new ArrayList<>(productions);
+    Map<String, List<Integer>> tests = new HashMap<>();
+    Map<String, List<Integer>> creates = new HashMap<>();
+    Map<String, List<Integer>> values = new HashMap<>();
+    for (int i = 0; i != numbered.size(); ++i) {
+      ProductionBody body = ProductionBody.parse(numbered.get(i).body);
+      add(tests, values, body.conditions, i);
+      add(creates, values, body.actions, i);
+    }
+    return new AttributeIndex(numbered, toArrays(tests), toArrays(creates), toArrays(values));
+  }
+
+  /**
+   * Return a copy of this index where one production has been replaced by another, such as after
+   * its body was edited. Only the two bodies are parsed; the postings of every other production
+   * are kept as they are.
+   */
+  AttributeIndex withReplaced(Production previous, Production replacement) {
+    int production = -1;
+    for (int i = 0; i != productions.size(); ++i) {
+      if (productions.get(i) == previous) {
+        production = i;
+        break;
+      }
+    }
+    List<Production> updated = new ArrayList<>(productions);
+    if (production < 0) {
+      updated.add(replacement);
+      return of(updated);
+    }
+    updated.set(production, replacement);
+
+    Map<String, List<Integer>> oldTests = new HashMap<>();
+    Map<String, List<Integer>> oldCreates = new HashMap<>();
+    Map<String, List<Integer>> oldValues = new HashMap<>();
+    ProductionBody oldBody = ProductionBody.parse(previous.body);
+    add(oldTests, oldValues, oldBody.conditions, production);
+    add(oldCreates, oldValues, oldBody.actions, production);
+
+    Map<String, List<Integer>> newTests = new HashMap<>();
+    Map<String, List<Integer>> newCreates = new HashMap<>();
+    Map<String, List<Integer>> newValues = new HashMap<>();
+    ProductionBody newBody = ProductionBody.parse(replacement.body);
+    add(newTests, newValues, newBody.conditions, production);
+    add(newCreates, newValues, newBody.actions, production);
+
+    return new AttributeIndex(
+        updated,
+        replace(tests, oldTests.keySet(), newTests.keySet(), production),
+        replace(creates, oldCreates.keySet(), newCreates.keySet(), production),
+        replace(values, oldValues.keySet(), newValues.keySet(), production));
+  }
+
+  /** Move one production from the postings of some keys to those of others. */
+  private static ImmutableMap<String, int[]> replace(
+      ImmutableMap<String, int[]> postings,
+      Set<String> removed,
+      Set<String> added,
+      int production) {
+    Map<String, int[]> updated = new HashMap<>(postings);
+    for (String key : removed) {
+      int[] posting = updated.get(key);
+      int i = Arrays.binarySearch(posting, production);
+      if (posting.length == 1) {
+        updated.remove(key);
+      } else {
+        int[] shorter = new int[posting.length - 1];
+        System.arraycopy(posting, 0, shorter, 0, i);
+        System.arraycopy(posting, i + 1, shorter, i, posting.length - i - 1);
+        updated.put(key, shorter);
+      }
+    }
+    for (String key : added) {
+      int[] posting = updated.getOrDefault(key, new int[0]);
+      int i = Arrays.binarySearch(posting, production);
+      if (i < 0) {
+        int insertion = -i - 1;
+        int[] longer = new int[posting.length + 1];
+        System.arraycopy(posting, 0, longer, 0, insertion);
+        longer[insertion] = production;
+        System.arraycopy(posting, insertion, longer, insertion + 1, posting.length - insertion);
+        updated.put(NAMES.intern(key), longer);
+      }
+    }
+    return ImmutableMap.copyOf(updated);
+  }
+
+  private static void add(
+      Map<String, List<Integer>> postings,
+      Map<String, List<Integer>> values,
+      List<ProductionBody.AttributeUse> uses,
+      int production) {
+    for (ProductionBody.AttributeUse use : uses) {
+      for (String key : keys(use.path)) {
+        addPosting(postings, key, production);
+      }
+      if (use.value != null) {
+        addPosting(values, use.path + " " + use.value, production);
+      }
+    }
+  }
+
+  /** Productions are added in order, so a posting only needs to be checked against the last. */
+  private static void addPosting(Map<String, List<Integer>> postings, String key, int production) {
+    List<Integer> posting = postings.computeIfAbsent(NAMES.intern(key), k -> new ArrayList<>());
+    if (posting.isEmpty() || posting.get(posting.size() - 1) != production) {
+      posting.add(production);
+    }
+  }
+
+  /** Every prefix of the path, and each of its individual attributes. */
+  private static Set<String> keys(String path) {
+    Set<String> keys = new LinkedHashSet<>();
+    String[] attributes = path.split("\\.");
+    StringBuilder prefix = new StringBuilder();
+    for (String attribute : attributes) {
+      if (prefix.length() != 0) {
+        prefix.append('.');
+      }
+      prefix.append(attribute);
+      keys.add(prefix.toString());
+      keys.add(attribute);
+    }
+    return keys;
+  }
+
+  private static ImmutableMap<String, int[]> toArrays(Map<String, List<Integer>> postings) {
+    ImmutableMap.Builder<String, int[]> builder = ImmutableMap.builder();
+    for (Map.Entry<String, List<Integer>> e : postings.entrySet()) {
+      builder.put(e.getKey(), Ints.toArray(e.getValue()));
+    }
+    return builder.build();
+  }
+
+  /** Whether any production tests or creates the given attribute path. */
+  public boolean contains(String path) {
+    return tests.containsKey(path) || creates.containsKey(path);
+  }
+
+  /** Get the productions whose conditions test the given attribute path. */
+  public ImmutableList<Production> testing(String path) {
+    return lookup(tests, path);
+  }
+
+  /** Get the productions whose actions create the given attribute path. */
+  public ImmutableList<Production> creating(String path) {
+    return lookup(creates, path);
+  }
+
+  /** Get the productions that test or create the attribute path with the given constant value. */
+  public ImmutableList<Production> withValue(String path, String value) {
+    return lookup(values, path + " " + value);
+  }
+
+  private ImmutableList<Production> lookup(Map<String, int[]> postings, String key) {
+    int[] posting = postings.get(key);
+    if (posting == null) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<Production> builder = ImmutableList.builder();
+    for (int production : posting) {
+      builder.add(productions.get(production));
+    }
+    return builder.build();
+  }
+}
@@ -7,6 +7,8 @@ import com.google.common.collect.ImmutableMap;
 import com.soartech.soarls.SoarFile;
 import com.soartech.soarls.tcl.TclAstNode;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -57,6 +59,13 @@ public class FileAnalysis {
   /** Errors and warnings that were detected in this file. */
   public final ImmutableList<Diagnostic> diagnostics;
 
+  /**
+   * Whether a production in this analysis was re-evaluated on its own, after its body was edited.
+   * If so, the body of that production is newer than the file, which is still the version that was
+   * last analysed in full. See IncrementalAnalysis.
+   */
+  public final boolean patched;
+
   // Helpers
 
   /** Get the procedure call at the given node, by searching up the AST until a match is found. */
@@ -111,5 +120,42 @@ public class FileAnalysis {
             .stream()
             .collect(toImmutableMap(e -> e.getKey(), e -> ImmutableList.copyOf(e.getValue())));
     this.diagnostics = ImmutableList.copyOf(diagnostics);
+    this.patched = false;
+  }
+
+  private FileAnalysis(
+      FileAnalysis original,
+      ImmutableMap<TclAstNode, ImmutableList<Production>> productions,
+      ImmutableList<Diagnostic> diagnostics) {
+    this.uri = original.uri;
+    this.file = original.file;
+    this.procedureCalls = original.procedureCalls;
+    this.variableRetrievals = original.variableRetrievals;
+    this.procedureDefinitions = original.procedureDefinitions;
+    this.filesSourced = original.filesSourced;
+    this.productions = productions;
+    this.diagnostics = diagnostics;
+    this.patched = true;
+  }
+
+  /**
+   * Return a copy of this analysis where the productions defined by one command, and the
+   * diagnostics that were found while evaluating it, have been replaced.
+   *
+   * @param removedDiagnostics the previous diagnostics of the command, which are dropped
+   */
+  FileAnalysis withCommandResults(
+      TclAstNode command,
+      List<Production> productions,
+      List<Diagnostic> removedDiagnostics,
+      List<Diagnostic> addedDiagnostics) {
+    Map<TclAstNode, ImmutableList<Production>> updatedProductions =
+        new LinkedHashMap<>(this.productions);
+    updatedProductions.put(command, ImmutableList.copyOf(productions));
+    List<Diagnostic> updatedDiagnostics = new ArrayList<>(this.diagnostics);
+    updatedDiagnostics.removeAll(removedDiagnostics);
+    updatedDiagnostics.addAll(addedDiagnostics);
+    return new FileAnalysis(
+        this, ImmutableMap.copyOf(updatedProductions), ImmutableList.copyOf(updatedDiagnostics));
   }
 }
@@ -0,0 +1,114 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.soartech.soarls.SoarFile;
+import com.soartech.soarls.tcl.TclAstNode;
+import java.net.URI;
+import java.util.List;
+import org.eclipse.lsp4j.Location;
+
+/**
+ * The procedures, variables, and productions that are defined literally in a single file, found by
+ * looking at its syntax tree without evaluating any Tcl.
+ *
+ * <p>This is much less accurate than a full analysis: it only sees top level proc, set, and sp
+ * commands whose names are written out in the source, and it knows nothing about which files are
+ * sourced by which entry points. However, it can be computed in a fraction of a millisecond, so it
+ * is always available for the current version of a document. It is used to answer queries when no
+ * interpreter-backed analysis is available yet.
+ */
+public class FileSymbols {
+  /** The file that these symbols were found in. */
+  public final URI uri;
+
+  /** The version of the file that these symbols were found in. */
+  public final int version;
+
+  /** Procedures defined by top level proc commands, in the order they appear. */
+  public final ImmutableList<ProcedureDefinition> procedureDefinitions;
+
+  /**
+   * Variables defined by top level set commands, in the order they appear. The value is the literal
+   * text of the last argument, which may contain substitutions that have not been performed.
+   */
+  public final ImmutableList<VariableDefinition> variableDefinitions;
+
+  /** Productions defined by top level sp commands, in the order they appear. */
+  public final ImmutableList<Production> productions;
+
+  private FileSymbols(
+      URI uri,
+      int version,
+      List<ProcedureDefinition> procedureDefinitions,
+      List<VariableDefinition> variableDefinitions,
+      List<Production> productions) {
+    this.uri = uri;
+    this.version = version;
+    this.procedureDefinitions = ImmutableList.copyOf(procedureDefinitions);
+    this.variableDefinitions = ImmutableList.copyOf(variableDefinitions);
+    this.productions = ImmutableList.copyOf(productions);
+  }
+
+  /** Collect the symbols from the syntax tree of the given file. */
+  public static FileSymbols of(SoarFile file) {
+    char[] buffer = file.contents.toCharArray();
+    ImmutableList.Builder<ProcedureDefinition> procedures = ImmutableList.builder();
+    ImmutableList.Builder<VariableDefinition> variables = ImmutableList.builder();
+    ImmutableList.Builder<Production> productions = ImmutableList.builder();
+
+    TclAstNode mostRecentComment = null;
+    for (TclAstNode node : file.ast.getChildren()) {
+      TclAstNode comment = mostRecentComment;
+      mostRecentComment = node.getType() == TclAstNode.COMMENT ? node : null;
+      if (node.getType() != TclAstNode.COMMAND) {
+        continue;
+      }
+
+      List<TclAstNode> words = node.getWordChildren();
+      if (words.isEmpty() || words.get(0).getType() != TclAstNode.NORMAL_WORD) {
+        continue;
+      }
+      String commandName = words.get(0).getInternalText(buffer);
+      Location location = new Location(file.uri.toString(), file.rangeForNode(node));
+      String commentText = comment != null ? comment.getInternalText(buffer) : null;
+
+      switch (commandName) {
+        case "proc":
+          if (words.size() == 4) {
+            procedures.add(
+                new ProcedureDefinition(
+                    words.get(1).getInternalText(buffer),
+                    location,
+                    ProcedureDefinition.Argument.parse(words.get(2).getInternalText(buffer)),
+                    node,
+                    comment,
+                    commentText));
+          }
+          break;
+        case "set":
+          // With only one argument, set reads a variable rather than writing it.
+          if (words.size() == 3) {
+            variables.add(
+                new VariableDefinition(
+                    words.get(1).getInternalText(buffer),
+                    location,
+                    node,
+                    words.get(2).getInternalText(buffer),
+                    comment,
+                    commentText));
+          }
+          break;
+        case "sp":
+          if (words.size() >= 2) {
+            productions.add(new Production(words.get(1).getInternalText(buffer).trim(), location));
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    return new FileSymbols(
+        file.uri, file.version, procedures.build(), variables.build(), productions.build());
+  }
+}
@@ -0,0 +1,77 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.soartech.soarls.SoarFile;
+import com.soartech.soarls.tcl.TclAstNode;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An inverted index from the text of each identifier in a project to everywhere it occurs.
+ *
+ * <p>Identifiers are the plain words and variable names in the syntax tree; these are what a user
+ * would expect to change when renaming something. Since Tcl has no real notion of scope, this is a
+ * purely textual index: it knows where "foo" is written, but not whether two occurrences refer to
+ * the same thing. The semantic information for that lives in the rest of the analysis.
+ */
+public class IdentifierIndex {
+  /** A single occurrence of an identifier, as offsets into the analysed version of a file. */
+  public static class Occurrence {
+    public final URI uri;
+
+    public final int start;
+
+    public final int end;
+
+    Occurrence(URI uri, int start, int end) {
+      this.uri = uri;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  private final ImmutableListMultimap<String, Occurrence> occurrences;
+
+  private IdentifierIndex(ImmutableListMultimap<String, Occurrence> occurrences) {
+    this.occurrences = occurrences;
+  }
+
+  /** Get every occurrence of the given identifier, grouped by file in document order. */
+  public ImmutableList<Occurrence> occurrences(String identifier) {
+    return occurrences.get(identifier);
+  }
+
+  /** Whether the given node is one that this index records. */
+  public static boolean isIdentifier(TclAstNode node) {
+    return (node.getType() == TclAstNode.NORMAL_WORD || node.getType() == TclAstNode.VARIABLE_NAME)
+        && node.getChildren().isEmpty();
+  }
+
+  /** Build an index over the syntax trees of the given files. */
+  static IdentifierIndex of(Collection<FileAnalysis> files) {
+    ImmutableListMultimap.Builder<String, Occurrence> builder = ImmutableListMultimap.builder();
+    Deque<TclAstNode> stack = new ArrayDeque<>();
+    for (FileAnalysis fileAnalysis : files) {
+      SoarFile file = fileAnalysis.file;
+      stack.push(file.ast);
+      while (!stack.isEmpty()) {
+        TclAstNode node = stack.pop();
+        if (isIdentifier(node)) {
+          builder.put(
+              file.contents.substring(node.getStart(), node.getEnd()),
+              new Occurrence(file.uri, node.getStart(), node.getEnd()));
+        }
+        // Push children in reverse, so that they are visited in the order they appear.
+        List<TclAstNode> children = node.getChildren();
+        for (int i = children.size() - 1; i >= 0; --i) {
+          stack.push(children.get(i));
+        }
+      }
+    }
+    return new IdentifierIndex(builder.build());
+  }
+}
@@ -0,0 +1,303 @@
+package com.soartech.soarls.analysis;
+
+import com.soartech.soarls.Documents;
+import com.soartech.soarls.SoarFile;
+import com.soartech.soarls.tcl.TclAstNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.jsoar.kernel.Agent;
+import org.jsoar.kernel.SoarException;
+import org.jsoar.kernel.exceptions.SoarInterpreterException;
+import org.jsoar.kernel.exceptions.SoftInterpreterException;
+import org.jsoar.kernel.exceptions.TclInterpreterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fast path for the most common kind of edit: changing the body of a single production.
+ *
+ * <p>Evaluating an sp command only defines a production, so as long as the production keeps its
+ * name nothing else in the analysis depends on the new body. Instead of sourcing the whole project
+ * again, we load the new body into a scratch agent to find its errors, and patch the previous
+ * analysis with the results.
+ *
+ * <p>The patched analysis still refers to the version of the file that was last analysed in full,
+ * so that all the AST nodes and ranges it contains stay consistent with each other. Anything that
+ * falls outside this narrow case returns empty, and the caller should perform a full analysis. That
+ * includes productions that might be duplicates of others, which only a full agent can judge.
+ *
+ * <p>Each instance owns a scratch agent, which should be released with dispose() when the instance
+ * is no longer needed.
+ */
+public class IncrementalAnalysis {
+  private static final Logger LOG = LoggerFactory.getLogger(IncrementalAnalysis.class);
+
+  /**
+   * The agent that edited productions are loaded into. Creating an agent is much more expensive
+   * than checking a production, so we keep one around, and excise each production once it has been
+   * checked so that the agent stays empty. Access is guarded by this object's lock.
+   */
+  private Agent scratchAgent = null;
+
+  /** Whether dispose() has been called, after which no new scratch agent is created. */
+  private boolean disposed = false;
+
+  /** Release the scratch agent. Any later attempt to reanalyse a production returns empty. */
+  public synchronized void dispose() {
+    disposed = true;
+    if (scratchAgent != null) {
+      scratchAgent.dispose();
+      scratchAgent = null;
+    }
+  }
+
+  /**
+   * Update an analysis after the body of a single production has been edited. This returns empty
+   * unless exactly one top level command differs from the analysed files, and that command is an sp
+   * whose production kept its name.
+   */
+  public Optional<ProjectAnalysis> reanalyseProduction(
+      ProjectAnalysis previous, Documents documents) {
+    FileAnalysis changedFile = null;
+    SoarFile current = null;
+    for (FileAnalysis fileAnalysis : previous.files.values()) {
+      SoarFile file = documents.get(fileAnalysis.uri);
+      if (file == null) {
+        return Optional.empty();
+      }
+      if (file == fileAnalysis.file) {
+        continue;
+      }
+      if (!fileAnalysis.patched && file.hasSameCommandsAs(fileAnalysis.file)) {
+        continue;
+      }
+      if (changedFile != null) {
+        return Optional.empty();
+      }
+      changedFile = fileAnalysis;
+      current = file;
+    }
+    if (changedFile == null || !current.diagnostics.isEmpty()) {
+      return Optional.empty();
+    }
+
+    List<TclAstNode> analysedCommands = changedFile.file.commands();
+    List<TclAstNode> currentCommands = current.commands();
+    if (analysedCommands.size() != currentCommands.size()) {
+      return Optional.empty();
+    }
+    TclAstNode analysedCommand = null;
+    TclAstNode currentCommand = null;
+    for (int i = 0; i != currentCommands.size(); ++i) {
+      TclAstNode analysed = analysedCommands.get(i);
+      TclAstNode edited = currentCommands.get(i);
+      if (text(changedFile.file, analysed).equals(text(current, edited))) {
+        continue;
+      }
+      if (analysedCommand != null) {
+        return Optional.empty();
+      }
+      analysedCommand = analysed;
+      currentCommand = edited;
+    }
+    if (analysedCommand == null) {
+      return Optional.empty();
+    }
+
+    Optional<String> analysedBody = productionBody(changedFile.file, analysedCommand);
+    Optional<String> currentBody = productionBody(current, currentCommand);
+    List<Production> analysedProductions = changedFile.productions.get(analysedCommand);
+    if (!analysedBody.isPresent()
+        || !currentBody.isPresent()
+        || analysedProductions == null
+        || analysedProductions.size() != 1) {
+      return Optional.empty();
+    }
+    Production analysedProduction = analysedProductions.get(0);
+    Production production = new Production(currentBody.get(), analysedProduction.location);
+    if (!production.name.equals(analysedProduction.name)
+        || previous.productions(production.name).size() != 1) {
+      return Optional.empty();
+    }
+
+    // JSoar ignores a production that is identical to another one in the agent, which the scratch
+    // agent can't check because it only holds this production. If an earlier warning like that
+    // involved this production, in either direction, then it might no longer apply; and if the new
+    // body looks the same as another production, then a new warning might be needed.
+    if (previous
+        .files
+        .values()
+        .stream()
+        .flatMap(fileAnalysis -> fileAnalysis.diagnostics.stream())
+        .anyMatch(diagnostic -> isDuplicateWarningAbout(diagnostic, production.name))) {
+      return Optional.empty();
+    }
+    if (previous
+        .productionsByName
+        .values()
+        .stream()
+        .filter(other -> !other.name.equals(production.name))
+        .anyMatch(other -> looksLikeDuplicate(production, other))) {
+      return Optional.empty();
+    }
+
+    Range range = changedFile.file.rangeForNode(analysedCommand);
+    List<Diagnostic> removed =
+        changedFile
+            .diagnostics
+            .stream()
+            .filter(diagnostic -> contains(range, diagnostic.getRange()))
+            .filter(diagnostic -> !"DuplicateProduction".equals(diagnostic.getSource()))
+            .collect(Collectors.toList());
+
+    Optional<List<Diagnostic>> added =
+        evaluate(text(current, currentCommand), production.name, range);
+    if (!added.isPresent()) {
+      return Optional.empty();
+    }
+
+    LOG.info("Re-evaluated production {} in {}", production.name, changedFile.uri);
+    FileAnalysis patched =
+        changedFile.withCommandResults(
+            analysedCommand, Collections.singletonList(production), removed, added.get());
+    return Optional.of(previous.withProduction(patched, analysedProduction, production));
+  }
+
+  /**
+   * Load a production into the scratch agent and return the diagnostics it produced, all of which
+   * are placed on the given range. This returns empty if the agent could not be used.
+   */
+  private synchronized Optional<List<Diagnostic>> evaluate(
+      String command, String name, Range range) {
+    if (disposed) {
+      return Optional.empty();
+    }
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    try {
+      if (scratchAgent == null) {
+        scratchAgent = new Agent();
+      }
+      try {
+        scratchAgent.getInterpreter().eval(command);
+      } catch (SoarInterpreterException ex) {
+        diagnostics.add(
+            new Diagnostic(
+                range,
+                "Failed to source production in this file: " + ex,
+                DiagnosticSeverity.Error,
+                "SoarInterpreterException"));
+      } catch (TclInterpreterException ex) {
+        diagnostics.add(
+            new Diagnostic(
+                range, ex.getMessage(), DiagnosticSeverity.Error, "TclInterpreterException"));
+      }
+
+      for (SoftInterpreterException e :
+          scratchAgent.getInterpreter().getExceptionsManager().getExceptions()) {
+        String message = e.getMessage().trim();
+        DiagnosticSeverity severity = DiagnosticSeverity.Error;
+        if (Analysis.NO_RHS_FUNCTION_PATTERN.matcher(message).matches()) {
+          severity = DiagnosticSeverity.Warning;
+        }
+        diagnostics.add(new Diagnostic(range, message, severity, "SoftTclInterpreterException"));
+      }
+      scratchAgent.getInterpreter().getExceptionsManager().clearExceptions();
+
+      org.jsoar.kernel.Production production = scratchAgent.getProductions().getProduction(name);
+      if (production != null) {
+        scratchAgent.getProductions().exciseProduction(production, false);
+      }
+      return Optional.of(diagnostics);
+    } catch (SoarException | RuntimeException e) {
+      LOG.warn("Failed to re-evaluate production {}", name, e);
+      if (scratchAgent != null) {
+        scratchAgent.dispose();
+        scratchAgent = null;
+      }
+      return Optional.empty();
+    }
+  }
+
+  /** Whether a diagnostic is JSoar's warning that a production was a duplicate of another. */
+  private static boolean isDuplicateWarningAbout(Diagnostic diagnostic, String name) {
+    String message = diagnostic.getMessage();
+    return message.matches(Analysis.DUPLICATE_PRODUCTION_REGEX)
+        && (message.startsWith("Ignoring " + name + " ")
+            || message.endsWith(" duplicate of " + name));
+  }
+
+  /**
+   * Whether two productions have the same body apart from their names and the amount of whitespace
+   * between tokens, in which case JSoar would consider them to be duplicates. JSoar compares the
+   * parsed conditions and actions, so this misses duplicates that are written differently (such as
+   * with other variable names); those are only reported by the next full analysis. This is checked
+   * against every production on each edit, so it stops at the first difference.
+   */
+  private static boolean looksLikeDuplicate(Production a, Production b) {
+    String x = a.body;
+    String y = b.body;
+    int i = x.indexOf(a.name) + a.name.length();
+    int j = y.indexOf(b.name) + b.name.length();
+    while (true) {
+      int nextI = skipWhitespace(x, i);
+      int nextJ = skipWhitespace(y, j);
+      if (nextI == x.length() || nextJ == y.length()) {
+        return nextI == x.length() && nextJ == y.length();
+      }
+      if ((nextI != i) != (nextJ != j) || x.charAt(nextI) != y.charAt(nextJ)) {
+        return false;
+      }
+      i = nextI + 1;
+      j = nextJ + 1;
+    }
+  }
+
+  private static int skipWhitespace(String text, int offset) {
+    while (offset < text.length() && Character.isWhitespace(text.charAt(offset))) {
+      offset += 1;
+    }
+    return offset;
+  }
+
+  /**
+   * If the command is an sp whose body is given literally, get the body. Anything else might
+   * depend on the state of the interpreter.
+   */
+  private static Optional<String> productionBody(SoarFile file, TclAstNode command) {
+    if (command.getType() != TclAstNode.COMMAND) {
+      return Optional.empty();
+    }
+    List<TclAstNode> words = command.getChildren();
+    if (words.size() != 2
+        || words.get(0).getType() != TclAstNode.NORMAL_WORD
+        || !words.get(0).getChildren().isEmpty()
+        || !file.getNodeInternalText(words.get(0)).equals("sp")
+        || words.get(1).getType() != TclAstNode.BRACED_WORD) {
+      return Optional.empty();
+    }
+    return Optional.of(file.getNodeInternalText(words.get(1)));
+  }
+
+  private static String text(SoarFile file, TclAstNode node) {
+    return file.contents.substring(node.getStart(), node.getEnd());
+  }
+
+  private static boolean contains(Range outer, Range inner) {
+    return compare(outer.getStart(), inner.getStart()) <= 0
+        && compare(inner.getEnd(), outer.getEnd()) <= 0;
+  }
+
+  private static int compare(Position a, Position b) {
+    if (a.getLine() != b.getLine()) {
+      return Integer.compare(a.getLine(), b.getLine());
+    }
+    return Integer.compare(a.getCharacter(), b.getCharacter());
+  }
+}
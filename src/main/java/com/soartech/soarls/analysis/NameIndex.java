@@ -0,0 +1,217 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A searchable index of named things, such as procedures or variables, for answering completion
+ * requests.
+ *
+ * <p>Names are kept in a case insensitively sorted array, so that finding all names with a given
+ * prefix is a binary search followed by a scan over the matches. When there aren't enough prefix
+ * matches, we also look for names where the pattern matches the beginnings of words (for example,
+ * "nca" matches "ngs-create-attribute") and names that contain the pattern as a subsequence. Since
+ * those can't be found with a binary search, we only pay for them when the prefix search comes up
+ * short.
+ */
+public class NameIndex<T> {
+  /** How well a name matched a pattern. Higher scores are better matches. */
+  private static final int EXACT = 5;
+
+  private static final int PREFIX = 4;
+
+  private static final int CASE_INSENSITIVE_PREFIX = 3;
+
+  private static final int WORD_STARTS = 2;
+
+  private static final int SUBSEQUENCE = 1;
+
+  private static final Comparator<Match<?>> BEST_FIRST =
+      Comparator.<Match<?>>comparingInt(match -> -match.score)
+          .thenComparingInt(match -> match.name.length())
+          .thenComparing(match -> match.name);
+
+  /** The names, sorted case insensitively. */
+  private final String[] names;
+
+  /** The lower case version of each name, at the same index. */
+  private final String[] lowerNames;
+
+  /** The value associated with each name, at the same index. */
+  private final List<T> values;
+
+  public NameIndex(Map<String, T> entries) {
+    String[] sorted = entries.keySet().toArray(new String[0]);
+    Arrays.sort(
+        sorted,
+        Comparator.comparing((String name) -> name.toLowerCase(Locale.ROOT))
+            .thenComparing(Comparator.naturalOrder()));
+    this.names = sorted;
+    this.lowerNames = new String[sorted.length];
+    List<T> values = new ArrayList<>(sorted.length);
+    for (int i = 0; i != sorted.length; ++i) {
+      lowerNames[i] = sorted[i].toLowerCase(Locale.ROOT);
+      values.add(entries.get(sorted[i]));
+    }
+    this.values = values;
+  }
+
+  /** A name that matched a search, along with its value. */
+  public static class Match<T> {
+    public final String name;
+
+    public final T value;
+
+    final int score;
+
+    Match(String name, T value, int score) {
+      this.name = name;
+      this.value = value;
+      this.score = score;
+    }
+  }
+
+  /** The best matches for a search, and whether there were more that didn't make the cut. */
+  public static class Result<T> {
+    public final ImmutableList<Match<T>> matches;
+
+    public final boolean isIncomplete;
+
+    Result(List<Match<T>> matches, boolean isIncomplete) {
+      this.matches = ImmutableList.copyOf(matches);
+      this.isIncomplete = isIncomplete;
+    }
+  }
+
+  /**
+   * Find the names that best match the given pattern, best matches first. At most limit matches
+   * are returned.
+   */
+  public Result<T> search(String pattern, int limit) {
+    // Everything matches an empty pattern equally well, so we can skip ranking altogether.
+    if (pattern.isEmpty()) {
+      List<Match<T>> matches = new ArrayList<>();
+      for (int i = 0; i != Math.min(limit, names.length); ++i) {
+        matches.add(new Match<>(names[i], values.get(i), PREFIX));
+      }
+      return new Result<>(matches, names.length > limit);
+    }
+
+    String lowerPattern = pattern.toLowerCase(Locale.ROOT);
+    List<Match<T>> matches = new ArrayList<>();
+
+    // Every name that starts with the pattern is in one contiguous block of the sorted array.
+    int first = lowerBound(lowerPattern);
+    int end = first;
+    while (end < lowerNames.length && lowerNames[end].startsWith(lowerPattern)) {
+      String name = names[end];
+      int score =
+          name.equals(pattern)
+              ? EXACT
+              : name.startsWith(pattern) ? PREFIX : CASE_INSENSITIVE_PREFIX;
+      matches.add(new Match<>(name, values.get(end), score));
+      end += 1;
+    }
+
+    // Look further afield only if there aren't enough prefix matches to fill the results.
+    if (matches.size() < limit) {
+      for (int i = 0; i != lowerNames.length; ++i) {
+        if (first <= i && i < end) {
+          continue;
+        }
+        String lowerName = lowerNames[i];
+        if (matchesWordStarts(names[i], lowerName, lowerPattern, 0, 0)) {
+          matches.add(new Match<>(names[i], values.get(i), WORD_STARTS));
+        } else if (isSubsequence(lowerName, lowerPattern)) {
+          matches.add(new Match<>(names[i], values.get(i), SUBSEQUENCE));
+        }
+      }
+    }
+
+    matches.sort(BEST_FIRST);
+    boolean isIncomplete = matches.size() > limit;
+    return new Result<>(isIncomplete ? matches.subList(0, limit) : matches, isIncomplete);
+  }
+
+  /** Find the index of the first name that is not less than the given lower case prefix. */
+  private int lowerBound(String lowerPrefix) {
+    int low = 0;
+    int high = lowerNames.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (lowerNames[mid].compareTo(lowerPrefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Whether every character of the pattern can be matched to a run of characters at the beginning
+   * of a word of the name, in order. Words are separated by punctuation such as '-' or '_', which
+   * may be left out of the pattern, or begin with an upper case letter in camelCase names.
+   */
+  private static boolean matchesWordStarts(
+      String name, String lowerName, String pattern, int nameIndex, int index) {
+    while (index < pattern.length() && isSeparator(pattern.charAt(index))) {
+      index += 1;
+    }
+    if (index == pattern.length()) {
+      return true;
+    }
+    for (int start = nameIndex; start < name.length(); ++start) {
+      if (!isWordStart(name, start)) {
+        continue;
+      }
+      // Consume as much of the pattern as this word allows, backing off if the rest of the pattern
+      // can't be matched from there.
+      int length = 0;
+      while (start + length < lowerName.length()
+          && index + length < pattern.length()
+          && lowerName.charAt(start + length) == pattern.charAt(index + length)) {
+        length += 1;
+      }
+      for (; length > 0; --length) {
+        if (matchesWordStarts(name, lowerName, pattern, start + length, index + length)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWordStart(String name, int index) {
+    if (index == 0) {
+      return true;
+    }
+    char previous = name.charAt(index - 1);
+    char current = name.charAt(index);
+    return (isSeparator(previous) && !isSeparator(current))
+        || (Character.isLowerCase(previous) && Character.isUpperCase(current));
+  }
+
+  private static boolean isSeparator(char c) {
+    return !Character.isLetterOrDigit(c);
+  }
+
+  /** Whether the name starts with the first character of the pattern and contains the rest. */
+  private static boolean isSubsequence(String name, String pattern) {
+    if (name.isEmpty() || name.charAt(0) != pattern.charAt(0)) {
+      return false;
+    }
+    int index = 1;
+    for (int i = 1; i < name.length() && index < pattern.length(); ++i) {
+      if (name.charAt(i) == pattern.charAt(index)) {
+        index += 1;
+      }
+    }
+    return index == pattern.length();
+  }
+}
@@ -1,7 +1,11 @@
 package com.soartech.soarls.analysis;
 
+import static java.util.stream.Collectors.toList;
+
 import com.google.common.collect.ImmutableList;
 import com.soartech.soarls.tcl.TclAstNode;
+import com.soartech.soarls.tcl.TclParser;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.eclipse.lsp4j.Location;
@@ -56,5 +60,41 @@ public class ProcedureDefinition {
       this.name = name;
       this.defaultValue = Optional.ofNullable(defaultValue);
     }
+
+    /**
+     * Parse the argument list of a proc command.
+     *
+     * <p>Parsing arguments got a little bit tricky. We parse the argument list into an AST, which
+     * makes it look like a command, although it isn't. We look for the expected shape of required
+     * and optional arguments. There are likely some edge cases that aren't covered, but this should
+     * capture most common patterns.
+     *
+     * <p>Also note that we can't simply query the interpreter using 'info args', because that does
+     * not return any information about optional arguments.
+     */
+    public static List<Argument> parse(String argumentList) {
+      char[] argsBuffer = argumentList.replaceAll("\n", " ").toCharArray();
+      TclParser parser = new TclParser();
+      parser.setInput(argsBuffer, 0, argsBuffer.length);
+      TclAstNode procArgs = parser.parse();
+      return Optional.ofNullable(procArgs.getChild(TclAstNode.COMMAND))
+          .map(
+              cmd ->
+                  cmd.getChildren().stream()
+                      .map(node -> makeArgument(node, argsBuffer))
+                      .collect(toList()))
+          .orElseGet(ArrayList::new);
+    }
+
+    private static Argument makeArgument(TclAstNode node, char[] argsBuffer) {
+      List<TclAstNode> children = node.getChildren();
+      boolean hasDefault = children.size() == 2;
+      String argName =
+          hasDefault
+              ? children.get(0).getInternalText(argsBuffer)
+              : node.getInternalText(argsBuffer);
+      String defaultValue = hasDefault ? children.get(1).getInternalText(argsBuffer) : null;
+      return new Argument(argName, defaultValue);
+    }
   }
 }
@@ -0,0 +1,164 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The attributes that a production tests in its conditions and creates in its actions.
+ *
+ * <p>This is not a full Soar parser; it only tracks enough structure to say which attributes are
+ * used where. Attributes are recorded as paths. A dotted attribute such as ^io.output-link is
+ * recorded as written, and when the identifier it hangs off can be traced back to the state (as in
+ * (state &lt;s&gt; ^io &lt;io&gt;) (&lt;io&gt; ^output-link &lt;ol&gt;)) we also record the full
+ * path from the state.
+ */
+class ProductionBody {
+  /** A single use of an attribute, along with its value if that was a constant. */
+  static class AttributeUse {
+    /** The attribute path, without the leading '^'. */
+    final String path;
+
+    /** The constant value that the attribute was tested against or set to, or null. */
+    final String value;
+
+    AttributeUse(String path, String value) {
+      this.path = path;
+      this.value = value;
+    }
+  }
+
+  /** The attributes that were tested on the left hand side. */
+  final ImmutableList<AttributeUse> conditions;
+
+  /** The attributes that were created on the right hand side. */
+  final ImmutableList<AttributeUse> actions;
+
+  private ProductionBody(List<AttributeUse> conditions, List<AttributeUse> actions) {
+    this.conditions = ImmutableList.copyOf(conditions);
+    this.actions = ImmutableList.copyOf(actions);
+  }
+
+  /** Parse the body of a production, as it was passed to the sp command. */
+  static ProductionBody parse(String body) {
+    List<String> tokens = tokenize(body);
+    List<AttributeUse> conditions = new ArrayList<>();
+    List<AttributeUse> actions = new ArrayList<>();
+    List<AttributeUse> uses = conditions;
+
+    // The path from the state to each variable, where we know it. State variables map to "".
+    Map<String, String> paths = new HashMap<>();
+
+    // The first token is the name of the production.
+    String id = null;
+    for (int i = 1; i < tokens.size(); ++i) {
+      String token = tokens.get(i);
+      if (token.equals("-->")) {
+        uses = actions;
+        id = null;
+      } else if (token.equals("(")) {
+        // The identifier comes first, optionally preceded by 'state' or 'impasse'.
+        String next = i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+        if ((next.equals("state") || next.equals("impasse")) && i + 2 < tokens.size()) {
+          id = tokens.get(i + 2);
+          paths.put(id, "");
+          i += 2;
+        } else {
+          id = next;
+          i += 1;
+        }
+      } else if (token.equals(")")) {
+        id = null;
+      } else if (token.startsWith("^") || token.startsWith("-^")) {
+        String path = token.substring(token.indexOf('^') + 1);
+        if (path.isEmpty()) {
+          continue;
+        }
+        String value = i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+        boolean isConstant = isConstant(value);
+        uses.add(new AttributeUse(path, isConstant ? value : null));
+
+        String parentPath = id != null ? paths.get(id) : null;
+        if (parentPath != null) {
+          String fullPath = parentPath.isEmpty() ? path : parentPath + "." + path;
+          if (!fullPath.equals(path)) {
+            uses.add(new AttributeUse(fullPath, isConstant ? value : null));
+          }
+          if (isVariable(value)) {
+            paths.putIfAbsent(value, fullPath);
+          }
+        }
+      }
+    }
+    return new ProductionBody(conditions, actions);
+  }
+
+  private static boolean isVariable(String token) {
+    return token.length() > 2 && token.startsWith("<") && token.endsWith(">");
+  }
+
+  /** Whether the token is a constant value, as opposed to a variable, test, or punctuation. */
+  private static boolean isConstant(String token) {
+    if (token.isEmpty() || isVariable(token)) {
+      return false;
+    }
+    switch (token.charAt(0)) {
+      case '(':
+      case ')':
+      case '{':
+      case '}':
+      case '^':
+      case '-':
+      case '+':
+      case '<':
+      case '>':
+      case '=':
+      case '!':
+      case '~':
+      case '@':
+        return token.length() > 1 && Character.isDigit(token.charAt(1));
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Split a production body into tokens. Parentheses and braces are tokens of their own, |quoted|
+   * and "quoted" strings are kept whole, and comments are dropped.
+   */
+  private static List<String> tokenize(String body) {
+    List<String> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < body.length()) {
+      char c = body.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i += 1;
+      } else if (c == '#') {
+        while (i < body.length() && body.charAt(i) != '\n') {
+          i += 1;
+        }
+      } else if (c == '(' || c == ')' || c == '{' || c == '}') {
+        tokens.add(String.valueOf(c));
+        i += 1;
+      } else if (c == '|' || c == '"') {
+        int end = body.indexOf(c, i + 1);
+        end = end < 0 ? body.length() : end + 1;
+        tokens.add(body.substring(i, end));
+        i = end;
+      } else {
+        int start = i;
+        while (i < body.length()) {
+          char d = body.charAt(i);
+          if (Character.isWhitespace(d) || d == '(' || d == ')' || d == '{' || d == '}') {
+            break;
+          }
+          i += 1;
+        }
+        tokens.add(body.substring(start, i));
+      }
+    }
+    return tokens;
+  }
+}
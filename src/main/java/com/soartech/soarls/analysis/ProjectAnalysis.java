@@ -3,14 +3,20 @@ package com.soartech.soarls.analysis;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.soartech.soarls.ProjectConfiguration.EntryPoint;
+import com.soartech.soarls.tcl.TclAstNode;
 import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * The results of analysing a Soar project starting from a particular entry point.
@@ -60,6 +66,37 @@ public class ProjectAnalysis {
   public final ImmutableMap<VariableDefinition, ImmutableList<VariableRetrieval>>
       variableRetrievals;
 
+  /**
+   * Every production that was sourced, indexed by name. A name maps to more than one production if
+   * it was defined in several places, in which case only the last one to be sourced was kept.
+   */
+  public final ImmutableListMultimap<String, Production> productionsByName;
+
+  /** The productions that test or create each attribute. */
+  public final AttributeIndex attributes;
+
+  /**
+   * Variable definitions, indexed by the AST node of the command that defined them. This lets us
+   * find the definition enclosing a node by walking up the tree, rather than searching the subtree
+   * of every definition.
+   */
+  public final ImmutableMap<TclAstNode, VariableDefinition> variableDefinitionsByNode;
+
+  /** Procedure definitions, indexed by the AST node of the proc command that defined them. */
+  public final ImmutableMap<TclAstNode, ProcedureDefinition> procedureDefinitionsByNode;
+
+  /** Where each identifier occurs in the files of this project, for textual queries. */
+  public final IdentifierIndex identifiers;
+
+  /** The productions, procedures, and variables defined in this project, for symbol search. */
+  public final SymbolIndex symbols;
+
+  /** An index of the names of all defined procedures, for completion. */
+  public final NameIndex<ProcedureDefinition> procedureNames;
+
+  /** An index of the names of all defined variables, for completion. */
+  public final NameIndex<VariableDefinition> variableNames;
+
   /**
    * Construct a new ProjectAnalysis, converting all the collections into their immutable
    * counteparts.
@@ -81,6 +118,59 @@ public class ProjectAnalysis {
     this.procedureCalls = immutableMapOfLists(procedureCalls);
     this.variableDefinitions = ImmutableMap.copyOf(variableDefinitions);
     this.variableRetrievals = immutableMapOfLists(variableRetrievals);
+    this.productionsByName = indexProductions(this.files.values());
+    this.attributes = AttributeIndex.of(this.productionsByName.values());
+    this.variableDefinitionsByNode =
+        indexByNode(
+            Stream.concat(
+                this.variableRetrievals.keySet().stream(),
+                this.variableDefinitions.values().stream()),
+            def -> def.ast);
+    this.procedureDefinitionsByNode =
+        indexByNode(this.procedureCalls.keySet().stream(), def -> def.ast);
+    this.identifiers = IdentifierIndex.of(this.files.values());
+    this.procedureNames = new NameIndex<>(this.procedureDefinitions);
+    this.variableNames = new NameIndex<>(this.variableDefinitions);
+    this.symbols = SymbolIndex.of(this);
+  }
+
+  /**
+   * Return a copy of this analysis where one production has been re-evaluated, and the analysis of
+   * the file that defines it has been replaced. The production keeps its name and location, so only
+   * the indexes that depend on production bodies are updated; everything else is shared with this
+   * analysis.
+   */
+  ProjectAnalysis withProduction(FileAnalysis file, Production previous, Production replacement) {
+    return new ProjectAnalysis(this, file, previous, replacement);
+  }
+
+  private ProjectAnalysis(
+      ProjectAnalysis original, FileAnalysis file, Production previous, Production replacement) {
+    Map<URI, FileAnalysis> updatedFiles = new LinkedHashMap<>(original.files);
+    updatedFiles.put(file.uri, file);
+    ImmutableListMultimap.Builder<String, Production> productions = ImmutableListMultimap.builder();
+    original.productionsByName.forEach(
+        (name, production) ->
+            productions.put(name, production == previous ? replacement : production));
+
+    this.entryPointUri = original.entryPointUri;
+    this.entryPoint = original.entryPoint;
+    this.sourcedUris = original.sourcedUris;
+    this.files = ImmutableMap.copyOf(updatedFiles);
+    this.procedureDefinitions = original.procedureDefinitions;
+    this.procedureCalls = original.procedureCalls;
+    this.variableDefinitions = original.variableDefinitions;
+    this.variableRetrievals = original.variableRetrievals;
+    this.productionsByName = productions.build();
+    this.attributes = original.attributes.withReplaced(previous, replacement);
+    this.variableDefinitionsByNode = original.variableDefinitionsByNode;
+    this.procedureDefinitionsByNode = original.procedureDefinitionsByNode;
+    // The file's syntax tree is unchanged, since it is still the version that was analysed.
+    this.identifiers = original.identifiers;
+    // Symbols only record the names and locations of productions.
+    this.symbols = original.symbols;
+    this.procedureNames = original.procedureNames;
+    this.variableNames = original.variableNames;
   }
 
   // Helpers
@@ -93,6 +183,64 @@ public class ProjectAnalysis {
     return Optional.ofNullable(files.get(uri));
   }
 
+  /** Get the productions with the given name. This is empty if no such production was sourced. */
+  public ImmutableList<Production> productions(String name) {
+    return productionsByName.get(name);
+  }
+
+  /**
+   * Get the definition of the variable that was set by the command containing the given node. This
+   * includes variables that are never read. Definitions are recorded against the top level command
+   * that was being evaluated, so a variable set inside a procedure body belongs to the command that
+   * called the procedure. If several commands enclose the node then the innermost one wins.
+   */
+  public Optional<VariableDefinition> variableDefinitionEnclosing(TclAstNode node) {
+    return enclosing(variableDefinitionsByNode, node);
+  }
+
+  /**
+   * Get the definition of the procedure whose proc command contains the given node. As with
+   * variables, a procedure defined inside another command, such as an if, belongs to that command.
+   */
+  public Optional<ProcedureDefinition> procedureDefinitionEnclosing(TclAstNode node) {
+    return enclosing(procedureDefinitionsByNode, node);
+  }
+
+  private static <T> Optional<T> enclosing(Map<TclAstNode, T> definitions, TclAstNode node) {
+    while (node != null) {
+      T def = definitions.get(node);
+      if (def != null) {
+        return Optional.of(def);
+      }
+      node = node.getParent();
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Index definitions by their AST node. A single command may define several things, such as
+   * sourcing a file that sets multiple variables, in which case the first one wins.
+   */
+  private static <T> ImmutableMap<TclAstNode, T> indexByNode(
+      Stream<T> definitions, Function<T, TclAstNode> ast) {
+    Map<TclAstNode, T> index = new LinkedHashMap<>();
+    definitions.forEach(def -> index.putIfAbsent(ast.apply(def), def));
+    return ImmutableMap.copyOf(index);
+  }
+
+  private static ImmutableListMultimap<String, Production> indexProductions(
+      Collection<FileAnalysis> files) {
+    ImmutableListMultimap.Builder<String, Production> builder = ImmutableListMultimap.builder();
+    for (FileAnalysis file : files) {
+      for (List<Production> productions : file.productions.values()) {
+        for (Production production : productions) {
+          builder.put(production.name, production);
+        }
+      }
+    }
+    return builder.build();
+  }
+
   static <K, V> ImmutableMap<K, ImmutableList<V>> immutableMapOfLists(Map<K, List<V>> input) {
     return input
         .entrySet()
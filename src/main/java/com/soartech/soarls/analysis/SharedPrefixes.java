@@ -0,0 +1,127 @@
+package com.soartech.soarls.analysis;
+
+import com.soartech.soarls.Documents;
+import com.soartech.soarls.SoarFile;
+import com.soartech.soarls.tcl.TclAstNode;
+import com.soartech.soarls.util.Metrics;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Analyses of the files that several entry points source before doing anything else, so that they
+ * only need to be analysed once.
+ *
+ * <p>Every analysis starts with a fresh agent, so two entry points that begin by sourcing the same
+ * files put their agents into exactly the same state, and the analyses of those files are the same
+ * for both. The first entry point to be analysed records them here. The others still evaluate the
+ * files, since JSoar agents can't be copied, but they skip all the bookkeeping and reuse the
+ * recorded FileAnalysis objects and definitions, which are then shared by all the resulting
+ * ProjectAnalysis objects.
+ */
+public class SharedPrefixes {
+  /** The state of an analysis right after its shared source commands were evaluated. */
+  static class Prefix {
+    /** The files that were read, or null for ones that didn't exist. */
+    final Map<URI, SoarFile> filesRead;
+
+    final Map<URI, FileAnalysis> files;
+    final Set<URI> sourcedUris;
+    final Map<String, ProcedureDefinition> procedureDefinitions;
+    final Map<ProcedureDefinition, List<ProcedureCall>> procedureCalls;
+    final Map<String, VariableDefinition> variableDefinitions;
+    final Map<VariableDefinition, List<VariableRetrieval>> variableRetrievals;
+    final Map<String, Production> productionsByName;
+
+    Prefix(
+        Map<URI, SoarFile> filesRead,
+        Map<URI, FileAnalysis> files,
+        Set<URI> sourcedUris,
+        Map<String, ProcedureDefinition> procedureDefinitions,
+        Map<ProcedureDefinition, List<ProcedureCall>> procedureCalls,
+        Map<String, VariableDefinition> variableDefinitions,
+        Map<VariableDefinition, List<VariableRetrieval>> variableRetrievals,
+        Map<String, Production> productionsByName) {
+      this.filesRead = new HashMap<>(filesRead);
+      this.files = new HashMap<>(files);
+      this.sourcedUris = new HashSet<>(sourcedUris);
+      this.procedureDefinitions = new HashMap<>(procedureDefinitions);
+      this.procedureCalls = copyLists(procedureCalls);
+      this.variableDefinitions = new HashMap<>(variableDefinitions);
+      this.variableRetrievals = copyLists(variableRetrievals);
+      this.productionsByName = new HashMap<>(productionsByName);
+    }
+
+    /** Whether all the files that were read are still the current versions. */
+    boolean isCurrent(Documents documents) {
+      return filesRead.entrySet().stream().allMatch(e -> documents.get(e.getKey()) == e.getValue());
+    }
+  }
+
+  /** Keyed by the files that each prefix sources, in order. */
+  private final ConcurrentHashMap<List<URI>, Prefix> prefixes = new ConcurrentHashMap<>();
+
+  /** Discard everything that has been recorded. */
+  public void clear() {
+    prefixes.clear();
+  }
+
+  /** Get the recorded state for the given prefix, if it is still valid. */
+  Optional<Prefix> get(List<URI> key, Documents documents) {
+    Prefix prefix = prefixes.get(key);
+    if (prefix == null || !prefix.isCurrent(documents)) {
+      return Optional.empty();
+    }
+    Metrics.increment("analysis.shared-prefix.reused");
+    return Optional.of(prefix);
+  }
+
+  void put(List<URI> key, Prefix prefix) {
+    prefixes.put(key, prefix);
+  }
+
+  /**
+   * Get the files that an entry point sources before doing anything else. These are the leading
+   * source commands with literal arguments; the prefix ends at the first command of any other kind.
+   */
+  static List<URI> key(SoarFile entryPoint) {
+    List<URI> key = new ArrayList<>();
+    URI directory = entryPoint.uri.resolve("");
+    for (TclAstNode command : entryPoint.commands()) {
+      List<TclAstNode> words = command.getChildren();
+      if (command.getType() != TclAstNode.COMMAND
+          || words.size() != 2
+          || !isLiteral(entryPoint, words.get(0))
+          || !isLiteral(entryPoint, words.get(1))
+          || !entryPoint.getNodeInternalText(words.get(0)).equals("source")) {
+        break;
+      }
+      try {
+        key.add(directory.resolve(entryPoint.getNodeInternalText(words.get(1))));
+      } catch (IllegalArgumentException e) {
+        break;
+      }
+    }
+    return key;
+  }
+
+  /** Whether the interpreter will see exactly the text of the word. */
+  private static boolean isLiteral(SoarFile file, TclAstNode word) {
+    boolean literal =
+        word.getType() == TclAstNode.BRACED_WORD
+            || (word.getType() == TclAstNode.NORMAL_WORD && word.getChildren().isEmpty());
+    return literal && !file.getNodeInternalText(word).contains("\\");
+  }
+
+  private static <K, V> Map<K, List<V>> copyLists(Map<K, List<V>> map) {
+    Map<K, List<V>> copy = new HashMap<>();
+    map.forEach((key, list) -> copy.put(key, new ArrayList<>(list)));
+    return copy;
+  }
+}
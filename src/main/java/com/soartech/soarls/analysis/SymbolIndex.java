@@ -0,0 +1,205 @@
+package com.soartech.soarls.analysis;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+
+/**
+ * An index of the productions, procedures, and variables defined in a project, for answering
+ * workspace/symbol requests.
+ *
+ * <p>Users search for symbols by typing any part of their name, so a sorted array isn't enough
+ * here. Instead, we record which names contain each trigram (sequence of three characters). To
+ * answer a query we intersect the lists for each trigram in the query, which leaves a small number
+ * of candidates that then get checked directly. Queries that are too short to contain a trigram
+ * fall back to a linear scan, which is still cheap compared to the cost of sending the results.
+ */
+public class SymbolIndex {
+  private static final int EXACT = 3;
+
+  private static final int PREFIX = 2;
+
+  private static final int SUBSTRING = 1;
+
+  private static final Comparator<SymbolInformation> BY_NAME =
+      Comparator.<SymbolInformation>comparingInt(symbol -> symbol.getName().length())
+          .thenComparing(SymbolInformation::getName);
+
+  private final List<SymbolInformation> symbols;
+
+  /** The lower case name of each symbol, at the same index. */
+  private final String[] lowerNames;
+
+  /** For each trigram, the indices of the symbols whose names contain it, in ascending order. */
+  private final Map<String, int[]> trigrams;
+
+  SymbolIndex(List<SymbolInformation> symbols) {
+    this.symbols = ImmutableList.copyOf(symbols);
+    this.lowerNames = new String[symbols.size()];
+
+    Map<String, List<Integer>> postings = new HashMap<>();
+    for (int i = 0; i != symbols.size(); ++i) {
+      String lowerName = symbols.get(i).getName().toLowerCase(Locale.ROOT);
+      lowerNames[i] = lowerName;
+      for (int j = 0; j + 3 <= lowerName.length(); ++j) {
+        List<Integer> posting =
+            postings.computeIfAbsent(lowerName.substring(j, j + 3), key -> new ArrayList<>());
+        // A name may contain the same trigram more than once, but we only record it once.
+        if (posting.isEmpty() || posting.get(posting.size() - 1) != i) {
+          posting.add(i);
+        }
+      }
+    }
+
+    this.trigrams = new HashMap<>(postings.size());
+    for (Map.Entry<String, List<Integer>> e : postings.entrySet()) {
+      trigrams.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+    }
+  }
+
+  /** Build an index over the symbols defined in the given project. */
+  static SymbolIndex of(ProjectAnalysis analysis) {
+    List<SymbolInformation> symbols = new ArrayList<>();
+    for (FileAnalysis file : analysis.files.values()) {
+      for (ProcedureDefinition def : file.procedureDefinitions) {
+        symbols.add(symbol(def.name, SymbolKind.Function, def.location));
+      }
+      for (List<Production> productions : file.productions.values()) {
+        for (Production production : productions) {
+          symbols.add(symbol(production.name, SymbolKind.Object, production.location));
+        }
+      }
+    }
+    for (VariableDefinition def : analysis.variableDefinitions.values()) {
+      symbols.add(symbol(def.name, SymbolKind.Variable, def.location));
+    }
+    return new SymbolIndex(symbols);
+  }
+
+  private static SymbolInformation symbol(String name, SymbolKind kind, Location location) {
+    return new SymbolInformation(name, kind, location);
+  }
+
+  /** The number of symbols in the index. */
+  public int size() {
+    return symbols.size();
+  }
+
+  /**
+   * Find the symbols whose names contain the query, ignoring case. Exact matches come first, then
+   * names that start with the query, then everything else; shorter names are preferred within each
+   * group. At most limit symbols are returned.
+   */
+  public List<SymbolInformation> search(String query, int limit) {
+    String lowerQuery = query.toLowerCase(Locale.ROOT);
+
+    List<Match> matches = new ArrayList<>();
+    if (lowerQuery.length() < 3) {
+      for (int i = 0; i != lowerNames.length; ++i) {
+        addIfMatches(matches, i, query, lowerQuery);
+      }
+    } else {
+      for (int i : candidates(lowerQuery)) {
+        addIfMatches(matches, i, query, lowerQuery);
+      }
+    }
+
+    matches.sort(
+        Comparator.<Match>comparingInt(match -> -match.score)
+            .thenComparing(match -> match.symbol, BY_NAME));
+
+    List<SymbolInformation> results = new ArrayList<>(Math.min(limit, matches.size()));
+    for (int i = 0; i != Math.min(limit, matches.size()); ++i) {
+      results.add(matches.get(i).symbol);
+    }
+    return results;
+  }
+
+  /**
+   * Find the symbols whose names contain every trigram in the query. This is a superset of the
+   * names that contain the query itself.
+   */
+  private int[] candidates(String lowerQuery) {
+    List<int[]> lists = new ArrayList<>();
+    for (int j = 0; j + 3 <= lowerQuery.length(); ++j) {
+      int[] posting = trigrams.get(lowerQuery.substring(j, j + 3));
+      if (posting == null) {
+        return new int[0];
+      }
+      lists.add(posting);
+    }
+
+    // Start with the rarest trigram, so that the intermediate results stay small.
+    lists.sort(Comparator.comparingInt(list -> list.length));
+    int[] result = lists.get(0);
+    for (int k = 1; k != lists.size() && result.length != 0; ++k) {
+      result = intersect(result, lists.get(k));
+    }
+    return result;
+  }
+
+  /**
+   * Order symbols the same way that search does. This is for merging the results of searching
+   * several indices.
+   */
+  public static Comparator<SymbolInformation> ranking(String query) {
+    String lowerQuery = query.toLowerCase(Locale.ROOT);
+    return Comparator.<SymbolInformation>comparingInt(
+            symbol -> -score(symbol.getName(), query, lowerQuery))
+        .thenComparing(BY_NAME);
+  }
+
+  private static int score(String name, String query, String lowerQuery) {
+    int at = name.toLowerCase(Locale.ROOT).indexOf(lowerQuery);
+    return at < 0 ? 0 : name.equals(query) ? EXACT : at == 0 ? PREFIX : SUBSTRING;
+  }
+
+  /** Intersect two sorted arrays. */
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i += 1;
+      } else if (a[i] > b[j]) {
+        j += 1;
+      } else {
+        result[size++] = a[i];
+        i += 1;
+        j += 1;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private void addIfMatches(List<Match> matches, int index, String query, String lowerQuery) {
+    int at = lowerNames[index].indexOf(lowerQuery);
+    if (at < 0) {
+      return;
+    }
+    SymbolInformation symbol = symbols.get(index);
+    int score = symbol.getName().equals(query) ? EXACT : at == 0 ? PREFIX : SUBSTRING;
+    matches.add(new Match(symbol, score));
+  }
+
+  private static class Match {
+    final SymbolInformation symbol;
+
+    final int score;
+
+    Match(SymbolInformation symbol, int score) {
+      this.symbol = symbol;
+      this.score = score;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.soartech.soarls.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A named thread pool with a fixed number of threads and a bounded queue.
+ *
+ * <p>Requests are answered on these rather than on lsp4j's message thread (which would hold up
+ * every message behind them, including document changes) or on the common fork-join pool (which
+ * is shared with everything else in the JVM). When the queue is full, further tasks are rejected
+ * with a RejectedExecutionException, so that the request fails right away instead of making every
+ * request behind it wait longer.
+ *
+ * <p>The number of tasks submitted and rejected, the current queue depth, and the deepest the queue
+ * has been are all recorded in {@link Metrics}, under "executor.NAME".
+ */
+public class BoundedExecutor implements Executor {
+  private static final Logger LOG = LoggerFactory.getLogger(BoundedExecutor.class);
+
+  private final String name;
+
+  private final ThreadPoolExecutor pool;
+
+  public BoundedExecutor(String name, int threads, int queueCapacity) {
+    this.name = name;
+    this.pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+    Metrics.gauge("executor." + name + ".queue-depth", () -> pool.getQueue().size());
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    Metrics.increment("executor." + name + ".submitted");
+    try {
+      pool.execute(task);
+    } catch (RejectedExecutionException e) {
+      Metrics.increment("executor." + name + ".rejected");
+      LOG.warn("Rejected a task because the {} queue is full", name);
+      throw e;
+    }
+    Metrics.recordMax("executor." + name + ".max-queue-depth", pool.getQueue().size());
+  }
+}
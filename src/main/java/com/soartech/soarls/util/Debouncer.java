@@ -1,7 +1,6 @@
 package com.soartech.soarls.util;
 
 import java.time.Duration;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -9,27 +8,27 @@ import java.util.concurrent.TimeUnit;
 /**
  * The debouncer schedules tasks to be executed on a separate thread, but only after a short delay.
  *
- * <p>The main use case is to schedule an analysis run (which can be expensive) that is triggered by
- * any change to a document. Document changes can happen rapidly (at the speed of keystrokes) but we
- * don't want to do a full analysis on every single keystroke.
+ * <p>The main use case is to check the syntax of a document after it changes. Document changes can
+ * happen rapidly (at the speed of keystrokes) but we don't want to parse the document again on
+ * every single keystroke. Analyses are scheduled by the AnalysisScheduler instead.
  *
  * <p>This is heavily borrowed from the Kotlin language server.
  */
 public class Debouncer {
   private Duration delay;
 
-  /**
-   * We use a single worker thread for all analyses because it is unclear whether or not the JTcl
-   * interpreter is thread safe. Until such time as we determine whether it is (or refactor the
-   * analysis functions if there is only a small critical section to lock in), we should not perform
-   * analyses in parallel.
-   */
-  private static final ScheduledExecutorService workerThread = Executors.newScheduledThreadPool(1);
+  /** The executor that tasks are scheduled on. */
+  private final ScheduledExecutorService executor;
 
   private Future<?> pendingTask = null;
 
-  public Debouncer(Duration delay) {
+  /**
+   * Create a debouncer that runs its tasks on the given executor. This should not be the analysis
+   * thread, since debounced work is usually cheap and must not wait behind a running analysis.
+   */
+  public Debouncer(Duration delay, ScheduledExecutorService executor) {
     this.delay = delay;
+    this.executor = executor;
   }
 
   /**
@@ -40,7 +39,7 @@ public class Debouncer {
     if (pendingTask != null) {
       pendingTask.cancel(false);
     }
-    pendingTask = workerThread.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
+    pendingTask = executor.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
   }
 
   public void setDelay(Duration delay) {
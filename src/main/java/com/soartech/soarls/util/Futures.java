@@ -0,0 +1,109 @@
+package com.soartech.soarls.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+/** Helpers for working with CompletableFutures that aren't available in Java 8. */
+public class Futures {
+  /** A single thread is enough to fire timeouts, since it never does any real work. */
+  private static final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("future-timeout").setDaemon(true).build());
+
+  private Futures() {}
+
+  /**
+   * Return a future that completes with the result of the given future, or with the given value if
+   * that does not happen within the timeout. The original future is not affected.
+   */
+  public static <T> CompletableFuture<T> completeOnTimeout(
+      CompletableFuture<T> future, T value, Duration timeout) {
+    if (future.isDone()) {
+      return future;
+    }
+    CompletableFuture<T> result = new CompletableFuture<>();
+    ScheduledFuture<?> timeoutTask =
+        timer.schedule(() -> result.complete(value), timeout.toMillis(), TimeUnit.MILLISECONDS);
+    future.whenComplete(
+        (success, error) -> {
+          timeoutTask.cancel(false);
+          if (error != null) {
+            result.completeExceptionally(error);
+          } else {
+            result.complete(success);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Like thenApply, but the function is given a CancelChecker that throws if the returned future
+   * has been cancelled. lsp4j cancels the future that a request returned when the client sends
+   * $/cancelRequest, but that doesn't stop a function that is already running, so long running
+   * functions should check periodically (such as once per analysis) and give up.
+   */
+  public static <T, R> CompletableFuture<R> thenApplyCancellable(
+      CompletableFuture<T> future, BiFunction<T, CancelChecker, R> function) {
+    return thenApplyCancellable(future, function, Runnable::run);
+  }
+
+  /** Like thenApplyCancellable, but the function is run using the given executor. */
+  public static <T, R> CompletableFuture<R> thenApplyCancellable(
+      CompletableFuture<T> future, BiFunction<T, CancelChecker, R> function, Executor executor) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    CancelChecker cancelChecker =
+        () -> {
+          if (result.isCancelled()) {
+            throw new CancellationException();
+          }
+        };
+    future.whenComplete(
+        (value, error) -> {
+          if (result.isDone()) {
+            // The request was cancelled before we got started.
+            Metrics.increment("requests.cancelled.before-start");
+            return;
+          }
+          if (error != null) {
+            result.completeExceptionally(error);
+            return;
+          }
+          try {
+            executor.execute(() -> applyCancellable(function, value, cancelChecker, result));
+          } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+          }
+        });
+    return result;
+  }
+
+  private static <T, R> void applyCancellable(
+      BiFunction<T, CancelChecker, R> function,
+      T value,
+      CancelChecker cancelChecker,
+      CompletableFuture<R> result) {
+    if (result.isDone()) {
+      // The request was cancelled while it was waiting in the executor's queue.
+      Metrics.increment("requests.cancelled.before-start");
+      return;
+    }
+    try {
+      result.complete(function.apply(value, cancelChecker));
+    } catch (CancellationException e) {
+      Metrics.increment("requests.cancelled.while-running");
+      result.completeExceptionally(e);
+    } catch (Throwable e) {
+      result.completeExceptionally(e);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.soartech.soarls.util;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters for things that happen inside the server, such as messages that were sent or skipped
+ * and requests that were cancelled. They can be written to the log with the log-metrics command,
+ * which is useful for checking whether an optimisation is actually doing anything.
+ *
+ * <p>Counters are identified by dotted names, and they are created the first time they are used.
+ * Gauges are reported alongside them, but their values are read when the metrics are requested.
+ */
+public class Metrics {
+  private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+  private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  private Metrics() {}
+
+  /** Add one to the named counter. */
+  public static void increment(String name) {
+    add(name, 1);
+  }
+
+  /** Add an amount to the named counter. */
+  public static void add(String name, long amount) {
+    counters.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(amount);
+  }
+
+  /** Raise the named counter to the given value, if it is lower. This records high-water marks. */
+  public static void recordMax(String name, long value) {
+    counters.computeIfAbsent(name, key -> new AtomicLong()).accumulateAndGet(value, Math::max);
+  }
+
+  /** Register a gauge, which reports the current value of something rather than counting. */
+  public static void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /** Get the current value of the named counter, which is zero if it has never been used. */
+  public static long get(String name) {
+    AtomicLong counter = counters.get(name);
+    return counter != null ? counter.get() : 0;
+  }
+
+  /** Get the current value of every counter and gauge, sorted by name. */
+  public static SortedMap<String, Long> snapshot() {
+    SortedMap<String, Long> snapshot = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+      snapshot.put(e.getKey(), e.getValue().get());
+    }
+    for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+      snapshot.put(e.getKey(), e.getValue().getAsLong());
+    }
+    return snapshot;
+  }
+}
@@ -0,0 +1,43 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveDebounceTest {
+  private final URI entryPoint = URI.create("file:///load.soar");
+
+  private final Duration max = Duration.ofMillis(1000);
+
+  /** The first edit to an entry point that is cheap to analyse waits as little as possible. */
+  @Test
+  public void cheapAnalysisRunsSoon() {
+    AdaptiveDebounce debounce = new AdaptiveDebounce();
+    debounce.analysed(entryPoint, Duration.ofMillis(10));
+
+    assertEquals(AdaptiveDebounce.MIN_DELAY, debounce.scheduled(entryPoint, max));
+  }
+
+  /** Expensive analyses wait longer, but never longer than the configured maximum. */
+  @Test
+  public void expensiveAnalysisIsBounded() {
+    AdaptiveDebounce debounce = new AdaptiveDebounce();
+    debounce.analysed(entryPoint, Duration.ofSeconds(10));
+
+    assertEquals(max, debounce.scheduled(entryPoint, max));
+  }
+
+  /** While the user is typing, we wait for longer than the gap between edits. */
+  @Test
+  public void waitsForTypingToPause() throws Exception {
+    AdaptiveDebounce debounce = new AdaptiveDebounce();
+    debounce.scheduled(entryPoint, max);
+    Thread.sleep(200);
+    Duration delay = debounce.scheduled(entryPoint, max);
+
+    assertTrue(delay.toMillis() >= 200, "delay was " + delay.toMillis() + " ms");
+    assertTrue(delay.compareTo(max) <= 0);
+  }
+}
@@ -0,0 +1,133 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.util.Metrics;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class AnalysisSchedulerTest {
+  private final URI focused = URI.create("file:///focused.soar");
+  private final URI open = URI.create("file:///open.soar");
+  private final URI background = URI.create("file:///background.soar");
+
+  private final Map<URI, Integer> priorities = new HashMap<>();
+
+  public AnalysisSchedulerTest() {
+    priorities.put(focused, AnalysisScheduler.FOCUSED);
+    priorities.put(open, AnalysisScheduler.OPEN);
+    priorities.put(background, AnalysisScheduler.BACKGROUND);
+  }
+
+  /** When several analyses are ready at once, the most important one runs first. */
+  @Test
+  public void runsByPriority() throws Exception {
+    AnalysisScheduler scheduler = new AnalysisScheduler(priorities::get, Duration.ZERO);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(3);
+    List<URI> order = new ArrayList<>();
+
+    // Keep the worker busy while the others are queued up.
+    scheduler.schedule(
+        URI.create("file:///blocker.soar"),
+        preempted -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    started.await();
+    for (URI uri : Arrays.asList(background, open, focused)) {
+      scheduler.schedule(
+          uri,
+          preempted -> {
+            order.add(uri);
+            finished.countDown();
+          });
+    }
+    assertEquals(Arrays.asList(focused, open, background), scheduler.queue());
+
+    release.countDown();
+    finished.await();
+    assertEquals(Arrays.asList(focused, open, background), order);
+  }
+
+  /** A background analysis is told to stop when something more important is ready. */
+  @Test
+  public void preemptsBackgroundAnalyses() throws Exception {
+    AnalysisScheduler scheduler = new AnalysisScheduler(priorities::get, Duration.ZERO);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch preempted = new CountDownLatch(1);
+    CountDownLatch focusedRan = new CountDownLatch(1);
+
+    scheduler.schedule(
+        background,
+        flag -> {
+          started.countDown();
+          while (!flag.getAsBoolean()) {
+            Thread.yield();
+          }
+          preempted.countDown();
+        });
+    started.await();
+    scheduler.schedule(focused, flag -> focusedRan.countDown());
+
+    preempted.await();
+    focusedRan.await();
+  }
+
+  /** Shutting down interrupts the running analysis, and nothing runs afterwards. */
+  @Test
+  public void shutdownStopsWorker() throws Exception {
+    AnalysisScheduler scheduler = new AnalysisScheduler(priorities::get, Duration.ZERO);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CountDownLatch ranAfterShutdown = new CountDownLatch(1);
+
+    scheduler.schedule(
+        background,
+        preempted -> {
+          started.countDown();
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            interrupted.countDown();
+          }
+        });
+    started.await();
+    scheduler.shutdown();
+    interrupted.await();
+
+    scheduler.schedule(focused, preempted -> ranAfterShutdown.countDown());
+    assertFalse(ranAfterShutdown.await(200, TimeUnit.MILLISECONDS));
+    assertTrue(scheduler.queue().isEmpty());
+  }
+
+  /** The queue depth gauge counts every scheduler until it is shut down. */
+  @Test
+  public void queueDepthGauge() throws Exception {
+    long initial = Metrics.snapshot().get("analysis.queue-depth");
+    AnalysisScheduler first = new AnalysisScheduler(priorities::get, Duration.ofHours(1));
+    AnalysisScheduler second = new AnalysisScheduler(priorities::get, Duration.ofHours(1));
+    first.schedule(focused, preempted -> {});
+    second.schedule(focused, preempted -> {});
+    second.schedule(open, preempted -> {});
+    assertEquals(initial + 3, (long) Metrics.snapshot().get("analysis.queue-depth"));
+
+    second.shutdown();
+    assertEquals(initial + 1, (long) Metrics.snapshot().get("analysis.queue-depth"));
+    first.shutdown();
+    assertEquals(initial, (long) Metrics.snapshot().get("analysis.queue-depth"));
+  }
+}
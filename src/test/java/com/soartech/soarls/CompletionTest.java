@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.List;
 import org.eclipse.lsp4j.CompletionItem;
 import org.eclipse.lsp4j.CompletionItemKind;
+import org.eclipse.lsp4j.CompletionList;
 import org.eclipse.lsp4j.CompletionParams;
 import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.InsertTextFormat;
@@ -49,8 +50,7 @@ public class CompletionTest extends SingleFileTestFixture {
     insertText("$", 13, 58);
 
     CompletionParams params = new CompletionParams(fileId(file), new Position(13, 59));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     assertCompletion(completions, "NGS_NO");
     assertCompletion(completions, "NGS_YES");
@@ -62,8 +62,7 @@ public class CompletionTest extends SingleFileTestFixture {
   @Test
   public void tclProcedure() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     assertCompletion(completions, "ngs-bind");
 
@@ -80,8 +79,7 @@ public class CompletionTest extends SingleFileTestFixture {
     insertText("$", 13, 58);
 
     CompletionParams params = new CompletionParams(fileId(file), new Position(13, 59));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     assertFalse(completions.isEmpty());
     for (CompletionItem completion : completions) {
@@ -92,8 +90,7 @@ public class CompletionTest extends SingleFileTestFixture {
   @Test
   public void procedureItemKind() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     for (CompletionItem completion : completions) {
       assertEquals(completion.getKind(), CompletionItemKind.Function);
@@ -121,24 +118,53 @@ public class CompletionTest extends SingleFileTestFixture {
   @Test
   public void textEdit() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     CompletionItem completion = completions.get(0);
     assertEquals(completion.getLabel(), "ngs-bind");
     assertEquals(completion.getTextEdit().getRange(), range(12, 5, 12, 10));
   }
 
-  /** When possible, we provide doc comments. */
+  /**
+   * When possible, we provide doc comments. These are only filled in when the client resolves an
+   * item, since it will only ever display them for a few of the items we return.
+   */
   @Test
   public void documentation() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     CompletionItem completion = completions.get(0);
     assertEquals(completion.getLabel(), "ngs-bind");
-    assertEquals(completion.getDocumentation().getLeft(), "# Stubs for a few NGS commands\n");
+    assertNull(completion.getDocumentation());
+
+    CompletionItem resolved =
+        languageServer.getTextDocumentService().resolveCompletionItem(completion).get();
+    assertEquals(resolved.getDocumentation().getLeft(), "# Stubs for a few NGS commands\n");
+  }
+
+  /** Items that start with the prefix are ranked ahead of those that only match it loosely. */
+  @Test
+  public void prefixMatchesFirst() throws Exception {
+    CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
+    List<CompletionItem> completions = complete(params);
+
+    assertEquals(completions.get(0).getLabel(), "ngs-bind");
+    assertCompletion(completions, "ngs-create-attribute-by-operator");
+  }
+
+  /** The list is complete as long as we haven't had to leave anything out. */
+  @Test
+  public void completeList() throws Exception {
+    CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
+    CompletionList list =
+        languageServer.getTextDocumentService().completion(params).get().getRight();
+    assertFalse(list.isIncomplete());
+  }
+
+  /** Request completions, returning the items of the completion list. */
+  List<CompletionItem> complete(CompletionParams params) throws Exception {
+    return languageServer.getTextDocumentService().completion(params).get().getRight().getItems();
   }
 
   /** Test that the completion list contains this item. */
@@ -158,8 +184,7 @@ public class CompletionTest extends SingleFileTestFixture {
   @Test
   public void insertSnippet() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(12, 10));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     CompletionItem completion = completions.get(0);
     assertEquals(completion.getLabel(), "ngs-bind");
@@ -172,8 +197,7 @@ public class CompletionTest extends SingleFileTestFixture {
   // @Disabled
   public void insertSnippetOptionalArgs() throws Exception {
     CompletionParams params = new CompletionParams(fileId(file), new Position(14, 20));
-    List<CompletionItem> completions =
-        languageServer.getTextDocumentService().completion(params).get().getLeft();
+    List<CompletionItem> completions = complete(params);
 
     CompletionItem completion = completions.get(0);
     assertEquals(completion.getLabel(), "ngs-create-attribute-by-operator");
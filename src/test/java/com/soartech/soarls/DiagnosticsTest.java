@@ -2,8 +2,19 @@ package com.soartech.soarls;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticReport;
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import java.util.Arrays;
 import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.FileChangeType;
+import org.eclipse.lsp4j.FileEvent;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -28,6 +39,71 @@ public class DiagnosticsTest extends SingleFileTestFixture {
     assertEquals(11, this.getFileDiagnostics().size());
   }
 
+  /** Analysing the same code again should not send the same diagnostics again. */
+  @Test
+  public void unchangedDiagnosticsNotRepublished() throws Exception {
+    diagnostics.clear();
+
+    // Telling the server that the file changed on disk triggers a new analysis.
+    String uri = workspaceRoot.resolve("test.soar").toString();
+    FileEvent event = new FileEvent(uri, FileChangeType.Changed);
+    languageServer
+        .getWorkspaceService()
+        .didChangeWatchedFiles(new DidChangeWatchedFilesParams(Arrays.asList(event)));
+    waitForAnalysis("test.soar");
+
+    assertTrue(diagnostics.isEmpty());
+  }
+
+  /** Settings that don't affect the analysis don't cause a new one. */
+  @Test
+  public void presentationSettingsDoNotReanalyse() throws Exception {
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    URI uri = workspaceRoot.resolve("test.soar");
+    ProjectAnalysis before = documentService.snapshot().analysis(uri).get();
+
+    config.renderHoverMarkdown = true;
+    config.fullCommentHover = false;
+    sendConfiguration();
+    waitForAnalysis("test.soar");
+
+    assertSame(before, documentService.snapshot().analysis(uri).get());
+  }
+
+  /**
+   * After more comment edits than the edit history keeps, the analysed version can no longer be
+   * related to the current one, so the file is analysed again to put its diagnostics in the right
+   * place.
+   */
+  @Test
+  public void diagnosticsAfterManyCommentEdits() throws Exception {
+    int edits = 600;
+    for (int i = 0; i != edits; ++i) {
+      languageServer
+          .getTextDocumentService()
+          .didChange(
+              new DidChangeTextDocumentParams(
+                  new VersionedTextDocumentIdentifier(fileId(file).getUri(), i + 1),
+                  Arrays.asList(
+                      new TextDocumentContentChangeEvent(range(0, 0, 0, 0), 0, "# comment\n"))));
+    }
+    waitForAnalysis("test.soar");
+
+    DocumentDiagnosticReport report =
+        ((Server) languageServer)
+            .documentDiagnostic(new DocumentDiagnosticParams(fileId(file), null))
+            .get();
+    Diagnostic diagnostic =
+        report
+            .getItems()
+            .stream()
+            .filter(d -> d.getMessage().contains("In production 'missing-arrow'"))
+            .findAny()
+            .get();
+    assertEquals(range(4 + edits, 0, 7 + edits, 1), diagnostic.getRange());
+  }
+
   @Test
   public void missingArrow() {
     boolean diagnosticFound = false;
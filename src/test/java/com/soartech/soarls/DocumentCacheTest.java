@@ -0,0 +1,68 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class DocumentCacheTest {
+  private final URI uri = URI.create("file:///test.soar");
+
+  private final URI otherUri = URI.create("file:///other.soar");
+
+  private final DocumentCache<Integer> cache = new DocumentCache<>();
+
+  private final AtomicInteger computations = new AtomicInteger();
+
+  private Integer get(SoarFile file) {
+    return cache.get(file, null, computations::incrementAndGet);
+  }
+
+  /** Asking again for the same version of a document returns the same result. */
+  @Test
+  public void reusedForSameFile() {
+    SoarFile file = new SoarFile(uri, "sp {a (state <s>) --> (<s> ^a b)}");
+
+    assertEquals(1, (int) get(file));
+    assertEquals(1, (int) get(file));
+    assertEquals(1, computations.get());
+  }
+
+  /** Any edit produces a new SoarFile, even if the contents end up the same. */
+  @Test
+  public void recomputedAfterEdit() {
+    String contents = "sp {a (state <s>) --> (<s> ^a b)}";
+
+    assertEquals(1, (int) get(new SoarFile(uri, contents, 1)));
+    assertEquals(2, (int) get(new SoarFile(uri, contents, 2)));
+  }
+
+  /** Closing a document forgets its result, but not those of other documents. */
+  @Test
+  public void droppedOnRemove() {
+    SoarFile file = new SoarFile(uri, "");
+    SoarFile other = new SoarFile(otherUri, "");
+    get(file);
+    get(other);
+
+    cache.remove(uri);
+
+    assertEquals(3, (int) get(file));
+    assertEquals(2, (int) get(other));
+  }
+
+  /** A configuration change forgets the results of every document. */
+  @Test
+  public void droppedOnClear() {
+    SoarFile file = new SoarFile(uri, "");
+    SoarFile other = new SoarFile(otherUri, "");
+    get(file);
+    get(other);
+
+    cache.clear();
+
+    assertEquals(3, (int) get(file));
+    assertEquals(4, (int) get(other));
+  }
+}
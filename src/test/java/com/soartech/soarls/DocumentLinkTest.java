@@ -2,9 +2,13 @@ package com.soartech.soarls;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
 import java.util.List;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.DocumentLink;
 import org.eclipse.lsp4j.DocumentLinkParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -20,6 +24,10 @@ public class DocumentLinkTest extends LanguageServerTestFixture {
     return new DocumentLinkParams(fileId(relativePath));
   }
 
+  List<DocumentLink> links(String relativePath) throws Exception {
+    return languageServer.getTextDocumentService().documentLink(params(relativePath)).get();
+  }
+
   @Test
   public void noLinksByDefault() throws Exception {
     List<DocumentLink> links =
@@ -38,4 +46,44 @@ public class DocumentLinkTest extends LanguageServerTestFixture {
 
     assertFalse(links.isEmpty());
   }
+
+  /** Links are reused until the analysis they came from is replaced. */
+  @Test
+  public void cachedUntilReanalysed() throws Exception {
+    config.hyperlinkExpansionFile = true;
+    sendConfiguration();
+    waitForAnalysis("load.soar");
+    List<DocumentLink> links = links("productions.soar");
+    assertSame(links, links("productions.soar"));
+
+    // This reanalyses the project without changing productions.soar.
+    open("micro-ngs/macros.tcl");
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId("micro-ngs/macros.tcl").getUri(), 1),
+                Arrays.asList(new TextDocumentContentChangeEvent(range(3, 12, 3, 16), 4, "*N*"))));
+    waitForAnalysis("load.soar");
+    List<DocumentLink> reanalysed = links("productions.soar");
+
+    assertNotSame(links, reanalysed);
+    assertEquals(links, reanalysed);
+  }
+
+  /** Links point at the expansion file, so they are dropped when its location changes. */
+  @Test
+  public void recomputedWhenExpansionFileMoves() throws Exception {
+    config.hyperlinkExpansionFile = true;
+    sendConfiguration();
+    waitForAnalysis("load.soar");
+    List<DocumentLink> links = links("productions.soar");
+
+    config.tclExpansionFile = "~moved-expansion.soar";
+    sendConfiguration();
+    List<DocumentLink> moved = links("productions.soar");
+
+    assertNotSame(links, moved);
+    assertTrue(moved.get(0).getTarget().endsWith("~moved-expansion.soar"));
+  }
 }
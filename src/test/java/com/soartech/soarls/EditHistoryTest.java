@@ -0,0 +1,82 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Queries are often answered using an analysis of an older version of a document, so we need to be
+ * able to translate positions between versions.
+ */
+public class EditHistoryTest {
+  final SoarFile original =
+      new SoarFile(URI.create("file:///test.soar"), "set A 1\nset B 2\nset C 3\n");
+
+  /** Insert a new line at the top of the file. */
+  final SoarFile edited =
+      original.withChange(
+          new TextDocumentContentChangeEvent(
+              new Range(new Position(0, 0), new Position(0, 0)), 0, "set Z 0\n"));
+
+  EditHistory history() {
+    EditHistory history = new EditHistory(original.version);
+    history.record(edited);
+    return history;
+  }
+
+  @Test
+  public void versionIncrements() {
+    assertEquals(original.version + 1, edited.version);
+  }
+
+  @Test
+  public void translateForward() {
+    int offset = original.offset(new Position(1, 4));
+    int translated = history().translate(offset, original.version, edited.version);
+    assertEquals(new Position(2, 4), edited.position(translated));
+  }
+
+  @Test
+  public void translateBackward() {
+    int offset = edited.offset(new Position(3, 4));
+    int translated = history().translate(offset, edited.version, original.version);
+    assertEquals(new Position(2, 4), original.position(translated));
+  }
+
+  /** Offsets before an edit are unaffected by it. */
+  @Test
+  public void translateBeforeEdit() {
+    SoarFile appended =
+        original.withChange(
+            new TextDocumentContentChangeEvent(
+                new Range(new Position(3, 0), new Position(3, 0)), 0, "set D 4\n"));
+    EditHistory history = new EditHistory(original.version);
+    history.record(appended);
+    assertEquals(4, history.translate(4, original.version, appended.version));
+  }
+
+  /** Full document updates are reduced to the region that actually changed. */
+  @Test
+  public void fullDocumentUpdate() {
+    SoarFile replaced =
+        original.withChanges(
+            Arrays.asList(new TextDocumentContentChangeEvent("set A 1\nset B 22\nset C 3\n")));
+    EditHistory history = new EditHistory(original.version);
+    history.record(replaced);
+
+    int offset = original.offset(new Position(2, 4));
+    int translated = history.translate(offset, original.version, replaced.version);
+    assertEquals(new Position(2, 4), replaced.position(translated));
+  }
+
+  /** We can't translate to versions that we have no record of. */
+  @Test
+  public void unknownVersion() {
+    assertEquals(-1, history().translate(0, edited.version, edited.version + 1));
+  }
+}
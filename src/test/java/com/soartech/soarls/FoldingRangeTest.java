@@ -2,10 +2,14 @@ package com.soartech.soarls;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
 import java.util.List;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.FoldingRange;
 import org.eclipse.lsp4j.FoldingRangeKind;
 import org.eclipse.lsp4j.FoldingRangeRequestParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.junit.jupiter.api.Test;
 
@@ -50,6 +54,24 @@ public class FoldingRangeTest extends SingleFileTestFixture {
     assertRange(FoldingRangeKind.Region, 16, 20);
   }
 
+  /** The ranges are reused until the document is edited. */
+  @Test
+  public void cachedUntilEdited() throws Exception {
+    FoldingRangeRequestParams params = new FoldingRangeRequestParams(fileId(file));
+    assertSame(ranges, languageServer.getTextDocumentService().foldingRange(params).get());
+
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId(file).getUri(), 1),
+                Arrays.asList(new TextDocumentContentChangeEvent(range(0, 0, 0, 0), 0, "\n"))));
+    List<FoldingRange> edited = languageServer.getTextDocumentService().foldingRange(params).get();
+
+    assertNotSame(ranges, edited);
+    assertEquals(1, edited.get(0).getStartLine());
+  }
+
   /** Test that a range exists matching the given parameters. */
   void assertRange(String kind, int startLine, int endLine) {
     FoldingRange range =
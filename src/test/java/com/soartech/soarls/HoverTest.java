@@ -2,10 +2,15 @@ package com.soartech.soarls;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.util.Arrays;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.HoverParams;
 import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -170,4 +175,27 @@ public class HoverTest extends SingleFileTestFixture {
       fail("hover threw an exception");
     }
   }
+
+  /** Editing a comment updates the hover text without analysing the file again. */
+  @Test
+  public void hoverAfterEditingComment() throws Exception {
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    ProjectAnalysis before = documentService.waitForAnalysis(workspaceRoot.resolve(file));
+
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId(file).getUri(), 1),
+                Arrays.asList(
+                    new TextDocumentContentChangeEvent(range(13, 12, 13, 14), 2, "a new"))));
+
+    // ngs-create-attribute
+    HoverParams params = hoverParams(file, 20, 10);
+    Hover hover = languageServer.getTextDocumentService().hover(params).get();
+    MarkupContent string = hover.getContents().getRight();
+    assertEquals(string.getValue(), "Create a new attribute.");
+    assertSame(before, documentService.waitForAnalysis(workspaceRoot.resolve(file)));
+  }
 }
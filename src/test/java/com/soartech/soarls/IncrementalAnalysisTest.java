@@ -0,0 +1,138 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import java.util.Arrays;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for edits inside the body of a single production, which are handled without analysing the
+ * whole project again.
+ */
+public class IncrementalAnalysisTest extends SingleFileTestFixture {
+  private final SoarDocumentService documentService;
+
+  private final URI uri;
+
+  private final ProjectAnalysis before;
+
+  public IncrementalAnalysisTest() throws Exception {
+    super("incremental", "load.soar");
+    documentService = (SoarDocumentService) languageServer.getTextDocumentService();
+    uri = workspaceRoot.resolve(file);
+    before = documentService.waitForAnalysis(uri);
+  }
+
+  /** Replace part of a single line and wait for the resulting analysis. */
+  private ProjectAnalysis edit(Range range, String text) throws Exception {
+    int length = range.getEnd().getCharacter() - range.getStart().getCharacter();
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(uri.toString(), 1),
+                Arrays.asList(new TextDocumentContentChangeEvent(range, length, text))));
+    return documentService.waitForAnalysis(uri);
+  }
+
+  @Test
+  public void productionBodyUpdated() throws Exception {
+    ProjectAnalysis after = edit(range(3, 20, 3, 23), "no");
+
+    assertNotSame(before, after);
+    // The file was not analysed again, only the production.
+    assertSame(before.files.get(uri).file, after.files.get(uri).file);
+    assertTrue(after.productions("elaborate*top-state").get(0).body.contains("^top-state no"));
+  }
+
+  /** Only the indexes that depend on production bodies are rebuilt. */
+  @Test
+  public void indexesUpdated() throws Exception {
+    ProjectAnalysis after = edit(range(3, 20, 3, 23), "no");
+
+    assertSame(before.identifiers, after.identifiers);
+    assertSame(before.symbols, after.symbols);
+    assertTrue(after.attributes.withValue("top-state", "yes").isEmpty());
+    assertSame(
+        after.productions("elaborate*top-state").get(0),
+        after.attributes.withValue("top-state", "no").get(0));
+    assertEquals(1, after.attributes.creating("name").size());
+  }
+
+  @Test
+  public void productionDiagnosticsUpdated() throws Exception {
+    ProjectAnalysis after = edit(range(3, 20, 3, 23), "(unknown-function)");
+
+    assertSame(before.files.get(uri).file, after.files.get(uri).file);
+    assertTrue(
+        getFileDiagnostics()
+            .stream()
+            .anyMatch(
+                d ->
+                    d.getSeverity() == DiagnosticSeverity.Warning
+                        && d.getMessage().equals("No RHS function named 'unknown-function'")));
+  }
+
+  /**
+   * The scratch agent can't tell whether a production duplicates another one, so a body that looks
+   * like another production's needs a full analysis to report it.
+   */
+  @Test
+  public void duplicateBodyReanalysed() throws Exception {
+    ProjectAnalysis after = edit(range(3, 9, 3, 23), "^name incremental");
+
+    assertNotSame(before.files.get(uri).file, after.files.get(uri).file);
+    assertTrue(hasDuplicateWarning(after));
+  }
+
+  /** Likewise, a warning that another production duplicated this one may no longer apply. */
+  @Test
+  public void duplicateWarningCleared() throws Exception {
+    ProjectAnalysis duplicated = edit(range(3, 9, 3, 23), "^name incremental");
+    ProjectAnalysis after = edit(range(3, 9, 3, 26), "^top-state no");
+
+    assertNotSame(duplicated.files.get(uri).file, after.files.get(uri).file);
+    assertFalse(hasDuplicateWarning(after));
+  }
+
+  private boolean hasDuplicateWarning(ProjectAnalysis analysis) {
+    return analysis
+        .files
+        .get(uri)
+        .diagnostics
+        .stream()
+        .anyMatch(d -> d.getMessage().matches("Ignoring .+ because it is a duplicate of .+"));
+  }
+
+  /** Once the server has shut down its analysis thread is gone, so edits are not analysed. */
+  @Test
+  public void noAnalysisAfterShutdown() throws Exception {
+    languageServer.shutdown().get();
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(uri.toString(), 1),
+                Arrays.asList(
+                    new TextDocumentContentChangeEvent(range(3, 20, 3, 23), 3, "no"))));
+    Thread.sleep(200);
+
+    assertSame(before, documentService.snapshot().analyses.get(uri));
+  }
+
+  /** Other productions might depend on the name, so this needs a full analysis. */
+  @Test
+  public void renamedProductionReanalysed() throws Exception {
+    ProjectAnalysis after = edit(range(0, 14, 0, 23), "renamed");
+
+    assertNotSame(before.files.get(uri).file, after.files.get(uri).file);
+    assertFalse(after.productions("elaborate*renamed").isEmpty());
+  }
+}
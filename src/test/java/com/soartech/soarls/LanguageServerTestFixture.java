@@ -14,11 +14,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.eclipse.lsp4j.ApplyWorkspaceEditParams;
 import org.eclipse.lsp4j.ApplyWorkspaceEditResponse;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.ConfigurationParams;
 import org.eclipse.lsp4j.CreateFile;
 import org.eclipse.lsp4j.DefinitionParams;
@@ -47,8 +49,8 @@ import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.TextEdit;
 import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
-import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageServer;
+import org.junit.jupiter.api.AfterEach;
 
 /**
  * Extend this to create a test class. Create a Soar project in
@@ -59,7 +61,7 @@ import org.eclipse.lsp4j.services.LanguageServer;
  *
  * <p>This is largely borrowed from the Kotlin language server.
  */
-public class LanguageServerTestFixture implements LanguageClient {
+public class LanguageServerTestFixture implements SoarLanguageClient {
   protected final URI workspaceRoot;
 
   protected final LanguageServer languageServer;
@@ -79,7 +81,16 @@ public class LanguageServerTestFixture implements LanguageClient {
   /** A record of all edits that have been applied to each file. */
   Map<String, List<TextEdit>> edits = new HashMap<>();
 
+  /** The number of times the server has asked us to pull diagnostics again. */
+  AtomicInteger diagnosticRefreshes = new AtomicInteger();
+
   protected LanguageServerTestFixture(String relativeWorkspaceRoot) throws Exception {
+    this(relativeWorkspaceRoot, null);
+  }
+
+  /** Create a fixture whose client reports the given capabilities to the server. */
+  protected LanguageServerTestFixture(
+      String relativeWorkspaceRoot, ClientCapabilities clientCapabilities) throws Exception {
     URL anchorUrl = this.getClass().getResource("/Anchor.txt");
     workspaceRoot =
         anchorUrl
@@ -92,6 +103,7 @@ public class LanguageServerTestFixture implements LanguageClient {
 
     InitializeParams init = new InitializeParams();
     init.setRootUri(workspaceRoot.toString());
+    init.setCapabilities(clientCapabilities);
     capabilities = languageServer.initialize(init).get().getCapabilities();
 
     languageServer.initialized(new InitializedParams());
@@ -102,6 +114,12 @@ public class LanguageServerTestFixture implements LanguageClient {
     sendConfiguration();
   }
 
+  /** Stop the server's analysis thread, so that it does not outlive the test. */
+  @AfterEach
+  void shutdown() throws Exception {
+    languageServer.shutdown().get();
+  }
+
   /** Update the server's configuration. */
   void sendConfiguration() {
     JsonObject settings = new JsonObject();
@@ -252,6 +270,12 @@ public class LanguageServerTestFixture implements LanguageClient {
     return CompletableFuture.completedFuture(null);
   }
 
+  @Override
+  public CompletableFuture<Void> refreshDiagnostics() {
+    diagnosticRefreshes.incrementAndGet();
+    return CompletableFuture.completedFuture(null);
+  }
+
   // Helpers
 
   protected static Range range(int startLine, int startCharacter, int endLine, int endCharacter) {
@@ -0,0 +1,40 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the lazyAnalysis option in soarAgents.json, where entry points other than the active
+ * one are only analysed when they are needed.
+ */
+public class LazyAnalysisTest extends LanguageServerTestFixture {
+  private final SoarDocumentService documentService;
+
+  public LazyAnalysisTest() throws Exception {
+    super("lazy-analysis");
+    documentService = (SoarDocumentService) languageServer.getTextDocumentService();
+    waitForAnalysis("primary.soar");
+  }
+
+  @Test
+  public void onlyActiveEntryPointAnalysed() {
+    URI primary = workspaceRoot.resolve("primary.soar");
+    URI secondary = workspaceRoot.resolve("secondary/load.soar");
+    assertTrue(documentService.snapshot().analysis(primary).isPresent());
+    assertFalse(documentService.snapshot().analysis(secondary).isPresent());
+  }
+
+  /** The secondary entry point sources this file from inside a pushd. */
+  @Test
+  public void openingSourcedFileTriggersAnalysis() throws Exception {
+    open("secondary/rules/elaborate.soar");
+    waitForAnalysis("secondary/load.soar");
+
+    ProjectAnalysis analysis =
+        documentService.snapshot().analysis(workspaceRoot.resolve("secondary/load.soar")).get();
+    assertTrue(analysis.files.containsKey(workspaceRoot.resolve("secondary/rules/elaborate.soar")));
+  }
+}
@@ -3,6 +3,11 @@ package com.soartech.soarls;
 import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.google.gson.Gson;
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import org.eclipse.lsp4j.DefinitionParams;
 import org.eclipse.lsp4j.Hover;
@@ -82,6 +87,49 @@ public class MultipleEntryPointTest extends LanguageServerTestFixture {
     assertThrows(NullPointerException.class, () -> waitForAnalysis("common.soar"));
   }
 
+  /** Files are indexed by the entry points that source them, in the order of the entry points. */
+  @Test
+  void entryPointsSourcing() throws Exception {
+    waitForAnalysis("primary.soar");
+    waitForAnalysis("secondary.soar");
+    WorkspaceSnapshot snapshot =
+        ((SoarDocumentService) languageServer.getTextDocumentService()).snapshot();
+
+    assertEquals(
+        Arrays.asList(
+            workspaceRoot.resolve("primary.soar"), workspaceRoot.resolve("secondary.soar")),
+        snapshot.entryPointsSourcing(workspaceRoot.resolve("common.soar")).asList());
+    assertEquals(
+        Arrays.asList(workspaceRoot.resolve("primary.soar")),
+        snapshot.entryPointsSourcing(workspaceRoot.resolve("primary.soar")).asList());
+  }
+
+  /**
+   * Renaming an entry point in soarAgents.json analyses it again, since the analysis records its
+   * name, but leaves the other entry points alone.
+   */
+  @Test
+  void renamedEntryPointReanalysed() throws Exception {
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    ProjectAnalysis primary =
+        documentService.waitForAnalysis(workspaceRoot.resolve("primary.soar"));
+    waitForAnalysis("secondary.soar");
+
+    String json =
+        new String(Files.readAllBytes(Paths.get(workspaceRoot.resolve("soarAgents.json"))));
+    documentService.setProjectConfig(
+        new Gson()
+            .fromJson(
+                json.replace("\"name\": \"secondary\"", "\"name\": \"renamed\""),
+                ProjectConfiguration.class));
+    ProjectAnalysis secondary =
+        documentService.waitForAnalysis(workspaceRoot.resolve("secondary.soar"));
+
+    assertEquals("renamed", secondary.entryPoint.name);
+    assertSame(primary, documentService.waitForAnalysis(workspaceRoot.resolve("primary.soar")));
+  }
+
   /** Assert that the list of locations includes the given URI and range. */
   void assertLocation(List<Location> locations, String relativePath, Range range) {
     String uri = resolve(relativePath);
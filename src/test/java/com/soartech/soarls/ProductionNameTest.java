@@ -0,0 +1,89 @@
+package com.soartech.soarls;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.ReferenceContext;
+import org.eclipse.lsp4j.ReferenceParams;
+import org.junit.jupiter.api.Test;
+
+/** Tests for navigating to productions by name. */
+public class ProductionNameTest extends LanguageServerTestFixture {
+  public ProductionNameTest() throws Exception {
+    super("productions");
+
+    waitForAnalysis("load.soar");
+  }
+
+  List<Location> definitions(String relativePath, int line, int character) throws Exception {
+    return languageServer
+        .getTextDocumentService()
+        .definition(definitionParams(relativePath, line, character))
+        .get()
+        .getLeft()
+        .stream()
+        .collect(toList());
+  }
+
+  List<Location> references(String relativePath, int line, int character, boolean declarations)
+      throws Exception {
+    ReferenceParams params = new ReferenceParams();
+    params.setTextDocument(fileId(relativePath));
+    params.setPosition(new Position(line, character));
+    params.setContext(new ReferenceContext(declarations));
+    return languageServer
+        .getTextDocumentService()
+        .references(params)
+        .get()
+        .stream()
+        .collect(toList());
+  }
+
+  @Test
+  public void definitionFromComment() throws Exception {
+    List<Location> locations = definitions("load.soar", 3, 40);
+    assertEquals(1, locations.size());
+    assertTrue(locations.get(0).getUri().endsWith("rules.soar"));
+    assertEquals(range(0, 0, 4, 1), locations.get(0).getRange());
+  }
+
+  @Test
+  public void definitionFromExcise() throws Exception {
+    List<Location> locations = definitions("load.soar", 4, 10);
+    assertEquals(1, locations.size());
+    assertTrue(locations.get(0).getUri().endsWith("rules.soar"));
+  }
+
+  /** A production that was defined twice has two definitions. */
+  @Test
+  public void definitionOfDuplicate() throws Exception {
+    List<Location> locations = definitions("rules.soar", 6, 8);
+    assertEquals(2, locations.size());
+  }
+
+  @Test
+  public void referencesFromDefinition() throws Exception {
+    List<Location> locations = references("rules.soar", 0, 8, false);
+    assertEquals(1, locations.size());
+    assertTrue(locations.get(0).getUri().endsWith("load.soar"));
+    assertEquals(range(4, 7, 4, 26), locations.get(0).getRange());
+  }
+
+  @Test
+  public void referencesIncludingDefinition() throws Exception {
+    assertEquals(2, references("load.soar", 4, 10, true).size());
+  }
+
+  @Test
+  public void duplicateWarning() {
+    List<Diagnostic> diagnostics = diagnosticsForFile("duplicate.soar");
+    assertEquals(1, diagnostics.size());
+    assertEquals(DiagnosticSeverity.Warning, diagnostics.get(0).getSeverity());
+    assertTrue(diagnostics.get(0).getMessage().contains("rules.soar:7"));
+  }
+}
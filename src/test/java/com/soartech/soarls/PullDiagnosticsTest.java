@@ -0,0 +1,148 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.DocumentDiagnosticReport;
+import com.soartech.soarls.DiagnosticReports.PreviousResultId;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticParams;
+import com.soartech.soarls.DiagnosticReports.WorkspaceDiagnosticReport;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.junit.jupiter.api.Test;
+
+/** Tests for clients that pull diagnostics, rather than having them published. */
+public class PullDiagnosticsTest extends SingleFileTestFixture {
+  public PullDiagnosticsTest() throws Exception {
+    super("diagnostics", "test.soar", pullCapabilities());
+    waitForAnalysis("test.soar");
+  }
+
+  /** The experimental capability that clients set to say that they pull diagnostics. */
+  static ClientCapabilities pullCapabilities() {
+    JsonObject experimental = new JsonObject();
+    experimental.addProperty("pullDiagnostics", true);
+    ClientCapabilities capabilities = new ClientCapabilities();
+    capabilities.setExperimental(experimental);
+    return capabilities;
+  }
+
+  /** Insert some text at the start of the file. */
+  void insertAtStart(String text) {
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId(file).getUri(), 1),
+                Arrays.asList(new TextDocumentContentChangeEvent(range(0, 0, 0, 0), 0, text))));
+  }
+
+  DocumentDiagnosticReport documentDiagnostic(String previousResultId) throws Exception {
+    return ((Server) languageServer)
+        .documentDiagnostic(new DocumentDiagnosticParams(fileId(file), previousResultId))
+        .get();
+  }
+
+  @Test
+  public void fullReport() throws Exception {
+    DocumentDiagnosticReport report = documentDiagnostic(null);
+
+    assertEquals(DiagnosticReports.FULL, report.getKind());
+    assertNotNull(report.getResultId());
+    assertEquals(11, report.getItems().size());
+  }
+
+  /** Once the client has said that it pulls diagnostics, they aren't pushed as well. */
+  @Test
+  public void pushDisabled() {
+    assertTrue(capabilities.getExperimental() instanceof JsonObject);
+    assertFalse(diagnostics.containsKey(fileId(file).getUri()));
+  }
+
+  /** A pull made right after an edit waits for the edit to be analysed. */
+  @Test
+  public void reportAfterEdit() throws Exception {
+    insertAtStart("undefined-command-two\n");
+    DocumentDiagnosticReport report = documentDiagnostic(null);
+
+    assertTrue(
+        report
+            .getItems()
+            .stream()
+            .anyMatch(
+                d ->
+                    d.getMessage().equals("invalid command name \"undefined-command-two\"")
+                        && d.getRange().equals(range(0, 0, 0, 21))));
+    assertTrue(
+        report
+            .getItems()
+            .stream()
+            .anyMatch(
+                d ->
+                    d.getMessage().contains("In production 'missing-arrow'")
+                        && d.getRange().equals(range(5, 0, 8, 1))));
+  }
+
+  /** The client is asked to pull again when an analysis changes the diagnostics. */
+  @Test
+  public void refreshAfterAnalysis() throws Exception {
+    int refreshes = diagnosticRefreshes.get();
+    insertAtStart("undefined-command-two\n");
+    waitForAnalysis("test.soar");
+
+    assertTrue(diagnosticRefreshes.get() > refreshes);
+  }
+
+  /** If nothing has changed then the client already has the diagnostics. */
+  @Test
+  public void unchangedReport() throws Exception {
+    String resultId = documentDiagnostic(null).getResultId();
+    DocumentDiagnosticReport report = documentDiagnostic(resultId);
+
+    assertEquals(DiagnosticReports.UNCHANGED, report.getKind());
+    assertEquals(resultId, report.getResultId());
+    assertNull(report.getItems());
+  }
+
+  @Test
+  public void workspaceReport() throws Exception {
+    WorkspaceDiagnosticReport report =
+        ((Server) languageServer)
+            .workspaceDiagnostic(new WorkspaceDiagnosticParams(new ArrayList<>()))
+            .get();
+
+    DocumentDiagnosticReport fileReport =
+        report
+            .getItems()
+            .stream()
+            .filter(item -> item.getUri().equals(fileId(file).getUri()))
+            .findFirst()
+            .get();
+    assertEquals(DiagnosticReports.FULL, fileReport.getKind());
+    assertEquals(11, fileReport.getItems().size());
+    // The version that the fixture gave the document when it opened it.
+    assertEquals(Integer.valueOf(0), fileReport.getVersion());
+  }
+
+  @Test
+  public void workspaceReportUnchanged() throws Exception {
+    String resultId = documentDiagnostic(null).getResultId();
+    PreviousResultId previous = new PreviousResultId(fileId(file).getUri(), resultId);
+    WorkspaceDiagnosticReport report =
+        ((Server) languageServer)
+            .workspaceDiagnostic(new WorkspaceDiagnosticParams(Arrays.asList(previous)))
+            .get();
+
+    assertTrue(
+        report
+            .getItems()
+            .stream()
+            .filter(item -> item.getUri().equals(previous.getUri()))
+            .allMatch(item -> item.getKind().equals(DiagnosticReports.UNCHANGED)));
+  }
+}
@@ -89,6 +89,30 @@ public class ReferencesTest extends LanguageServerTestFixture {
     assertReference(references, "productions.soar", range(8, 4, 8, 29));
   }
 
+  @Test
+  public void referencesFromInsideProcedureBody() throws Exception {
+    // set local, in the body of ngs-outer
+    List<Location> references = referencesForPoint("micro-ngs/nested.tcl", 3, 4);
+    assertReferenceOnLine(references, "micro-ngs/nested.tcl", 16);
+    assertEquals(1, references.size());
+  }
+
+  @Test
+  public void referencesFromInsideNestedProcedureBody() throws Exception {
+    // set local, in the body of ngs-nested, which is defined inside an if command
+    List<Location> references = referencesForPoint("micro-ngs/nested.tcl", 9, 8);
+    assertReferenceOnLine(references, "micro-ngs/nested.tcl", 17);
+    assertEquals(1, references.size());
+  }
+
+  @Test
+  public void referencesToUnreadVariable() throws Exception {
+    // set NGS_UNREAD, which nothing reads, so only the name itself is found
+    List<Location> references = referencesForPoint("micro-ngs/nested.tcl", 14, 4);
+    assertReference(references, "micro-ngs/nested.tcl", range(14, 4, 14, 14));
+    assertEquals(1, references.size());
+  }
+
   /** Assert that the list of locations includes the given URI and range. */
   void assertReference(List<Location> locations, String relativePath, Range range) {
     String uri = resolve(relativePath);
@@ -99,4 +123,15 @@ public class ReferencesTest extends LanguageServerTestFixture {
         .findAny()
         .get();
   }
+
+  /** Assert that the list of locations includes one in the given file that starts on a line. */
+  void assertReferenceOnLine(List<Location> locations, String relativePath, int line) {
+    String uri = resolve(relativePath);
+    locations
+        .stream()
+        .filter(l -> l.getUri().equals(uri))
+        .filter(l -> l.getRange().getStart().getLine() == line)
+        .findAny()
+        .get();
+  }
 }
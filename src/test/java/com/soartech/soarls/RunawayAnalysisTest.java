@@ -0,0 +1,52 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for agents whose code never finishes, which must not stop the analysis from completing.
+ * The project sets a time limit of one second.
+ */
+public class RunawayAnalysisTest extends SingleFileTestFixture {
+  private final ProjectAnalysis analysis;
+
+  public RunawayAnalysisTest() throws Exception {
+    super("runaway", "load.soar");
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    analysis = documentService.waitForAnalysis(workspaceRoot.resolve(file));
+  }
+
+  @Test
+  public void infiniteLoopInterrupted() {
+    Diagnostic diagnostic =
+        analysis
+            .files
+            .get(workspaceRoot.resolve(file))
+            .diagnostics
+            .stream()
+            .filter(d -> "AnalysisBudget".equals(d.getSource()))
+            .findAny()
+            .get();
+    assertEquals(range(2, 0, 2, 12), diagnostic.getRange());
+    assertEquals(DiagnosticSeverity.Error, diagnostic.getSeverity());
+  }
+
+  /** Nothing after the loop is evaluated. */
+  @Test
+  public void restOfAgentSkipped() {
+    assertTrue(analysis.productions("after*loop").isEmpty());
+  }
+
+  @Test
+  public void sourceCycleReported() {
+    Diagnostic diagnostic =
+        analysis.files.get(workspaceRoot.resolve("cycle.soar")).diagnostics.get(0);
+    assertEquals(range(1, 0, 1, 17), diagnostic.getRange());
+    assertTrue(diagnostic.getMessage().startsWith("Files are sourced in a cycle"));
+  }
+}
@@ -0,0 +1,113 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the textDocument/semanticTokens requests. */
+public class SemanticTokensTest extends SingleFileTestFixture {
+  public SemanticTokensTest() throws Exception {
+    super("semantic-tokens", "test.soar");
+  }
+
+  SemanticTokens full() throws Exception {
+    return languageServer
+        .getTextDocumentService()
+        .semanticTokensFull(new SemanticTokensParams(fileId(file)))
+        .get();
+  }
+
+  /** Decode the relative encoding into "line:character:length:type:modifiers" strings. */
+  static List<String> decode(List<Integer> data) {
+    List<String> tokens = new ArrayList<>();
+    int line = 0;
+    int character = 0;
+    for (int i = 0; i < data.size(); i += 5) {
+      character = data.get(i) == 0 ? character + data.get(i + 1) : data.get(i + 1);
+      line += data.get(i);
+      tokens.add(
+          String.format(
+              "%d:%d:%d:%d:%d",
+              line,
+              character,
+              data.get(i + 2),
+              data.get(i + 3),
+              data.get(i + 4)));
+    }
+    return tokens;
+  }
+
+  @Test
+  public void checkCapabilities() {
+    assertEquals(
+        SemanticTokensRequest.LEGEND, capabilities.getSemanticTokensProvider().getLegend());
+  }
+
+  @Test
+  public void classifiesTokens() throws Exception {
+    List<String> expected =
+        Arrays.asList(
+            // comment
+            "0:0:11:0:0",
+            // set is a built in command, NGS_YES is declared
+            "1:0:3:1:2",
+            "1:4:7:2:1",
+            // proc is a built in command, greet is declared
+            "3:0:4:1:2",
+            "3:5:5:1:1",
+            // sp is a built in command, and the production name is declared
+            "5:0:2:1:2",
+            "5:4:10:3:1",
+            // a variable
+            "6:21:8:2:0",
+            // a call to a user defined procedure
+            "8:10:5:1:0");
+    assertEquals(expected, decode(full().getData()));
+  }
+
+  /** Applying a delta to the previous tokens gives the same result as asking for all of them. */
+  @Test
+  public void delta() throws Exception {
+    SemanticTokens previous = full();
+
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId(file).getUri(), 1),
+                Arrays.asList(
+                    new TextDocumentContentChangeEvent(range(2, 0, 2, 0), 0, "set X 1\n"))));
+
+    SemanticTokensDeltaParams params =
+        new SemanticTokensDeltaParams(fileId(file), previous.getResultId());
+    SemanticTokensDelta delta =
+        languageServer.getTextDocumentService().semanticTokensFullDelta(params).get().getRight();
+    assertNotEquals(previous.getResultId(), delta.getResultId());
+
+    List<Integer> data = new ArrayList<>(previous.getData());
+    for (SemanticTokensEdit edit : delta.getEdits()) {
+      data.subList(edit.getStart(), edit.getStart() + edit.getDeleteCount()).clear();
+      data.addAll(edit.getStart(), edit.getData());
+    }
+    assertEquals(full().getData(), data);
+  }
+
+  /** If the client asks for a delta from a result that we don't know about, send everything. */
+  @Test
+  public void unknownPreviousResult() throws Exception {
+    SemanticTokensDeltaParams params = new SemanticTokensDeltaParams(fileId(file), "unknown");
+    assertTrue(
+        languageServer.getTextDocumentService().semanticTokensFullDelta(params).get().isLeft());
+  }
+}
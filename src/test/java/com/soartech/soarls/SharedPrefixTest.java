@@ -0,0 +1,75 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.analysis.ProcedureDefinition;
+import com.soartech.soarls.analysis.ProjectAnalysis;
+import java.net.URI;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the sharedPrefixAnalysis option in soarAgents.json, where entry points that begin by
+ * sourcing the same files share the analysis of those files.
+ */
+public class SharedPrefixTest extends LanguageServerTestFixture {
+  private final URI common;
+
+  private final ProjectAnalysis agent1;
+
+  private final ProjectAnalysis agent2;
+
+  public SharedPrefixTest() throws Exception {
+    super("shared-prefix");
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    common = workspaceRoot.resolve("common/load.soar");
+    agent1 = documentService.waitForAnalysis(workspaceRoot.resolve("agent1/load.soar"));
+    agent2 = documentService.waitForAnalysis(workspaceRoot.resolve("agent2/load.soar"));
+  }
+
+  @Test
+  public void commonFileAnalysisShared() {
+    assertSame(agent1.files.get(common), agent2.files.get(common));
+  }
+
+  @Test
+  public void definitionsShared() {
+    assertSame(
+        agent1.procedureDefinitions.get("ngs-create-attribute"),
+        agent2.procedureDefinitions.get("ngs-create-attribute"));
+    assertSame(
+        agent1.variableDefinitions.get("NGS_YES"), agent2.variableDefinitions.get("NGS_YES"));
+  }
+
+  /** Each agent still sees the calls made from the shared files, as well as its own. */
+  @Test
+  public void callsFromEachAgent() {
+    for (ProjectAnalysis analysis : new ProjectAnalysis[] {agent1, agent2}) {
+      ProcedureDefinition definition = analysis.procedureDefinitions.get("ngs-create-attribute");
+      assertTrue(
+          analysis
+              .procedureCalls
+              .get(definition)
+              .stream()
+              .anyMatch(call -> call.callSiteLocation.getUri().equals(common.toString())));
+      assertTrue(
+          analysis
+              .procedureCalls
+              .get(definition)
+              .stream()
+              .anyMatch(
+                  call ->
+                      call.callSiteLocation
+                          .getUri()
+                          .equals(analysis.entryPointUri.toString())));
+    }
+  }
+
+  /** Agent-specific productions are not shared. */
+  @Test
+  public void productionsNotShared() {
+    assertTrue(agent1.productions("agent2*elaborate*name").isEmpty());
+    assertFalse(agent2.productions("agent2*elaborate*name").isEmpty());
+    assertFalse(agent2.productions("elaborate*top-state").isEmpty());
+  }
+}
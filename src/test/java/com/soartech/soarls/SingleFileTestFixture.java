@@ -1,6 +1,7 @@
 package com.soartech.soarls;
 
 import java.util.List;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.Diagnostic;
 
 /**
@@ -15,7 +16,13 @@ class SingleFileTestFixture extends LanguageServerTestFixture {
   final String file;
 
   SingleFileTestFixture(String relativeWorkspaceRoot, String file) throws Exception {
-    super(relativeWorkspaceRoot);
+    this(relativeWorkspaceRoot, file, null);
+  }
+
+  SingleFileTestFixture(
+      String relativeWorkspaceRoot, String file, ClientCapabilities clientCapabilities)
+      throws Exception {
+    super(relativeWorkspaceRoot, clientCapabilities);
     this.file = file;
     open(file);
   }
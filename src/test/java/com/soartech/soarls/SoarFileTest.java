@@ -83,6 +83,13 @@ public class SoarFileTest extends LanguageServerTestFixture {
     }
   }
 
+  /** Positions past the end of the file are clamped to the end of the file. */
+  @Test
+  public void offsetPastEnd() {
+    assertEquals(file.contents.length(), file.offset(new Position(1000, 0)));
+    assertEquals(file.contents.length(), file.offset(new Position(endPosition.getLine(), 10)));
+  }
+
   @Test
   public void lines() {
     assertEquals(file.line(0), "# comment\n");
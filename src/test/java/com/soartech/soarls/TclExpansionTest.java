@@ -2,19 +2,31 @@ package com.soartech.soarls;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.soartech.soarls.analysis.ProjectAnalysis;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
 import org.eclipse.lsp4j.CodeActionContext;
 import org.eclipse.lsp4j.CodeActionParams;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.junit.jupiter.api.Test;
 
-/** Tcl expansions are implementad by creating and modifying the contents of a special file. */
+/**
+ * Tcl expansions are served by a custom request. Optionally, they are also implemented by creating
+ * and modifying the contents of a special file.
+ */
 public class TclExpansionTest extends LanguageServerTestFixture {
   public TclExpansionTest() throws Exception {
     super("project");
 
+    config.writeTclExpansionFile = true;
+    sendConfiguration();
+
     URI uri = workspaceRoot.resolve("~tcl-expansion.soar");
     DidOpenTextDocumentParams params =
         new DidOpenTextDocumentParams(new TextDocumentItem(uri.toString(), "soar", 0, ""));
@@ -104,4 +116,97 @@ public class TclExpansionTest extends LanguageServerTestFixture {
 
     assertTrue(this.edits.isEmpty());
   }
+
+  /** Clients that don't want the file to be written can request expansions directly. */
+  @Test
+  public void expansionRequest() throws Exception {
+    config.writeTclExpansionFile = false;
+    sendConfiguration();
+
+    TclExpansionParams params =
+        new TclExpansionParams(fileId("productions.soar"), range(0, 0, 0, 0));
+    String expansion = ((Server) languageServer).tclExpansion(params).get();
+
+    assertEquals(
+        expansion,
+        "sp {elaborate*top-state\n"
+            + "    (state <s> ^superstate nil)\n"
+            + "-->\n"
+            + "    (<s> ^top-state *YES*)\n"
+            + "}\n");
+  }
+
+  /**
+   * Editing the body of a production re-evaluates just that production, which keeps the syntax tree
+   * of the analysed file. The expansion must still show the new body.
+   */
+  @Test
+  public void expansionAfterEditingProduction() throws Exception {
+    SoarDocumentService documentService =
+        (SoarDocumentService) languageServer.getTextDocumentService();
+    URI entryPoint = workspaceRoot.resolve("load.soar");
+    URI productions = workspaceRoot.resolve("productions.soar");
+    open("productions.soar");
+    // Only productions with literal bodies can be re-evaluated on their own.
+    change(
+        "productions.soar",
+        range(0, 0, 4, 1),
+        "sp {elaborate*top-state\n"
+            + "    (state <s> ^superstate nil)\n"
+            + "-->\n"
+            + "    (<s> ^top-state *YES*)\n"
+            + "}");
+    SoarFile analysed = documentService.waitForAnalysis(entryPoint).files.get(productions).file;
+    TclExpansionParams params =
+        new TclExpansionParams(fileId("productions.soar"), range(0, 0, 0, 0));
+    assertTrue(((Server) languageServer).tclExpansion(params).get().contains("*YES*"));
+
+    change("productions.soar", range(3, 20, 3, 25), "*NO*");
+    ProjectAnalysis after = documentService.waitForAnalysis(entryPoint);
+
+    assertSame(analysed, after.files.get(productions).file);
+    String expansion = ((Server) languageServer).tclExpansion(params).get();
+    assertTrue(expansion.contains("^top-state *NO*"));
+  }
+
+  /** Replace a range of a document with some text. */
+  void change(String relativePath, Range range, String text) {
+    languageServer
+        .getTextDocumentService()
+        .didChange(
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(fileId(relativePath).getUri(), 1),
+                Arrays.asList(new TextDocumentContentChangeEvent(range, -1, text))));
+  }
+
+  /** The expansion file is only written if the client asks for it. */
+  @Test
+  public void noChangesWhenFileDisabled() throws Exception {
+    config.writeTclExpansionFile = false;
+    sendConfiguration();
+
+    languageServer
+        .getTextDocumentService()
+        .codeAction(params("productions.soar", range(0, 0, 0, 0)))
+        .get();
+
+    assertTrue(this.edits.isEmpty());
+  }
+
+  /** Clients send code action requests for other reasons than moving the cursor. */
+  @Test
+  public void noChangesForSameSelection() throws Exception {
+    languageServer
+        .getTextDocumentService()
+        .codeAction(params("productions.soar", range(0, 0, 0, 0)))
+        .get();
+    this.edits = new HashMap<>();
+
+    languageServer
+        .getTextDocumentService()
+        .codeAction(params("productions.soar", range(0, 0, 0, 0)))
+        .get();
+
+    assertTrue(this.edits.isEmpty());
+  }
 }
@@ -0,0 +1,60 @@
+package com.soartech.soarls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the workspace/symbol request. */
+public class WorkspaceSymbolTest extends LanguageServerTestFixture {
+  public WorkspaceSymbolTest() throws Exception {
+    super("project");
+
+    waitForAnalysis("load.soar");
+  }
+
+  List<? extends SymbolInformation> symbols(String query) throws Exception {
+    return languageServer.getWorkspaceService().symbol(new WorkspaceSymbolParams(query)).get();
+  }
+
+  @Test
+  public void checkCapabilities() {
+    assertEquals(capabilities.getWorkspaceSymbolProvider(), true);
+  }
+
+  @Test
+  public void production() throws Exception {
+    List<? extends SymbolInformation> symbols = symbols("elaborate*top");
+    assertEquals(1, symbols.size());
+    SymbolInformation symbol = symbols.get(0);
+    assertEquals("elaborate*top-state", symbol.getName());
+    assertEquals(SymbolKind.Object, symbol.getKind());
+    assertTrue(symbol.getLocation().getUri().endsWith("productions.soar"));
+  }
+
+  @Test
+  public void procedure() throws Exception {
+    SymbolInformation symbol = symbols("create-attribute").get(0);
+    assertEquals("ngs-create-attribute", symbol.getName());
+    assertEquals(SymbolKind.Function, symbol.getKind());
+  }
+
+  @Test
+  public void variable() throws Exception {
+    SymbolInformation symbol = symbols("ngs_yes").get(0);
+    assertEquals("NGS_YES", symbol.getName());
+    assertEquals(SymbolKind.Variable, symbol.getKind());
+  }
+
+  /** Queries match any part of a name, ignoring case, with prefix matches first. */
+  @Test
+  public void ranking() throws Exception {
+    List<? extends SymbolInformation> symbols = symbols("NGS");
+    assertFalse(symbols.isEmpty());
+    assertTrue(symbols.get(0).getName().toLowerCase().startsWith("ngs"));
+    assertTrue(symbols.stream().allMatch(s -> s.getName().toLowerCase().contains("ngs")));
+  }
+}
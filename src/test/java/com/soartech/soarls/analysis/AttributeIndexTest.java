@@ -0,0 +1,77 @@
+package com.soartech.soarls.analysis;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.junit.jupiter.api.Test;
+
+/** Productions are indexed from their bodies alone, so we can test this without a workspace. */
+public class AttributeIndexTest {
+  final AttributeIndex index =
+      AttributeIndex.of(
+          Arrays.asList(
+              production(
+                  "propose*move\n"
+                      + "    (state <s> ^io <io>)\n"
+                      + "    (<io> ^input-link.direction north)\n"
+                      + "-->\n"
+                      + "    (<s> ^operator <o> +)\n"
+                      + "    (<o> ^name move)"),
+              production(
+                  "apply*move\n"
+                      + "    (state <s> ^operator.name move\n"
+                      + "               ^io.output-link <ol>)\n"
+                      + "-->\n"
+                      + "    (<ol> ^move <m>)\n"
+                      + "    (<m> ^direction north)")));
+
+  static Production production(String body) {
+    Range range = new Range(new Position(0, 0), new Position(0, 0));
+    return new Production(body, new Location("file:///test.soar", range));
+  }
+
+  static List<String> names(List<Production> productions) {
+    return productions.stream().map(p -> p.name).collect(toList());
+  }
+
+  @Test
+  public void testedAttributes() {
+    assertEquals(Arrays.asList("propose*move"), names(index.testing("io.input-link.direction")));
+    assertEquals(Arrays.asList("propose*move"), names(index.testing("input-link")));
+    assertEquals(Arrays.asList("apply*move"), names(index.testing("operator.name")));
+  }
+
+  @Test
+  public void createdAttributes() {
+    assertEquals(Arrays.asList("propose*move"), names(index.creating("operator")));
+    assertEquals(Arrays.asList("apply*move"), names(index.creating("io.output-link.move")));
+    assertEquals(
+        Arrays.asList("apply*move"), names(index.creating("io.output-link.move.direction")));
+  }
+
+  /** An attribute on its own matches wherever it appears in a path. */
+  @Test
+  public void attributeNames() {
+    assertEquals(Arrays.asList("propose*move"), names(index.testing("direction")));
+    assertEquals(Arrays.asList("apply*move"), names(index.creating("direction")));
+  }
+
+  @Test
+  public void constantValues() {
+    assertEquals(Arrays.asList("propose*move"), names(index.withValue("name", "move")));
+    assertEquals(
+        Arrays.asList("propose*move", "apply*move"),
+        names(index.withValue("operator.name", "move")));
+  }
+
+  @Test
+  public void unknownAttribute() {
+    assertFalse(index.contains("output"));
+    assertTrue(index.testing("output").isEmpty());
+  }
+}
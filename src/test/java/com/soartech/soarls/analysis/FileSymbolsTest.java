@@ -0,0 +1,62 @@
+package com.soartech.soarls.analysis;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.soartech.soarls.SoarFile;
+import java.net.URI;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The symbols of a file are found from its syntax tree alone, so we can test them without setting
+ * up a workspace.
+ */
+public class FileSymbolsTest {
+  final FileSymbols symbols =
+      FileSymbols.of(
+          new SoarFile(
+              URI.create("file:///test.soar"),
+              "# The answer\n"
+                  + "set ANSWER 42\n"
+                  + "set ANSWER\n"
+                  + "\n"
+                  + "# Say hello\n"
+                  + "proc greet { name {greeting hello} } {\n"
+                  + "    return \"$greeting $name\"\n"
+                  + "}\n"
+                  + "\n"
+                  + "sp {test*production\n"
+                  + "    (state <s> ^superstate nil)\n"
+                  + "-->\n"
+                  + "    (<s> ^answer $ANSWER)\n"
+                  + "}\n"));
+
+  @Test
+  public void procedureDefinitions() {
+    assertEquals(1, symbols.procedureDefinitions.size());
+    ProcedureDefinition def = symbols.procedureDefinitions.get(0);
+    assertEquals("greet", def.name);
+    assertEquals(2, def.arguments.size());
+    assertEquals("name", def.arguments.get(0).name);
+    assertEquals("greeting", def.arguments.get(1).name);
+    assertEquals("hello", def.arguments.get(1).defaultValue.get());
+    assertEquals("# Say hello\n", def.commentText.get());
+    assertEquals(5, def.location.getRange().getStart().getLine());
+  }
+
+  /** Only set commands that assign a value define a variable. */
+  @Test
+  public void variableDefinitions() {
+    assertEquals(1, symbols.variableDefinitions.size());
+    VariableDefinition def = symbols.variableDefinitions.get(0);
+    assertEquals("ANSWER", def.name);
+    assertEquals("42", def.value);
+    assertEquals("# The answer\n", def.commentText.get());
+  }
+
+  @Test
+  public void productions() {
+    assertEquals(1, symbols.productions.size());
+    assertEquals("test*production", symbols.productions.get(0).name);
+    assertEquals(9, symbols.productions.get(0).location.getRange().getStart().getLine());
+  }
+}
@@ -0,0 +1,57 @@
+package com.soartech.soarls.analysis;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class NameIndexTest {
+  final NameIndex<String> index =
+      index("ngs-bind", "ngs-create-attribute", "NGS_YES", "getValue", "other");
+
+  static NameIndex<String> index(String... names) {
+    Map<String, String> entries = new LinkedHashMap<>();
+    for (String name : names) {
+      entries.put(name, name);
+    }
+    return new NameIndex<>(entries);
+  }
+
+  List<String> search(String pattern, int limit) {
+    return index.search(pattern, limit).matches.stream().map(m -> m.name).collect(toList());
+  }
+
+  @Test
+  public void prefix() {
+    assertEquals(Arrays.asList("ngs-bind"), search("ngs-bi", 10));
+  }
+
+  /** Prefix matches are case insensitive, but exact case matches are ranked first. */
+  @Test
+  public void caseInsensitivePrefix() {
+    assertEquals(Arrays.asList("ngs-bind", "ngs-create-attribute", "NGS_YES"), search("ngs", 10));
+  }
+
+  @Test
+  public void wordStarts() {
+    assertEquals(Arrays.asList("ngs-create-attribute"), search("nca", 10));
+    assertEquals(Arrays.asList("getValue"), search("gv", 10));
+  }
+
+  @Test
+  public void subsequence() {
+    assertEquals(Arrays.asList("other"), search("otr", 10));
+  }
+
+  @Test
+  public void limit() {
+    NameIndex.Result<String> result = index.search("", 2);
+    assertEquals(2, result.matches.size());
+    assertTrue(result.isIncomplete);
+    assertFalse(index.search("", 10).isIncomplete);
+  }
+}
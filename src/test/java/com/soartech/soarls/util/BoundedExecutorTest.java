@@ -0,0 +1,33 @@
+package com.soartech.soarls.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+public class BoundedExecutorTest {
+  /** Once the thread is busy and the queue is full, further tasks are turned away. */
+  @Test
+  public void rejectsWhenFull() throws Exception {
+    BoundedExecutor executor = new BoundedExecutor("test-rejects-when-full", 1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    started.await();
+    executor.execute(() -> {});
+
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    assertEquals(1, Metrics.get("executor.test-rejects-when-full.rejected"));
+    assertEquals(1, Metrics.get("executor.test-rejects-when-full.max-queue-depth"));
+    release.countDown();
+  }
+}
@@ -0,0 +1,64 @@
+package com.soartech.soarls.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+public class FuturesTest {
+  /** A function that hasn't started yet shouldn't be run at all. */
+  @Test
+  public void cancelBeforeStart() {
+    CompletableFuture<Integer> source = new CompletableFuture<>();
+    AtomicBoolean ran = new AtomicBoolean(false);
+    CompletableFuture<Integer> result =
+        Futures.thenApplyCancellable(
+            source,
+            (value, cancelChecker) -> {
+              ran.set(true);
+              return value;
+            });
+
+    result.cancel(true);
+    source.complete(1);
+
+    assertTrue(result.isCancelled());
+    assertFalse(ran.get());
+  }
+
+  /** A function that checks for cancellation should stop once the request is cancelled. */
+  @Test
+  public void cancelWhileRunning() throws Exception {
+    CompletableFuture<Integer> source = new CompletableFuture<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Integer> result =
+        Futures.thenApplyCancellable(
+            source,
+            (value, cancelChecker) -> {
+              started.countDown();
+              while (true) {
+                cancelChecker.checkCanceled();
+              }
+            });
+
+    Thread worker = new Thread(() -> source.complete(1));
+    worker.start();
+    started.await();
+    result.cancel(true);
+    worker.join(5000);
+
+    assertFalse(worker.isAlive());
+    assertTrue(result.isCancelled());
+  }
+
+  @Test
+  public void completesNormally() throws Exception {
+    CompletableFuture<Integer> result =
+        Futures.thenApplyCancellable(
+            CompletableFuture.completedFuture(1), (value, cancelChecker) -> value + 1);
+
+    assertEquals(2, (int) result.get());
+  }
+}
@@ -0,0 +1,18 @@
+# Definitions whose bodies contain other commands.
+
+proc ngs-outer { id } {
+    set local $id
+    return $local
+}
+
+if { 1 } {
+    proc ngs-nested { id } {
+        set local $id
+        return $local
+    }
+}
+
+set NGS_UNREAD unread
+
+ngs-outer <s>
+ngs-nested <s>